@@ -0,0 +1,129 @@
+package datadog.compiler;
+
+import datadog.compiler.utils.ClassPathSourceIndexer;
+import datadog.compiler.utils.SourceIndex;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Indexes a class path of many jars with {@link ClassPathSourceIndexer}.
+ * <p>
+ * The synthetic corpus is compiled with the plugin and its classes are spread over the jars.
+ * Every jar also gets classes compiled without the plugin, which the scanner has to read and skip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClassPathIndexingBenchmark {
+
+    @Param({"500"})
+    public int jarCount;
+
+    /**
+     * Threads scanning the jars, {@code 0} for the number of available processors
+     */
+    @Param({"1", "0"})
+    public int parallelism;
+
+    private Path root;
+    private List<Path> classPath;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("class-path-indexing");
+        List<InMemorySourceFile> sources = SyntheticCorpus.generate(SyntheticCorpus.Shape.SMALL_FILES);
+        Path pluginClasses = compile(sources, root.resolve("plugin"), "-Xplugin:" + DatadogCompilerPlugin.NAME);
+        Path plainClasses = compile(sources, root.resolve("plain"), "-proc:none");
+
+        List<Path> pluginClassFiles = classFiles(pluginClasses);
+        List<Path> plainClassFiles = classFiles(plainClasses);
+        classPath = new ArrayList<>();
+        for (int i = 0; i < jarCount; i++) {
+            Path jar = root.resolve("lib-" + i + ".jar");
+            try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+                for (int k = i; k < pluginClassFiles.size(); k += jarCount) {
+                    addEntry(out, "plugin/" + k + ".class", pluginClassFiles.get(k));
+                }
+                for (int k = i; k < plainClassFiles.size(); k += jarCount / 4) {
+                    addEntry(out, "plain/" + k + ".class", plainClassFiles.get(k));
+                }
+            }
+            classPath.add(jar);
+        }
+
+        pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public SourceIndex index() throws IOException {
+        return ClassPathSourceIndexer.index(classPath, pool);
+    }
+
+    private static Path compile(List<InMemorySourceFile> sources, Path output, String option) throws IOException {
+        Files.createDirectories(output);
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+            List<String> arguments = Arrays.asList(
+                    "-classpath", System.getProperty("java.class.path"),
+                    "-d", output.toString(),
+                    "-nowarn",
+                    option);
+            if (!compiler.getTask(null, fileManager, null, arguments, null, sources).call()) {
+                throw new IllegalStateException("Corpus compilation failed");
+            }
+        }
+        return output;
+    }
+
+    private static List<Path> classFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(file -> file.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static void addEntry(ZipOutputStream out, String name, Path file) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(Files.readAllBytes(file));
+        out.closeEntry();
+    }
+}
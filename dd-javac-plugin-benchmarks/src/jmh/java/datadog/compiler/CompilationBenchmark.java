@@ -0,0 +1,96 @@
+package datadog.compiler;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how much the plugin adds to the time javac takes to compile a synthetic corpus in-process.
+ * <p>
+ * Every invocation compiles the whole corpus from scratch with a fresh in-memory output,
+ * the standard file manager is shared between invocations, the way it is in a warm build daemon.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CompilationBenchmark {
+
+    @Param({"DEEP", "SMALL_FILES"})
+    public SyntheticCorpus.Shape corpus;
+
+    private JavaCompiler compiler;
+    private StandardJavaFileManager standardFileManager;
+    private List<InMemorySourceFile> sources;
+
+    @Setup
+    public void setUp() {
+        compiler = ToolProvider.getSystemJavaCompiler();
+        standardFileManager = compiler.getStandardFileManager(null, null, null);
+        sources = SyntheticCorpus.generate(corpus);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        standardFileManager.close();
+    }
+
+    @Benchmark
+    public InMemoryFileManager withoutPlugin() {
+        return compile();
+    }
+
+    @Benchmark
+    public InMemoryFileManager withPlugin() {
+        return compile("-Xplugin:" + DatadogCompilerPlugin.NAME);
+    }
+
+    @Benchmark
+    public InMemoryFileManager withPluginSourceHash() {
+        return compile("-Xplugin:" + DatadogCompilerPlugin.NAME + " " + DatadogCompilerPlugin.SOURCE_HASH);
+    }
+
+    @Benchmark
+    public InMemoryFileManager withPluginSourceLinesDisabled() {
+        return compile("-Xplugin:" + DatadogCompilerPlugin.NAME + " " + DatadogCompilerPlugin.DISABLE_SOURCE_LINES_ANNOTATION);
+    }
+
+    private InMemoryFileManager compile(String... pluginArguments) {
+        // not closed: closing would close the shared standard file manager
+        InMemoryFileManager fileManager = new InMemoryFileManager(standardFileManager);
+
+        List<String> arguments = new ArrayList<>();
+        arguments.add("-classpath");
+        arguments.add(System.getProperty("java.class.path"));
+        arguments.add("-proc:none");
+        arguments.add("-nowarn");
+        for (String pluginArgument : pluginArguments) {
+            arguments.add(pluginArgument);
+        }
+
+        StringWriter output = new StringWriter();
+        JavaCompiler.CompilationTask task = compiler.getTask(output, fileManager, null, arguments, null, sources);
+        if (!task.call()) {
+            throw new IllegalStateException("Corpus compilation failed:\n" + output);
+        }
+        return fileManager;
+    }
+}
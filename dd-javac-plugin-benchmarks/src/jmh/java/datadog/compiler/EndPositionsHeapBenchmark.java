@@ -0,0 +1,99 @@
+package datadog.compiler;
+
+import com.sun.source.util.JavacTask;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the heap javac retains once it has analyzed a large synthetic module,
+ * with the end position tables of the compilation units kept and with them discarded by the plugin.
+ * <p>
+ * javac keeps all the trees of the compilation until it generates the classes, so the heap is measured
+ * after analysis (a full collection is requested first), relative to the heap used before the compilation started.
+ * The retained bytes are reported as a secondary result of the benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class EndPositionsHeapBenchmark {
+
+    @Param({"LARGE_MODULE"})
+    public SyntheticCorpus.Shape corpus;
+
+    @Param({"false", "true"})
+    public boolean discardEndPositions;
+
+    private JavaCompiler compiler;
+    private StandardJavaFileManager standardFileManager;
+    private List<InMemorySourceFile> sources;
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RetainedHeap {
+        public long retainedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            retainedBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        compiler = ToolProvider.getSystemJavaCompiler();
+        standardFileManager = compiler.getStandardFileManager(null, null, null);
+        sources = SyntheticCorpus.generate(corpus);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        standardFileManager.close();
+    }
+
+    @Benchmark
+    public JavacTask analyze(RetainedHeap retainedHeap) throws IOException {
+        long before = usedHeapAfterCollection();
+
+        // not closed: closing would close the shared standard file manager
+        InMemoryFileManager fileManager = new InMemoryFileManager(standardFileManager);
+        String pluginArguments = "-Xplugin:" + DatadogCompilerPlugin.NAME + (discardEndPositions ? " " + DatadogCompilerPlugin.DISCARD_END_POSITIONS : "");
+        List<String> arguments = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-proc:none", "-nowarn", pluginArguments);
+        StringWriter output = new StringWriter();
+        JavacTask task = (JavacTask) compiler.getTask(output, fileManager, null, arguments, null, sources);
+        task.analyze();
+
+        retainedHeap.retainedBytes = usedHeapAfterCollection() - before;
+        return task;
+    }
+
+    private long usedHeapAfterCollection() {
+        memory.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
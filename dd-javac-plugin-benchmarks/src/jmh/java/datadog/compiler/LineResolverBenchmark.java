@@ -0,0 +1,117 @@
+package datadog.compiler;
+
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.LineMap;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.SourcePositions;
+import com.sun.source.util.TreeScanner;
+import com.sun.source.util.Trees;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resolves the positions the annotating visitor resolves in a very large generated file
+ * (start and end of every class and method, in visiting order),
+ * with plain line map lookups and with {@link LineResolver}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineResolverBenchmark {
+
+    @Param({"10000", "50000"})
+    public int methodCount;
+
+    private LineMap lineMap;
+    private long[] positions;
+
+    @Setup
+    public void setUp() throws Exception {
+        String className = "datadog.compiler.corpus.Large";
+        InMemorySourceFile source = new InMemorySourceFile(className, largeSource(methodCount));
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        JavacTask task = (JavacTask) compiler.getTask(null, null, null, null, null, Collections.singletonList(source));
+        CompilationUnitTree compilationUnit = task.parse().iterator().next();
+        lineMap = compilationUnit.getLineMap();
+
+        SourcePositions sourcePositions = Trees.instance(task).getSourcePositions();
+        long[] collected = new long[4 * methodCount + 16];
+        int[] count = new int[1];
+        new TreeScanner<Void, Void>() {
+            @Override
+            public Void visitClass(ClassTree node, Void unused) {
+                add(node);
+                return super.visitClass(node, unused);
+            }
+
+            @Override
+            public Void visitMethod(MethodTree node, Void unused) {
+                add(node);
+                return super.visitMethod(node, unused);
+            }
+
+            private void add(Tree tree) {
+                collected[count[0]++] = sourcePositions.getStartPosition(compilationUnit, tree);
+                collected[count[0]++] = sourcePositions.getEndPosition(compilationUnit, tree);
+            }
+        }.scan(compilationUnit, null);
+        positions = Arrays.copyOf(collected, count[0]);
+    }
+
+    @Benchmark
+    public long lineMap() {
+        long sum = 0;
+        for (long position : positions) {
+            sum += lineMap.getLineNumber(position);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long lineResolver() {
+        LineResolver resolver = new LineResolver(lineMap);
+        long sum = 0;
+        for (long position : positions) {
+            sum += resolver.getLineNumber(position);
+        }
+        return sum;
+    }
+
+    private static String largeSource(int methodCount) {
+        StringBuilder source = new StringBuilder("package datadog.compiler.corpus;\n\npublic class Large {\n");
+        for (int i = 0; i < methodCount; i++) {
+            if (i % 1000 == 0) {
+                source.append("    public static class Nested").append(i).append(" {\n");
+                source.append("        public int value() {\n            return ").append(i).append(";\n        }\n");
+                source.append("    }\n\n");
+            }
+            source.append("    /**\n     * Method ").append(i).append("\n     */\n");
+            source.append("    public int method").append(i).append("(int a, int b) {\n");
+            source.append("        int result = a + b;\n");
+            source.append("        return result * ").append(i).append(";\n");
+            source.append("    }\n\n");
+        }
+        return source.append("}\n").toString();
+    }
+}
@@ -0,0 +1,64 @@
+package datadog.compiler;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the one-off cost of making {@code jdk.compiler} accessible to the plugin, for each strategy.
+ * <p>
+ * Every measurement is a single call in a fresh JVM, which is what a short {@code javac} run or a new build worker pays.
+ * Requires JDK 11+; the results depend on the JDK version (11-15 permit illegal access, so nothing needs to be opened there).
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class ModuleOpenerStartupBenchmark {
+
+    /**
+     * Packages are already exported: only the check is done
+     */
+    @Benchmark
+    @Fork(value = 20, jvmArgsAppend = {
+            "--add-exports=jdk.compiler/com.sun.tools.javac.api=ALL-UNNAMED",
+            "--add-exports=jdk.compiler/com.sun.tools.javac.code=ALL-UNNAMED",
+            "--add-exports=jdk.compiler/com.sun.tools.javac.comp=ALL-UNNAMED",
+            "--add-exports=jdk.compiler/com.sun.tools.javac.tree=ALL-UNNAMED",
+            "--add-exports=jdk.compiler/com.sun.tools.javac.util=ALL-UNNAMED"})
+    public void alreadyExported() {
+        CompilerModuleOpener.setup();
+    }
+
+    /**
+     * Strategy chosen by the plugin when nothing is exported
+     */
+    @Benchmark
+    public void notExported() {
+        CompilerModuleOpener.setup();
+    }
+
+    /**
+     * Burningwave, which used to be bootstrapped unconditionally
+     */
+    @Benchmark
+    public void burningwave() throws Exception {
+        invoke("datadog.compiler.BurningwaveModuleOpener", "open");
+    }
+
+    /**
+     * Java 11+ classes are only present in the multi-release plugin jar, so they are called reflectively
+     */
+    private static void invoke(String className, String methodName) throws Exception {
+        Method method = Class.forName(className).getDeclaredMethod(methodName);
+        method.setAccessible(true);
+        method.invoke(null);
+    }
+}
@@ -0,0 +1,108 @@
+package datadog.compiler;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.util.JavacTask;
+import com.sun.tools.javac.api.BasicJavacTask;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time the javac thread spends annotating the parsed compilation units of a synthetic corpus,
+ * depending on the number of threads that compute the annotations.
+ * Results only scale up to the number of cores of the machine, and the attachment on the javac thread is sequential whatever the number of threads.
+ * <p>
+ * Annotations are attached to the trees, so the corpus is parsed again before every invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 40)
+@Fork(1)
+public class ParallelAnnotationBenchmark {
+
+    @Param({"DEEP", "SMALL_FILES"})
+    public SyntheticCorpus.Shape corpus;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private JavaCompiler compiler;
+    private StandardJavaFileManager standardFileManager;
+    private List<InMemorySourceFile> sources;
+    private PluginOptions options;
+    private ForkJoinPool pool;
+
+    private List<PendingCompilationUnit> units;
+
+    @Setup
+    public void setUp() {
+        compiler = ToolProvider.getSystemJavaCompiler();
+        standardFileManager = compiler.getStandardFileManager(null, null, null);
+        sources = SyntheticCorpus.generate(corpus);
+        options = PluginOptions.parse(DatadogCompilerPlugin.SOURCE_HASH, DatadogCompilerPlugin.METHOD_VISIBILITY + "=all",
+                DatadogCompilerPlugin.THREADS + "=" + threads);
+        pool = new ForkJoinPool(threads);
+    }
+
+    @Setup(Level.Invocation)
+    public void parse() throws IOException {
+        // not closed: closing would close the shared standard file manager
+        InMemoryFileManager fileManager = new InMemoryFileManager(standardFileManager);
+        JavacTask task = (JavacTask) compiler.getTask(null, fileManager, null, Collections.singletonList("-proc:none"), null, sources);
+        AnnotationTemplates templates = null;
+        units = new ArrayList<>();
+        for (CompilationUnitTree compilationUnit : task.parse()) {
+            if (templates == null) {
+                templates = AnnotationTemplates.instance(((BasicJavacTask) task).getContext());
+            }
+            units.add(new PendingCompilationUnit(compilationUnit, templates, options,
+                    templates.sourcePathAnnotation(compilationUnit.getSourceFile().getName()), templates.sourceLinesAnnotationType(),
+                    compilationUnit.getSourceFile().getCharContent(false)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        standardFileManager.close();
+    }
+
+    @Benchmark
+    public PluginStatistics annotate() throws Throwable {
+        if (threads > 1) {
+            PendingCompilationUnit.computeAll(units, pool, options.sourceHash);
+        } else {
+            SourceHasher sourceHasher = new SourceHasher();
+            for (PendingCompilationUnit unit : units) {
+                unit.compute(sourceHasher);
+            }
+        }
+        PluginStatistics statistics = new PluginStatistics();
+        for (PendingCompilationUnit unit : units) {
+            unit.attach();
+            statistics.add(unit.statistics);
+        }
+        return statistics;
+    }
+}
@@ -0,0 +1,138 @@
+package datadog.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates the sources compiled by the benchmarks.
+ * The generated code is deterministic, so that results of different runs can be compared.
+ */
+final class SyntheticCorpus {
+
+    private static final String PACKAGE = "datadog.compiler.corpus";
+
+    enum Shape {
+        /**
+         * Large classes with deep nesting, many public methods and heavy annotation use
+         */
+        DEEP(100, 2, 10, 0),
+        /**
+         * Many tiny files, where fixed per compilation unit costs dominate
+         */
+        SMALL_FILES(2000, 0, 2, 0),
+        /**
+         * Generated code with long method bodies, where walking the statements dominates
+         */
+        LARGE_BODIES(50, 0, 20, 200),
+        /**
+         * A large module, where the memory javac retains for every tree dominates
+         */
+        LARGE_MODULE(20000, 0, 4, 2);
+
+        private final int fileCount;
+        private final int nestingDepth;
+        private final int methodsPerClass;
+        private final int statementsPerMethod;
+
+        Shape(int fileCount, int nestingDepth, int methodsPerClass, int statementsPerMethod) {
+            this.fileCount = fileCount;
+            this.nestingDepth = nestingDepth;
+            this.methodsPerClass = methodsPerClass;
+            this.statementsPerMethod = statementsPerMethod;
+        }
+    }
+
+    private SyntheticCorpus() {
+    }
+
+    static List<InMemorySourceFile> generate(Shape shape) {
+        List<InMemorySourceFile> sources = new ArrayList<>();
+        sources.add(new InMemorySourceFile(PACKAGE + ".Marker", marker()));
+        for (int i = 0; i < shape.fileCount; i++) {
+            String className = "Class" + i;
+            StringBuilder source = new StringBuilder();
+            source.append("package ").append(PACKAGE).append(";\n\n");
+            source.append("import java.util.List;\n");
+            source.append("import java.util.function.Supplier;\n\n");
+            appendClass(source, className, shape, 0, "");
+            sources.add(new InMemorySourceFile(PACKAGE + "." + className, source.toString()));
+        }
+        return sources;
+    }
+
+    private static String marker() {
+        return "package " + PACKAGE + ";\n\n"
+                + "import java.lang.annotation.Retention;\n"
+                + "import java.lang.annotation.RetentionPolicy;\n\n"
+                + "@Retention(RetentionPolicy.RUNTIME)\n"
+                + "public @interface Marker {\n"
+                + "    String value() default \"\";\n"
+                + "    int priority() default 0;\n"
+                + "}\n";
+    }
+
+    private static void appendClass(StringBuilder source, String className, SyntheticCorpus.Shape shape, int depth, String indent) {
+        source.append(indent).append("/**\n");
+        source.append(indent).append(" * Generated class ").append(className).append("\n");
+        source.append(indent).append(" */\n");
+        source.append(indent).append("@Marker(value = \"").append(className).append("\", priority = ").append(depth).append(")\n");
+        source.append(indent).append("@SuppressWarnings({\"unused\", \"rawtypes\"})\n");
+        source.append(indent).append("public ").append(depth > 0 ? "static " : "").append("class ").append(className).append(" {\n");
+
+        String memberIndent = indent + "    ";
+        source.append(memberIndent).append("private int counter;\n\n");
+        for (int m = 0; m < shape.methodsPerClass; m++) {
+            appendMethod(source, m, shape.statementsPerMethod, memberIndent);
+        }
+        if (depth < shape.nestingDepth) {
+            appendClass(source, className + "Nested" + depth, shape, depth + 1, memberIndent);
+            appendClass(source, className + "Sibling" + depth, shape, depth + 1, memberIndent);
+        }
+        source.append(indent).append("}\n\n");
+    }
+
+    private static void appendMethod(StringBuilder source, int m, int statements, String indent) {
+        String body = indent + "    ";
+        switch (m % 4) {
+            case 0:
+                source.append(indent).append("@Deprecated\n");
+                source.append(indent).append("@Marker(\"method").append(m).append("\")\n");
+                source.append(indent).append("public int method").append(m).append("(int a, int b) {\n");
+                for (int i = 0; i < statements; i++) {
+                    source.append(body).append("counter = (counter * 31 + a) ^ (b << ").append(i % 16).append(");\n");
+                }
+                source.append(body).append("counter += a * b;\n");
+                source.append(body).append("return counter;\n");
+                break;
+            case 1:
+                source.append(indent).append("public String method").append(m).append("(List<String> values) {\n");
+                source.append(body).append("StringBuilder result = new StringBuilder();\n");
+                for (int i = 0; i < statements; i++) {
+                    source.append(body).append("if (values.size() > ").append(i).append(") {\n");
+                    source.append(body).append("    result.append(values.get(").append(i).append(").trim()).append(\"").append(i).append("\");\n");
+                    source.append(body).append("}\n");
+                }
+                source.append(body).append("for (String value : values) {\n");
+                source.append(body).append("    result.append(value).append(',');\n");
+                source.append(body).append("}\n");
+                source.append(body).append("return result.toString();\n");
+                break;
+            case 2:
+                source.append(indent).append("public Supplier<Integer> method").append(m).append("() {\n");
+                source.append(body).append("return () -> counter + ").append(m).append(";\n");
+                break;
+            default:
+                source.append(indent).append("public Runnable method").append(m).append("(final int times) {\n");
+                source.append(body).append("return new Runnable() {\n");
+                source.append(body).append("    @Override\n");
+                source.append(body).append("    public void run() {\n");
+                source.append(body).append("        for (int i = 0; i < times; i++) {\n");
+                source.append(body).append("            counter++;\n");
+                source.append(body).append("        }\n");
+                source.append(body).append("    }\n");
+                source.append(body).append("};\n");
+                break;
+        }
+        source.append(indent).append("}\n\n");
+    }
+}
@@ -0,0 +1,101 @@
+package datadog.compiler;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.util.JavacTask;
+import com.sun.tools.javac.api.BasicJavacTask;
+import com.sun.tools.javac.tree.JCTree;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the annotation injecting visitor alone, over the parsed trees of a synthetic corpus,
+ * with bodies pruned by the source text pre-scan and with every body traversed.
+ * <p>
+ * The visitor modifies the trees it visits, so the corpus is parsed again before every invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 40)
+@Fork(1)
+public class TreeVisitorBenchmark {
+
+    @Param({"DEEP", "LARGE_BODIES"})
+    public SyntheticCorpus.Shape corpus;
+
+    private JavaCompiler compiler;
+    private StandardJavaFileManager standardFileManager;
+    private List<InMemorySourceFile> sources;
+
+    private AnnotationTemplates templates;
+    private List<JCTree.JCCompilationUnit> compilationUnits;
+
+    @Setup
+    public void setUp() {
+        compiler = ToolProvider.getSystemJavaCompiler();
+        standardFileManager = compiler.getStandardFileManager(null, null, null);
+        sources = SyntheticCorpus.generate(corpus);
+    }
+
+    @Setup(Level.Invocation)
+    public void parse() throws IOException {
+        // not closed: closing would close the shared standard file manager
+        InMemoryFileManager fileManager = new InMemoryFileManager(standardFileManager);
+        JavacTask task = (JavacTask) compiler.getTask(null, fileManager, null, Collections.singletonList("-proc:none"), null, sources);
+        compilationUnits = new ArrayList<>();
+        for (CompilationUnitTree compilationUnit : task.parse()) {
+            compilationUnits.add((JCTree.JCCompilationUnit) compilationUnit);
+        }
+        templates = AnnotationTemplates.instance(((BasicJavacTask) task).getContext());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        standardFileManager.close();
+    }
+
+    @Benchmark
+    public PluginStatistics prunedTraversal() throws IOException {
+        return visit(true);
+    }
+
+    @Benchmark
+    public PluginStatistics fullTraversal() throws IOException {
+        return visit(false);
+    }
+
+    private PluginStatistics visit(boolean pruned) throws IOException {
+        PluginStatistics statistics = new PluginStatistics();
+        for (JCTree.JCCompilationUnit compilationUnit : compilationUnits) {
+            // without the source text every body is traversed
+            CharSequence source = pruned ? compilationUnit.getSourceFile().getCharContent(false) : null;
+            AnnotationsInjectingClassVisitor visitor = new AnnotationsInjectingClassVisitor(
+                    templates, templates.sourcePathAnnotation(compilationUnit.getSourceFile().getName()), null, templates.sourceLinesAnnotationType(),
+                    false, false, MethodVisibility.PUBLIC, false, false, false,
+                    compilationUnit.getLineMap(), compilationUnit.endPositions, source, statistics);
+            visitor.visit(compilationUnit);
+            visitor.attach();
+        }
+        return statistics;
+    }
+}
@@ -0,0 +1,172 @@
+package datadog.compiler.utils;
+
+import datadog.compiler.annotations.SourceLines;
+import datadog.compiler.annotations.SourceLinesTable;
+import datadog.compiler.annotations.SourcePath;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares cached ({@link CompilerUtils}) and uncached (plain reflection) lookups.
+ * <p>
+ * The {@code cold*} benchmarks measure the first lookup for a class that has just been loaded,
+ * which includes populating the cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilerUtilsBenchmark {
+
+    private Method annotatedMethod;
+    private Method tableMethod;
+    private Class<?> anonymousClass;
+
+    @Setup
+    public void setUp() throws Exception {
+        annotatedMethod = Target.class.getDeclaredMethod("annotatedMethod");
+        tableMethod = Target.class.getDeclaredMethod("tableMethod", int.class);
+        anonymousClass = Target.anonymousClassInstance().getClass();
+    }
+
+    @Benchmark
+    public String sourcePath() {
+        return CompilerUtils.getSourcePath(Target.class);
+    }
+
+    @Benchmark
+    public String sourcePathUncached() {
+        return CompilerUtils.readSourcePath(Target.class);
+    }
+
+    @Benchmark
+    public String anonymousClassSourcePath() {
+        return CompilerUtils.getSourcePath(anonymousClass);
+    }
+
+    @Benchmark
+    public int classStartLine() {
+        return CompilerUtils.getStartLine(Target.class);
+    }
+
+    @Benchmark
+    public long classLinesUncached() {
+        return CompilerUtils.readLines(Target.class);
+    }
+
+    @Benchmark
+    public int annotatedMethodStartLine() {
+        return CompilerUtils.getStartLine(annotatedMethod);
+    }
+
+    @Benchmark
+    public long annotatedMethodLinesUncached() {
+        return CompilerUtils.readLines(annotatedMethod, null);
+    }
+
+    @Benchmark
+    public int tableMethodStartLine() {
+        return CompilerUtils.getStartLine(tableMethod);
+    }
+
+    @Benchmark
+    public long tableMethodLinesUncached() {
+        SourceLinesTable table = tableMethod.getDeclaringClass().getAnnotation(SourceLinesTable.class);
+        return CompilerUtils.readLines(tableMethod, table.value());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 1000)
+    @Measurement(iterations = 5000)
+    public int coldLookup(ColdState state) {
+        return CompilerUtils.getStartLine(state.method) + CompilerUtils.getSourcePath(state.clazz).length();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 1000)
+    @Measurement(iterations = 5000)
+    public long coldLookupUncached(ColdState state) {
+        return CompilerUtils.readLines(state.method, null) + CompilerUtils.readSourcePath(state.clazz).length();
+    }
+
+    /**
+     * Loads a fresh copy of {@link Target} for every invocation
+     */
+    @State(Scope.Thread)
+    public static class ColdState {
+        private byte[] targetBytes;
+        Class<?> clazz;
+        Method method;
+
+        @Setup(Level.Trial)
+        public void readTargetBytes() throws IOException {
+            String resourceName = Target.class.getName().replace('.', '/') + ".class";
+            try (InputStream classStream = Target.class.getClassLoader().getResourceAsStream(resourceName)) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = classStream.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, read);
+                }
+                targetBytes = bytes.toByteArray();
+            }
+        }
+
+        @Setup(Level.Invocation)
+        public void loadTarget() throws Exception {
+            clazz = new ClassLoader(Target.class.getClassLoader()) {
+                {
+                    defineClass(Target.class.getName(), targetBytes, 0, targetBytes.length);
+                }
+            }.loadClass(Target.class.getName());
+            method = clazz.getDeclaredMethod("annotatedMethod");
+        }
+    }
+
+    @SourcePath("/repo/src/datadog/compiler/utils/Target.java")
+    @SourceLines(start = 3, end = 27)
+    @SourceLinesTable("tableMethod:1:13:15;otherTableMethod:0:17:19")
+    public static class Target {
+        @SourceLines(start = 5, end = 7)
+        public void annotatedMethod() {
+            // no op
+        }
+
+        public void tableMethod(int arg) {
+            // no op
+        }
+
+        public void otherTableMethod() {
+            // no op
+        }
+
+        static Runnable anonymousClassInstance() {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    // no op
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package datadog.compiler.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures lookups in a memory-mapped {@link SourceIndex} sized like the index of a large service.
+ * <p>
+ * {@code open} measures mapping the index file, which is all the work done before the first lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SourceIndexBenchmark {
+
+    private static final int METHODS_PER_CLASS = 8;
+
+    @Param({"60000"})
+    public int classCount;
+
+    /**
+     * Class names are created upfront, so that lookups do not pay for building them
+     */
+    private String[] classNames;
+    private Path indexFile;
+    private SourceIndex index;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        classNames = new String[classCount];
+        SourceIndexWriter writer = new SourceIndexWriter();
+        for (int i = 0; i < classCount; i++) {
+            String className = "com.example.module" + (i % 400) + ".Class" + i;
+            classNames[i] = className;
+            String sourcePath = "/home/user/projects/service/module" + (i % 400) + "/src/main/java/com/example/Class" + i + ".java";
+            writer.addClass(className, sourcePath, 1, 100);
+            for (int j = 0; j < METHODS_PER_CLASS; j++) {
+                writer.addMethod(className, "method" + j, "(ILjava/lang/String;)V", sourcePath, 10 * j, 10 * j + 5);
+            }
+        }
+        indexFile = Files.createTempFile("source-index", ".bin");
+        Files.write(indexFile, writer.toByteArray());
+        index = SourceIndex.map(indexFile);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(indexFile);
+    }
+
+    @Benchmark
+    public SourceIndex open() throws IOException {
+        return SourceIndex.map(indexFile);
+    }
+
+    @Benchmark
+    public int findClass() {
+        return index.findClass(classNames[nextClass()]);
+    }
+
+    @Benchmark
+    public int findMethod() {
+        int entry = index.findMethod(classNames[nextClass()], "method3", "(ILjava/lang/String;)V");
+        return index.getStartLine(entry);
+    }
+
+    @Benchmark
+    public int findMissingMethod() {
+        return index.findMethod(classNames[nextClass()], "missing", "()V");
+    }
+
+    @Benchmark
+    public String findSourcePath() {
+        return index.getSourcePath(index.findClass(classNames[nextClass()]));
+    }
+
+    private int nextClass() {
+        int i = next;
+        next = i + 1 < classCount ? i + 1 : 0;
+        return i;
+    }
+}
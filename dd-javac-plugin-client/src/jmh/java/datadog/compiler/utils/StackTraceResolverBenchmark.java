@@ -0,0 +1,110 @@
+package datadog.compiler.utils;
+
+import datadog.compiler.annotations.SourceLines;
+import datadog.compiler.annotations.SourcePath;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares resolving a stack trace with {@link StackTraceResolver} against resolving it frame by frame
+ * with {@link CompilerUtils}, which requires loading the class and looking the method up for every frame.
+ * <p>
+ * Run with {@code -prof gc} to see the allocations per stack trace ({@code gc.alloc.rate.norm}),
+ * divide by {@code depth} for the allocations per frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StackTraceResolverBenchmark {
+
+    /**
+     * Number of frames in annotated classes, the stack trace also has the frames of the benchmark harness
+     */
+    @Param({"30", "150"})
+    public int depth;
+
+    private StackTraceElement[] stackTrace;
+    private ClassLoader classLoader;
+
+    @Setup
+    public void setUp() {
+        stackTrace = First.call(depth);
+        classLoader = StackTraceResolverBenchmark.class.getClassLoader();
+    }
+
+    @Benchmark
+    public ResolvedStackTrace batch() {
+        return StackTraceResolver.resolve(stackTrace, classLoader);
+    }
+
+    @Benchmark
+    public int perFrame() {
+        int result = 0;
+        for (StackTraceElement frame : stackTrace) {
+            try {
+                Class<?> clazz = Class.forName(frame.getClassName(), false, classLoader);
+                String sourcePath = CompilerUtils.getSourcePath(clazz);
+                for (Method method : clazz.getDeclaredMethods()) {
+                    if (method.getName().equals(frame.getMethodName())) {
+                        int startLine = CompilerUtils.getStartLine(method);
+                        int endLine = CompilerUtils.getEndLine(method);
+                        if (startLine <= frame.getLineNumber() && frame.getLineNumber() <= endLine) {
+                            result += startLine + (sourcePath != null ? sourcePath.length() : 0);
+                            break;
+                        }
+                    }
+                }
+            } catch (ClassNotFoundException e) {
+                // unresolved
+            }
+        }
+        return result;
+    }
+
+    // the lines cover the lines of this file, so that the frames fall into the methods
+    @SourcePath("/repo/src/datadog/compiler/utils/First.java")
+    @SourceLines(start = 1, end = 400)
+    static final class First {
+        @SourceLines(start = 1, end = 200)
+        static StackTraceElement[] call(int depth) {
+            return depth == 0 ? new Throwable().getStackTrace() : Second.call(depth - 1);
+        }
+
+        @SourceLines(start = 300, end = 302)
+        static void call() {
+            // overload with another range
+        }
+    }
+
+    @SourcePath("/repo/src/datadog/compiler/utils/Second.java")
+    @SourceLines(start = 1, end = 400)
+    static final class Second {
+        @SourceLines(start = 1, end = 200)
+        static StackTraceElement[] call(int depth) {
+            return depth == 0 ? new Throwable().getStackTrace() : Third.call(depth - 1);
+        }
+    }
+
+    @SourcePath("/repo/src/datadog/compiler/utils/Third.java")
+    @SourceLines(start = 1, end = 400)
+    static final class Third {
+        @SourceLines(start = 1, end = 200)
+        static StackTraceElement[] call(int depth) {
+            return depth == 0 ? new Throwable().getStackTrace() : First.call(depth - 1);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package datadog.compiler.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * CRC32 of the UTF-8 encoded source of the file a top-level class is declared in
+ * (for a UTF-8 source file, the CRC32 of the file itself).
+ * In ABI-stable mode it is put on the same private static field as {@link SourceLinesTable}.
+ * Use {@link datadog.compiler.utils.CompilerUtils#getSourceHash(Class)} to read it for any class.
+ */
+@Target({ElementType.TYPE, ElementType.FIELD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface SourceHash {
+    int value();
+}
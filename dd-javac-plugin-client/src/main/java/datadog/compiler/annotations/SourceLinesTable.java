@@ -0,0 +1,24 @@
+package datadog.compiler.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Packed start and end lines of the methods declared in a class.
+ * <p>
+ * Used instead of per-method {@link SourceLines} annotations when the plugin runs in compact mode.
+ * The table is a sequence of {@code name:parameterCount:startLine:endLine} entries separated by {@code ;},
+ * split into several strings if it does not fit into a single class file constant.
+ * <p>
+ * In ABI-stable mode the table is put on a private static field of the class instead
+ * (see {@link datadog.compiler.utils.SourceLinesTables#HOLDER_FIELD_NAME}), which is not part of the class' API,
+ * and it also has the lines of the class itself and of its constructors.
+ * Use {@link datadog.compiler.utils.CompilerUtils} to read it.
+ */
+@Target({ElementType.TYPE, ElementType.FIELD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface SourceLinesTable {
+    String[] value();
+}
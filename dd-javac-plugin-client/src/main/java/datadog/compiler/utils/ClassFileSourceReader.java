@@ -0,0 +1,558 @@
+package datadog.compiler.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the data injected by Datadog Java compiler plugin straight from class file bytes,
+ * without loading the class.
+ * <p>
+ * Only the constant pool and the {@code RuntimeVisibleAnnotations} attributes of the class, its methods
+ * and the holder field of ABI-stable mode (see {@link SourceLinesTables#HOLDER_FIELD_NAME}) are parsed,
+ * everything else is skipped.
+ * Strings are decoded only for classes and methods that carry source data,
+ * so scanning classes that were not compiled with the plugin allocates next to nothing.
+ * <p>
+ * An instance reuses its internal buffers between reads and is not thread-safe.
+ */
+public final class ClassFileSourceReader {
+
+    /**
+     * Receives the data found in a class file
+     */
+    public interface Visitor {
+        /**
+         * Called once per class that has source data, before its methods are visited.
+         *
+         * @param className  Binary name of the class (as returned by {@link Class#getName()})
+         * @param sourcePath Source path of the class, or {@code null} if the class has none
+         * @param startLine  Start line of the class or {@link CompilerUtils#LINE_UNKNOWN}
+         * @param endLine    End line of the class or {@link CompilerUtils#LINE_UNKNOWN}
+         */
+        void visitClass(String className, String sourcePath, int startLine, int endLine);
+
+        /**
+         * Called for every method or constructor that has source lines.
+         *
+         * @param name       Method name ({@code <init>} for constructors)
+         * @param descriptor Method descriptor, e.g. {@code (ILjava/lang/String;)V}
+         * @param startLine  Start line of the method
+         * @param endLine    End line of the method
+         */
+        void visitMethod(String name, String descriptor, int startLine, int endLine);
+    }
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final byte[] RUNTIME_VISIBLE_ANNOTATIONS = utf8("RuntimeVisibleAnnotations");
+    private static final byte[] SOURCE_PATH_DESCRIPTOR = utf8("Ldatadog/compiler/annotations/SourcePath;");
+    private static final byte[] SOURCE_LINES_DESCRIPTOR = utf8("Ldatadog/compiler/annotations/SourceLines;");
+    private static final byte[] SOURCE_LINES_TABLE_DESCRIPTOR = utf8("Ldatadog/compiler/annotations/SourceLinesTable;");
+    private static final byte[] HOLDER_FIELD_NAME = utf8(SourceLinesTables.HOLDER_FIELD_NAME);
+    private static final byte[] START = utf8("start");
+    private static final byte[] END = utf8("end");
+
+    private ByteBuffer buffer;
+    private int base;
+
+    /**
+     * Offsets of constant pool entries (pointing at the byte that follows the tag)
+     */
+    private int[] constantPool = new int[256];
+
+    private int runtimeVisibleAnnotationsIndex;
+    private int sourcePathIndex;
+    private int sourceLinesIndex;
+    private int sourceLinesTableIndex;
+    private int holderFieldNameIndex;
+    private int startIndex;
+    private int endIndex;
+
+    // data of the class annotations
+    private String sourcePath;
+    private long classLines;
+    private String[] linesTable;
+
+    // data of the last parsed method annotations
+    private long methodLines;
+
+    /**
+     * Reads source data from a class file.
+     *
+     * @param classBytes Class file contents
+     * @param visitor    Receives the data
+     * @return {@code true} if the class has any source data
+     * @throws IllegalArgumentException if the bytes are not a valid class file
+     */
+    public boolean read(byte[] classBytes, Visitor visitor) {
+        return read(ByteBuffer.wrap(classBytes), visitor);
+    }
+
+    /**
+     * Reads source data from a class file.
+     * The class file is read starting at the buffer's position, the position is not modified.
+     *
+     * @param classBytes Class file contents
+     * @param visitor    Receives the data
+     * @return {@code true} if the class has any source data
+     * @throws IllegalArgumentException if the bytes are not a valid class file
+     */
+    public boolean read(ByteBuffer classBytes, Visitor visitor) {
+        buffer = classBytes;
+        base = classBytes.position();
+        try {
+            return read(visitor);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated class file", e);
+        } finally {
+            buffer = null;
+            sourcePath = null;
+            linesTable = null;
+        }
+    }
+
+    private boolean read(Visitor visitor) {
+        if (readInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a class file");
+        }
+
+        int offset = readConstantPool();
+        if (runtimeVisibleAnnotationsIndex == 0
+                || (sourcePathIndex == 0 && sourceLinesIndex == 0 && sourceLinesTableIndex == 0)) {
+            // the class has no annotations or none of ours
+            return false;
+        }
+
+        int thisClassIndex = readUnsignedShort(offset + 2);
+        int interfacesCount = readUnsignedShort(offset + 6);
+        offset += 8 + interfacesCount * 2;
+
+        sourcePath = null;
+        classLines = SourceLinesTables.NOT_FOUND;
+        linesTable = null;
+
+        // fields, only the holder field has source data
+        int fieldsCount = readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < fieldsCount; i++) {
+            if (holderFieldNameIndex != 0 && readUnsignedShort(offset + 2) == holderFieldNameIndex) {
+                readAnnotations(offset + 6);
+            }
+            offset = skipAttributes(offset + 6);
+        }
+
+        // methods are visited after class attributes, since the class may hold a lines table for them
+        int methodsOffset = offset;
+        int methodsCount = readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < methodsCount; i++) {
+            offset = skipAttributes(offset + 6);
+        }
+
+        readAnnotations(offset);
+        if (classLines == SourceLinesTables.NOT_FOUND && linesTable != null) {
+            classLines = SourceLinesTables.find(linesTable, SourceLinesTables.CLASS_ENTRY_NAME, 0);
+        }
+
+        boolean hasClassData = sourcePath != null || classLines != SourceLinesTables.NOT_FOUND || linesTable != null;
+        boolean classVisited = false;
+        if (hasClassData) {
+            visitClass(visitor, thisClassIndex);
+            classVisited = true;
+        }
+
+        offset = methodsOffset + 2;
+        for (int i = 0; i < methodsCount; i++) {
+            int nameIndex = readUnsignedShort(offset + 2);
+            int descriptorIndex = readUnsignedShort(offset + 4);
+            methodLines = SourceLinesTables.NOT_FOUND;
+            offset = readMethodAttributes(offset + 6);
+
+            String name = null;
+            if (methodLines == SourceLinesTables.NOT_FOUND && linesTable != null) {
+                name = readUtf8(nameIndex);
+                // constructors are only in holder field tables, under the same name as in the class file
+                int parameterCount = parameterCount(descriptorIndex);
+                methodLines = SourceLinesTables.find(linesTable, name, parameterCount);
+                if (methodLines == SourceLinesTables.NOT_FOUND && SourceLinesTables.hasOverloads(linesTable, name)) {
+                    String overloadEntryName = SourceLinesTables.overloadEntryName(name, parameterTypeNames(readUtf8(descriptorIndex)));
+                    methodLines = SourceLinesTables.find(linesTable, overloadEntryName, parameterCount);
+                }
+            }
+            if (methodLines != SourceLinesTables.NOT_FOUND) {
+                if (!classVisited) {
+                    visitClass(visitor, thisClassIndex);
+                    classVisited = true;
+                }
+                visitor.visitMethod(
+                        name != null ? name : readUtf8(nameIndex),
+                        readUtf8(descriptorIndex),
+                        SourceLinesTables.startLine(methodLines),
+                        SourceLinesTables.endLine(methodLines));
+            }
+        }
+        return classVisited;
+    }
+
+    private void visitClass(Visitor visitor, int thisClassIndex) {
+        String className = readUtf8(readUnsignedShort(constantPool[thisClassIndex])).replace('/', '.');
+        visitor.visitClass(className, sourcePath, SourceLinesTables.startLine(classLines), SourceLinesTables.endLine(classLines));
+    }
+
+    /**
+     * Records offsets of constant pool entries and looks up the indices of the UTF-8 constants the reader is interested in.
+     *
+     * @return offset of the first byte after the constant pool
+     */
+    private int readConstantPool() {
+        int constantPoolCount = readUnsignedShort(8);
+        if (constantPool.length < constantPoolCount) {
+            constantPool = new int[Math.max(constantPoolCount, constantPool.length * 2)];
+        }
+        runtimeVisibleAnnotationsIndex = 0;
+        sourcePathIndex = 0;
+        sourceLinesIndex = 0;
+        sourceLinesTableIndex = 0;
+        holderFieldNameIndex = 0;
+        startIndex = 0;
+        endIndex = 0;
+
+        int offset = 10;
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = readUnsignedByte(offset);
+            constantPool[i] = offset + 1;
+            switch (tag) {
+                case 1: // Utf8
+                    int length = readUnsignedShort(offset + 1);
+                    matchUtf8(i, offset + 3, length);
+                    offset += 3 + length;
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    offset += 5;
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    offset += 9;
+                    i++;
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    offset += 3;
+                    break;
+                case 15: // MethodHandle
+                    offset += 4;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown constant pool tag " + tag + " at offset " + offset);
+            }
+        }
+        return offset;
+    }
+
+    private void matchUtf8(int index, int offset, int length) {
+        if (length == RUNTIME_VISIBLE_ANNOTATIONS.length && bytesEqual(offset, RUNTIME_VISIBLE_ANNOTATIONS)) {
+            runtimeVisibleAnnotationsIndex = index;
+        } else if (length == SOURCE_PATH_DESCRIPTOR.length && bytesEqual(offset, SOURCE_PATH_DESCRIPTOR)) {
+            sourcePathIndex = index;
+        } else if (length == SOURCE_LINES_DESCRIPTOR.length && bytesEqual(offset, SOURCE_LINES_DESCRIPTOR)) {
+            sourceLinesIndex = index;
+        } else if (length == SOURCE_LINES_TABLE_DESCRIPTOR.length && bytesEqual(offset, SOURCE_LINES_TABLE_DESCRIPTOR)) {
+            sourceLinesTableIndex = index;
+        } else if (length == HOLDER_FIELD_NAME.length && bytesEqual(offset, HOLDER_FIELD_NAME)) {
+            holderFieldNameIndex = index;
+        } else if (length == START.length && bytesEqual(offset, START)) {
+            startIndex = index;
+        } else if (length == END.length && bytesEqual(offset, END)) {
+            endIndex = index;
+        }
+    }
+
+    /**
+     * Parses the attributes of the class or of the holder field, storing the source data of their annotations
+     */
+    private void readAnnotations(int offset) {
+        int attributesCount = readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < attributesCount; i++) {
+            int nameIndex = readUnsignedShort(offset);
+            int length = readInt(offset + 2);
+            if (nameIndex == runtimeVisibleAnnotationsIndex) {
+                int annotationsCount = readUnsignedShort(offset + 6);
+                int annotationOffset = offset + 8;
+                for (int j = 0; j < annotationsCount; j++) {
+                    int typeIndex = readUnsignedShort(annotationOffset);
+                    if (typeIndex == sourcePathIndex && sourcePathIndex != 0) {
+                        annotationOffset = readSourcePath(annotationOffset);
+                    } else if (typeIndex == sourceLinesIndex && sourceLinesIndex != 0) {
+                        classLines = readSourceLinesAnnotation(annotationOffset);
+                        annotationOffset = skipAnnotation(annotationOffset);
+                    } else if (typeIndex == sourceLinesTableIndex && sourceLinesTableIndex != 0) {
+                        annotationOffset = readSourceLinesTable(annotationOffset);
+                    } else {
+                        annotationOffset = skipAnnotation(annotationOffset);
+                    }
+                }
+            }
+            offset += 6 + length;
+        }
+    }
+
+    /**
+     * Parses method attributes, storing lines from a {@code @SourceLines} annotation if there is one.
+     *
+     * @return offset of the first byte after the attributes
+     */
+    private int readMethodAttributes(int offset) {
+        int attributesCount = readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < attributesCount; i++) {
+            int nameIndex = readUnsignedShort(offset);
+            int length = readInt(offset + 2);
+            if (nameIndex == runtimeVisibleAnnotationsIndex && sourceLinesIndex != 0) {
+                int annotationsCount = readUnsignedShort(offset + 6);
+                int annotationOffset = offset + 8;
+                for (int j = 0; j < annotationsCount; j++) {
+                    if (readUnsignedShort(annotationOffset) == sourceLinesIndex) {
+                        methodLines = readSourceLinesAnnotation(annotationOffset);
+                        break;
+                    }
+                    annotationOffset = skipAnnotation(annotationOffset);
+                }
+            }
+            offset += 6 + length;
+        }
+        return offset;
+    }
+
+    private int readSourcePath(int offset) {
+        int pairsCount = readUnsignedShort(offset + 2);
+        offset += 4;
+        for (int i = 0; i < pairsCount; i++) {
+            // the only element is "value"
+            if (readUnsignedByte(offset + 2) == 's') {
+                sourcePath = readUtf8(readUnsignedShort(offset + 3));
+            }
+            offset = skipElementValue(offset + 2);
+        }
+        return offset;
+    }
+
+    private long readSourceLinesAnnotation(int offset) {
+        int start = CompilerUtils.LINE_UNKNOWN;
+        int end = CompilerUtils.LINE_UNKNOWN;
+        int pairsCount = readUnsignedShort(offset + 2);
+        offset += 4;
+        for (int i = 0; i < pairsCount; i++) {
+            int nameIndex = readUnsignedShort(offset);
+            if (readUnsignedByte(offset + 2) == 'I') {
+                int value = readInt(constantPool[readUnsignedShort(offset + 3)]);
+                if (nameIndex == startIndex) {
+                    start = value;
+                } else if (nameIndex == endIndex) {
+                    end = value;
+                }
+            }
+            offset = skipElementValue(offset + 2);
+        }
+        return SourceLinesTables.pack(start, end);
+    }
+
+    private int readSourceLinesTable(int offset) {
+        int pairsCount = readUnsignedShort(offset + 2);
+        offset += 4;
+        for (int i = 0; i < pairsCount; i++) {
+            // the only element is "value"
+            int valueOffset = offset + 2;
+            if (readUnsignedByte(valueOffset) == '[') {
+                int valuesCount = readUnsignedShort(valueOffset + 1);
+                String[] table = new String[valuesCount];
+                for (int j = 0; j < valuesCount; j++) {
+                    // each value is 's' followed by a constant pool index
+                    table[j] = readUtf8(readUnsignedShort(valueOffset + 3 + j * 3 + 1));
+                }
+                linesTable = table;
+            }
+            offset = skipElementValue(valueOffset);
+        }
+        return offset;
+    }
+
+    private int skipAttributes(int offset) {
+        int attributesCount = readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < attributesCount; i++) {
+            offset += 6 + readInt(offset + 2);
+        }
+        return offset;
+    }
+
+    private int skipAnnotation(int offset) {
+        int pairsCount = readUnsignedShort(offset + 2);
+        offset += 4;
+        for (int i = 0; i < pairsCount; i++) {
+            offset = skipElementValue(offset + 2);
+        }
+        return offset;
+    }
+
+    private int skipElementValue(int offset) {
+        int tag = readUnsignedByte(offset);
+        switch (tag) {
+            case 'e':
+                return offset + 5;
+            case '@':
+                return skipAnnotation(offset + 1);
+            case '[':
+                int valuesCount = readUnsignedShort(offset + 1);
+                offset += 3;
+                for (int i = 0; i < valuesCount; i++) {
+                    offset = skipElementValue(offset);
+                }
+                return offset;
+            default:
+                // const_value_index or class_info_index
+                return offset + 3;
+        }
+    }
+
+    private int parameterCount(int descriptorIndex) {
+        int offset = constantPool[descriptorIndex];
+        int end = offset + 2 + readUnsignedShort(offset);
+        int count = 0;
+        // skip length and '('
+        for (int i = offset + 3; i < end; i++) {
+            int c = readUnsignedByte(i);
+            if (c == ')') {
+                break;
+            }
+            if (c == '[') {
+                continue;
+            }
+            if (c == 'L') {
+                while (readUnsignedByte(i) != ';') {
+                    i++;
+                }
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return Simple names of the parameter types of a method descriptor, as {@link Class#getSimpleName()} returns them
+     * (nested classes are assumed to be the ones whose binary names contain {@code $})
+     */
+    static String[] parameterTypeNames(String descriptor) {
+        List<String> parameterTypeNames = new ArrayList<>();
+        int i = 1; // skip '('
+        while (descriptor.charAt(i) != ')') {
+            int dimensions = 0;
+            while (descriptor.charAt(i) == '[') {
+                dimensions++;
+                i++;
+            }
+            String typeName;
+            char c = descriptor.charAt(i);
+            if (c == 'L') {
+                int end = descriptor.indexOf(';', i);
+                int start = Math.max(descriptor.lastIndexOf('/', end), descriptor.lastIndexOf('$', end));
+                typeName = descriptor.substring(Math.max(start, i) + 1, end);
+                i = end + 1;
+            } else {
+                typeName = primitiveTypeName(c);
+                i++;
+            }
+            StringBuilder parameterTypeName = new StringBuilder(typeName);
+            for (int d = 0; d < dimensions; d++) {
+                parameterTypeName.append("[]");
+            }
+            parameterTypeNames.add(parameterTypeName.toString());
+        }
+        return parameterTypeNames.toArray(new String[0]);
+    }
+
+    private static String primitiveTypeName(char descriptor) {
+        switch (descriptor) {
+            case 'B':
+                return "byte";
+            case 'C':
+                return "char";
+            case 'D':
+                return "double";
+            case 'F':
+                return "float";
+            case 'I':
+                return "int";
+            case 'J':
+                return "long";
+            case 'S':
+                return "short";
+            case 'Z':
+                return "boolean";
+            default:
+                throw new IllegalArgumentException("Unexpected type descriptor: " + descriptor);
+        }
+    }
+
+    private boolean bytesEqual(int offset, byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(base + offset + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a CONSTANT_Utf8 entry (modified UTF-8)
+     */
+    private String readUtf8(int index) {
+        int offset = constantPool[index];
+        int length = readUnsignedShort(offset);
+        offset += 2;
+        char[] chars = new char[length];
+        int charsCount = 0;
+        int end = offset + length;
+        while (offset < end) {
+            int b = readUnsignedByte(offset++);
+            if (b < 0x80) {
+                chars[charsCount++] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[charsCount++] = (char) (((b & 0x1F) << 6) | (readUnsignedByte(offset++) & 0x3F));
+            } else {
+                int b2 = readUnsignedByte(offset++);
+                int b3 = readUnsignedByte(offset++);
+                chars[charsCount++] = (char) (((b & 0x0F) << 12) | ((b2 & 0x3F) << 6) | (b3 & 0x3F));
+            }
+        }
+        return new String(chars, 0, charsCount);
+    }
+
+    private int readUnsignedByte(int offset) {
+        return buffer.get(base + offset) & 0xFF;
+    }
+
+    private int readUnsignedShort(int offset) {
+        return (readUnsignedByte(offset) << 8) | readUnsignedByte(offset + 1);
+    }
+
+    private int readInt(int offset) {
+        return (readUnsignedShort(offset) << 16) | readUnsignedShort(offset + 2);
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,301 @@
+package datadog.compiler.utils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Builds a single {@link SourceIndex} for a whole class path: jars, directories,
+ * and jars nested in them (e.g. Spring Boot fat jars and their exploded layout).
+ * <p>
+ * Class path elements are scanned in parallel in a fork-join pool.
+ * A jar or directory that has a source index written by the compiler plugin is not scanned, its index is used as is.
+ * Otherwise its class files are read with {@link ClassFileSourceReader}, which only parses the plugin annotations.
+ * Jars are streamed entry by entry, nested jars included, so that only one class file at a time is held in memory.
+ * <p>
+ * Nested classes compiled without their own source path (see the plugin's {@code topLevelSourcePath} option)
+ * get the path of their enclosing class, if it is in the same element.
+ * <p>
+ * Every element produces a compact partial index, the partial indexes are then merged in class path order.
+ * When a class is found in several elements, the first one wins, as it does with class loading.
+ */
+public final class ClassPathSourceIndexer {
+
+    private static final String CLASS_FILE_EXTENSION = ".class";
+    private static final String JAR_FILE_EXTENSION = ".jar";
+    private static final String VERSIONED_ENTRIES_PREFIX = "META-INF/versions/";
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private ClassPathSourceIndexer() {
+    }
+
+    /**
+     * Indexes a class path using the common fork-join pool.
+     *
+     * @param classPath Jars and directories
+     * @return Index of all the classes compiled with the plugin
+     * @throws IOException if a class path element cannot be read
+     */
+    public static SourceIndex index(List<Path> classPath) throws IOException {
+        return index(classPath, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Indexes a class path.
+     *
+     * @param classPath Jars and directories, elements that do not exist are skipped
+     * @param pool      Pool that scans the elements
+     * @return Index of all the classes compiled with the plugin
+     * @throws IOException if a class path element cannot be read
+     */
+    public static SourceIndex index(List<Path> classPath, ForkJoinPool pool) throws IOException {
+        List<ElementTask> tasks = new ArrayList<>(classPath.size());
+        for (Path element : classPath) {
+            ElementTask task = new ElementTask(element);
+            pool.execute(task);
+            tasks.add(task);
+        }
+
+        SourceIndexWriter writer = new SourceIndexWriter();
+        try {
+            for (ElementTask task : tasks) {
+                for (SourceIndex partialIndex : task.join()) {
+                    writer.merge(partialIndex);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return SourceIndex.read(writer.toByteArray());
+    }
+
+    /**
+     * Indexes one class path element, returns the partial indexes in class path order
+     */
+    private static final class ElementTask extends RecursiveTask<List<SourceIndex>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path element;
+
+        private ElementTask(Path element) {
+            this.element = element;
+        }
+
+        @Override
+        protected List<SourceIndex> compute() {
+            try {
+                List<SourceIndex> partialIndexes = new ArrayList<>();
+                if (Files.isDirectory(element)) {
+                    indexDirectory(partialIndexes);
+                } else if (Files.isRegularFile(element)) {
+                    SourceIndex index = SourceIndex.open(element);
+                    if (index == null) {
+                        index = scanJar(element);
+                    }
+                    partialIndexes.add(index);
+                }
+                return partialIndexes;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not index " + element, e);
+            }
+        }
+
+        private void indexDirectory(List<SourceIndex> partialIndexes) throws IOException {
+            SourceIndex index = SourceIndex.open(element);
+            if (index != null) {
+                partialIndexes.add(index);
+                return;
+            }
+
+            Scanner scanner = new Scanner();
+            List<ElementTask> nestedJarTasks = new ArrayList<>();
+            try (Stream<Path> files = Files.walk(element)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    String fileName = file.getFileName().toString();
+                    if (fileName.endsWith(CLASS_FILE_EXTENSION)) {
+                        scanner.scanClass(Files.readAllBytes(file));
+                    } else if (fileName.endsWith(JAR_FILE_EXTENSION) && Files.isRegularFile(file)) {
+                        nestedJarTasks.add(new ElementTask(file));
+                    }
+                }
+            }
+            invokeAll(nestedJarTasks);
+
+            partialIndexes.add(scanner.toIndex());
+            for (ElementTask nestedJarTask : nestedJarTasks) {
+                partialIndexes.addAll(nestedJarTask.join());
+            }
+        }
+
+        private static SourceIndex scanJar(Path jar) throws IOException {
+            Scanner scanner = new Scanner();
+            try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(Files.newInputStream(jar), STREAM_BUFFER_SIZE))) {
+                scanner.scanJar(zip);
+            }
+            return scanner.toIndex();
+        }
+    }
+
+    /**
+     * Collects the source data of the class files of one class path element
+     */
+    private static final class Scanner implements ClassFileSourceReader.Visitor {
+        private final ClassFileSourceReader reader = new ClassFileSourceReader();
+        private final SourceIndexWriter writer = new SourceIndexWriter();
+        private byte[] buffer = new byte[16 * 1024];
+
+        /**
+         * Source paths of the classes that have one, by binary name
+         */
+        private final Map<String, String> sourcePaths = new HashMap<>();
+        /**
+         * Classes without a source path, resolved through their enclosing class once all the classes are scanned
+         */
+        private final List<NestedClass> nestedClasses = new ArrayList<>();
+
+        private String className;
+        private String sourcePath;
+        private NestedClass nestedClass;
+
+        void scanJar(ZipInputStream zip) throws IOException {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (entry.isDirectory() || name.startsWith(VERSIONED_ENTRIES_PREFIX)) {
+                    continue;
+                }
+                if (name.endsWith(CLASS_FILE_EXTENSION)) {
+                    int length = readEntry(zip);
+                    scanClass(ByteBuffer.wrap(buffer, 0, length));
+                } else if (name.endsWith(JAR_FILE_EXTENSION)) {
+                    // the nested stream reads the current entry, it must not be closed as it would close the outer stream
+                    scanJar(new ZipInputStream(zip));
+                }
+            }
+        }
+
+        void scanClass(byte[] classBytes) {
+            scanClass(ByteBuffer.wrap(classBytes));
+        }
+
+        private void scanClass(ByteBuffer classBytes) {
+            try {
+                reader.read(classBytes, this);
+            } catch (IllegalArgumentException e) {
+                // not a valid class file: skipped
+            } finally {
+                className = null;
+                sourcePath = null;
+                nestedClass = null;
+            }
+        }
+
+        private int readEntry(InputStream in) throws IOException {
+            int length = 0;
+            int read;
+            while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+                if (length == buffer.length) {
+                    byte[] grown = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, grown, 0, length);
+                    buffer = grown;
+                }
+            }
+            return length;
+        }
+
+        @Override
+        public void visitClass(String className, String sourcePath, int startLine, int endLine) {
+            if (sourcePath == null) {
+                // nested classes have no path when the plugin only annotates top-level classes
+                if (className.indexOf('$') >= 0) {
+                    nestedClass = new NestedClass(className, startLine, endLine);
+                    nestedClasses.add(nestedClass);
+                }
+                return;
+            }
+            this.className = className;
+            this.sourcePath = sourcePath;
+            sourcePaths.put(className, sourcePath);
+            writer.addClass(className, sourcePath, startLine, endLine);
+        }
+
+        @Override
+        public void visitMethod(String name, String descriptor, int startLine, int endLine) {
+            if (className != null) {
+                writer.addMethod(className, name, descriptor, sourcePath, startLine, endLine);
+            } else if (nestedClass != null) {
+                nestedClass.methods.add(new NestedMethod(name, descriptor, startLine, endLine));
+            }
+        }
+
+        SourceIndex toIndex() {
+            for (NestedClass nestedClass : nestedClasses) {
+                String sourcePath = enclosingSourcePath(nestedClass.className);
+                if (sourcePath == null) {
+                    // the enclosing class is not in this class path element, or was not compiled with the plugin
+                    continue;
+                }
+                writer.addClass(nestedClass.className, sourcePath, nestedClass.startLine, nestedClass.endLine);
+                for (NestedMethod method : nestedClass.methods) {
+                    writer.addMethod(nestedClass.className, method.name, method.descriptor, sourcePath, method.startLine, method.endLine);
+                }
+            }
+            return SourceIndex.read(writer.toByteArray());
+        }
+
+        /**
+         * Nested classes are named after their enclosing class followed by {@code $},
+         * the closest enclosing class that has a path is found by stripping the name one {@code $} at a time
+         */
+        private String enclosingSourcePath(String className) {
+            for (int separator = className.lastIndexOf('$'); separator > 0; separator = className.lastIndexOf('$', separator - 1)) {
+                String sourcePath = sourcePaths.get(className.substring(0, separator));
+                if (sourcePath != null) {
+                    return sourcePath;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class NestedClass {
+        private final String className;
+        private final int startLine;
+        private final int endLine;
+        private final List<NestedMethod> methods = new ArrayList<>();
+
+        private NestedClass(String className, int startLine, int endLine) {
+            this.className = className;
+            this.startLine = startLine;
+            this.endLine = endLine;
+        }
+    }
+
+    private static final class NestedMethod {
+        private final String name;
+        private final String descriptor;
+        private final int startLine;
+        private final int endLine;
+
+        private NestedMethod(String name, String descriptor, int startLine, int endLine) {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.startLine = startLine;
+            this.endLine = endLine;
+        }
+    }
+}
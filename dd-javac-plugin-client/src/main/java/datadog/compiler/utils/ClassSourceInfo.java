@@ -0,0 +1,123 @@
+package datadog.compiler.utils;
+
+import java.lang.reflect.Executable;
+
+/**
+ * Source data of a single class, resolved once and cached in a {@link ClassValue}.
+ * <p>
+ * A cached value is referenced by its class and references the class loader of this library,
+ * so it is only cached for classes whose loader keeps this library's loader reachable anyway.
+ * For any other class (e.g. when this library is loaded by a child loader of the class' loader)
+ * nothing is cached, so that the cache never prevents a class loader from being unloaded.
+ */
+final class ClassSourceInfo {
+
+    private static final ClassValue<ClassSourceInfo> CACHE = new ClassValue<ClassSourceInfo>() {
+        @Override
+        protected ClassSourceInfo computeValue(Class<?> type) {
+            return isCacheable(type) ? new ClassSourceInfo(type) : null;
+        }
+    };
+
+    /**
+     * @return Cached source data of the class, or {@code null} if the data cannot be cached for this class
+     */
+    static ClassSourceInfo forClass(Class<?> clazz) {
+        return CACHE.get(clazz);
+    }
+
+    /**
+     * @return Source data of the class, cached if possible
+     */
+    static ClassSourceInfo read(Class<?> clazz) {
+        ClassSourceInfo sourceInfo = CACHE.get(clazz);
+        return sourceInfo != null ? sourceInfo : new ClassSourceInfo(clazz);
+    }
+
+    private final String sourcePath;
+    private final long lines;
+    private final String[] linesTable;
+    /**
+     * Lines of all the methods and constructors of the class, read the first time one of them is looked up
+     */
+    private volatile MethodLines methodLines;
+
+    private ClassSourceInfo(Class<?> clazz) {
+        sourcePath = CompilerUtils.readSourcePath(clazz);
+        linesTable = CompilerUtils.readLinesTable(clazz);
+        lines = CompilerUtils.readLines(clazz, linesTable);
+    }
+
+    String getSourcePath() {
+        return sourcePath;
+    }
+
+    long getLines() {
+        return lines;
+    }
+
+    long getLines(Executable executable) {
+        MethodLines lines = methodLines;
+        if (lines == null) {
+            Class<?> clazz = executable.getDeclaringClass();
+            if (!hasLines(clazz)) {
+                // methods annotated on their own are rare enough in such classes not to read them all
+                return CompilerUtils.readLines(executable, linesTable);
+            }
+            try {
+                lines = readMethodLines(clazz);
+            } catch (LinkageError e) {
+                // a method or constructor of the class refers to a type that cannot be loaded: nothing is cached,
+                // the methods that can be resolved are read one at a time
+                return CompilerUtils.readLines(executable, linesTable);
+            }
+        }
+        return lines.find(executable);
+    }
+
+    /**
+     * @param clazz The class this data belongs to
+     */
+    MethodLines getMethodLines(Class<?> clazz) {
+        MethodLines lines = methodLines;
+        if (lines != null) {
+            return lines;
+        }
+        // Nothing is cached for classes without lines, so that looking up one of their methods still reads the methods annotated on their own.
+        return hasLines(clazz) ? readMethodLines(clazz) : MethodLines.EMPTY;
+    }
+
+    /**
+     * @return {@code false} if the class has no lines of its own,
+     * which is the case of classes that were not compiled with the plugin, JDK classes included
+     */
+    private boolean hasLines(Class<?> clazz) {
+        // anonymous classes cannot be annotated, only their methods are
+        return lines != SourceLinesTables.NOT_FOUND || linesTable != null || clazz.isAnonymousClass();
+    }
+
+    private MethodLines readMethodLines(Class<?> clazz) {
+        MethodLines lines = methodLines;
+        if (lines == null) {
+            methodLines = lines = MethodLines.read(clazz, linesTable);
+        }
+        return lines;
+    }
+
+    private static boolean isCacheable(Class<?> clazz) {
+        ClassLoader libraryClassLoader = ClassSourceInfo.class.getClassLoader();
+        if (libraryClassLoader == null) {
+            return true;
+        }
+        try {
+            for (ClassLoader cl = clazz.getClassLoader(); cl != null; cl = cl.getParent()) {
+                if (cl == libraryClassLoader) {
+                    return true;
+                }
+            }
+        } catch (SecurityException e) {
+            // ignored
+        }
+        return false;
+    }
+}
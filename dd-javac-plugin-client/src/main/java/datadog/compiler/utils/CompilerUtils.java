@@ -1,37 +1,74 @@
 package datadog.compiler.utils;
 
+import datadog.compiler.annotations.SourceHash;
 import datadog.compiler.annotations.SourceLines;
+import datadog.compiler.annotations.SourceLinesTable;
 import datadog.compiler.annotations.SourcePath;
 import java.lang.reflect.Executable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 
 public class CompilerUtils {
 
     public static final int LINE_UNKNOWN = -1;
+    public static final long SOURCE_HASH_UNKNOWN = -1;
 
     /**
-     * Returns path to class source file (injected by Datadog Java compiler plugin)
+     * Returns path to class source file (injected by Datadog Java compiler plugin).
+     * Nested, local and anonymous classes that are not annotated get the path of their enclosing class.
      *
      * @param clazz The class to get the source file path for
-     * @return The absolute path to the source code of the provided class
+     * @return The path to the source code of the provided class:
+     * absolute, or relative to the source root if the class was compiled with one (see {@link #getAbsoluteSourcePath(Class)})
      */
     public static String getSourcePath(Class<?> clazz) {
-        SourcePath sourcePathAnnotation = clazz.getAnnotation(SourcePath.class);
-        if (sourcePathAnnotation != null) {
-            return sourcePathAnnotation.value();
+        ClassSourceInfo sourceInfo = ClassSourceInfo.forClass(clazz);
+        return sourceInfo != null ? sourceInfo.getSourcePath() : readSourcePath(clazz);
+    }
+
+    /**
+     * Returns absolute path to class source file.
+     * <p>
+     * If the class was compiled with a source root, its source path is relative to the root,
+     * and it is resolved against the root recorded in the classes directory or jar that the class was loaded from.
+     *
+     * @param clazz The class to get the source file path for
+     * @return The absolute path to the source code of the provided class,
+     * or {@code null} if the class has no source path or its source root cannot be found
+     */
+    public static String getAbsoluteSourcePath(Class<?> clazz) {
+        String sourcePath = getSourcePath(clazz);
+        if (sourcePath == null || !SourceRoots.isRelative(sourcePath)) {
+            return sourcePath;
         }
+        String sourceRoot = SourceRoots.getSourceRoot(clazz);
+        return sourceRoot != null ? SourceRoots.resolve(sourceRoot, sourcePath) : null;
+    }
 
-        if (clazz.isAnonymousClass()) {
-            try {
-                Class<?> enclosingClass = clazz.getEnclosingClass();
-                if (enclosingClass != null) {
-                    return getSourcePath(enclosingClass);
+    /**
+     * Returns the hash of the class source file (injected by Datadog Java compiler plugin when {@code sourceHash} is enabled),
+     * see {@link SourceHash}.
+     * Only top-level classes are annotated, nested classes get the hash of their enclosing class.
+     *
+     * @param clazz The class to get the source hash for
+     * @return The unsigned CRC32 of the source file or {@link CompilerUtils#SOURCE_HASH_UNKNOWN} if the class has no hash
+     */
+    public static long getSourceHash(Class<?> clazz) {
+        try {
+            for (Class<?> c = clazz; c != null; c = c.getEnclosingClass()) {
+                SourceHash sourceHash = c.getAnnotation(SourceHash.class);
+                if (sourceHash == null) {
+                    Field holder = getHolderField(c);
+                    sourceHash = holder != null ? holder.getAnnotation(SourceHash.class) : null;
+                }
+                if (sourceHash != null) {
+                    return sourceHash.value() & 0xFFFFFFFFL;
                 }
-            } catch (Exception e) {
-                // ignored
             }
+        } catch (Exception e) {
+            // ignored
         }
-
-        return null;
+        return SOURCE_HASH_UNKNOWN;
     }
 
     /**
@@ -41,8 +78,7 @@ public class CompilerUtils {
      * @return Start line of the method or {@link CompilerUtils#LINE_UNKNOWN} if the line cannot be determined
      */
     public static int getStartLine(Executable executable) {
-        SourceLines methodLines = executable.getAnnotation(SourceLines.class);
-        return methodLines != null ? methodLines.start() : LINE_UNKNOWN;
+        return SourceLinesTables.startLine(getLines(executable));
     }
 
     /**
@@ -52,8 +88,7 @@ public class CompilerUtils {
      * @return End line of the method or {@link CompilerUtils#LINE_UNKNOWN} if the line cannot be determined
      */
     public static int getEndLine(Executable executable) {
-        SourceLines methodLines = executable.getAnnotation(SourceLines.class);
-        return methodLines != null ? methodLines.end() : LINE_UNKNOWN;
+        return SourceLinesTables.endLine(getLines(executable));
     }
 
     /**
@@ -63,8 +98,7 @@ public class CompilerUtils {
      * @return Start line of the class or {@link CompilerUtils#LINE_UNKNOWN} if the line cannot be determined
      */
     public static int getStartLine(Class<?> clazz) {
-        SourceLines classLines = clazz.getAnnotation(SourceLines.class);
-        return classLines != null ? classLines.start() : LINE_UNKNOWN;
+        return SourceLinesTables.startLine(getLines(clazz));
     }
 
     /**
@@ -74,7 +108,117 @@ public class CompilerUtils {
      * @return End line of the class or {@link CompilerUtils#LINE_UNKNOWN} if the line cannot be determined
      */
     public static int getEndLine(Class<?> clazz) {
+        return SourceLinesTables.endLine(getLines(clazz));
+    }
+
+    private static long getLines(Class<?> clazz) {
+        ClassSourceInfo sourceInfo = ClassSourceInfo.forClass(clazz);
+        return sourceInfo != null ? sourceInfo.getLines() : readLines(clazz);
+    }
+
+    private static long getLines(Executable executable) {
+        ClassSourceInfo sourceInfo = ClassSourceInfo.forClass(executable.getDeclaringClass());
+        if (sourceInfo != null) {
+            return sourceInfo.getLines(executable);
+        }
+        return readLines(executable, readLinesTable(executable.getDeclaringClass()));
+    }
+
+    static String readSourcePath(Class<?> clazz) {
+        SourcePath sourcePathAnnotation = clazz.getAnnotation(SourcePath.class);
+        if (sourcePathAnnotation != null) {
+            return sourcePathAnnotation.value();
+        }
+
+        // anonymous classes cannot be annotated, and nested classes are not when only top-level classes get the path:
+        // they are in the file of their enclosing class, whose path is cached, so resolving a chain of nested classes costs a lookup per class
+        try {
+            Class<?> enclosingClass = clazz.getEnclosingClass();
+            if (enclosingClass != null) {
+                return getSourcePath(enclosingClass);
+            }
+        } catch (Exception | LinkageError e) {
+            // ignored
+        }
+
+        return null;
+    }
+
+    /**
+     * @return Start and end lines of the class packed as described in {@link SourceLinesTables},
+     * both lines are {@link CompilerUtils#LINE_UNKNOWN} if they cannot be determined
+     */
+    static long readLines(Class<?> clazz) {
+        SourceLines classLines = clazz.getAnnotation(SourceLines.class);
+        if (classLines != null) {
+            return SourceLinesTables.pack(classLines.start(), classLines.end());
+        }
+        String[] linesTable = readLinesTable(clazz);
+        return linesTable != null ? SourceLinesTables.find(linesTable, SourceLinesTables.CLASS_ENTRY_NAME, 0) : SourceLinesTables.NOT_FOUND;
+    }
+
+    /**
+     * @param linesTable Lines table of the class (may be {@code null})
+     */
+    static long readLines(Class<?> clazz, String[] linesTable) {
         SourceLines classLines = clazz.getAnnotation(SourceLines.class);
-        return classLines != null ? classLines.end() : LINE_UNKNOWN;
+        if (classLines != null) {
+            return SourceLinesTables.pack(classLines.start(), classLines.end());
+        }
+        return linesTable != null ? SourceLinesTables.find(linesTable, SourceLinesTables.CLASS_ENTRY_NAME, 0) : SourceLinesTables.NOT_FOUND;
+    }
+
+    /**
+     * @return Lines table of the class, from the class annotation or from the holder field of ABI-stable mode,
+     * or {@code null} if the class has none
+     */
+    static String[] readLinesTable(Class<?> clazz) {
+        SourceLinesTable table = clazz.getAnnotation(SourceLinesTable.class);
+        if (table == null) {
+            Field holder = getHolderField(clazz);
+            table = holder != null ? holder.getAnnotation(SourceLinesTable.class) : null;
+        }
+        return table != null ? table.value() : null;
+    }
+
+    private static Field getHolderField(Class<?> clazz) {
+        try {
+            return clazz.getDeclaredField(SourceLinesTables.HOLDER_FIELD_NAME);
+        } catch (NoSuchFieldException | SecurityException | LinkageError e) {
+            // no holder, or the fields of the class cannot be resolved
+            return null;
+        }
+    }
+
+    /**
+     * @param linesTable Lines table of the declaring class (may be {@code null}).
+     *                   Constructors are only stored in holder field tables.
+     * @return Start and end lines of the method packed as described in {@link SourceLinesTables},
+     * both lines are {@link CompilerUtils#LINE_UNKNOWN} if they cannot be determined
+     */
+    static long readLines(Executable executable, String[] linesTable) {
+        SourceLines methodLines = executable.getAnnotation(SourceLines.class);
+        if (methodLines != null) {
+            return SourceLinesTables.pack(methodLines.start(), methodLines.end());
+        }
+        if (linesTable != null) {
+            String name = executable instanceof Method ? executable.getName() : SourceLinesTables.CONSTRUCTOR_ENTRY_NAME;
+            int parameterCount = executable.getParameterCount();
+            long lines = SourceLinesTables.find(linesTable, name, parameterCount);
+            if (lines == SourceLinesTables.NOT_FOUND && SourceLinesTables.hasOverloads(linesTable, name)) {
+                lines = SourceLinesTables.find(linesTable, SourceLinesTables.overloadEntryName(name, parameterTypeNames(executable)), parameterCount);
+            }
+            return lines;
+        }
+        return SourceLinesTables.NOT_FOUND;
+    }
+
+    private static String[] parameterTypeNames(Executable executable) {
+        Class<?>[] parameterTypes = executable.getParameterTypes();
+        String[] parameterTypeNames = new String[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            parameterTypeNames[i] = parameterTypes[i].getSimpleName();
+        }
+        return parameterTypeNames;
     }
 }
@@ -0,0 +1,184 @@
+package datadog.compiler.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads single resources from jars without going through {@link java.util.jar.JarFile},
+ * so that uncompressed resources can be used in place from a memory-mapped jar.
+ */
+final class JarResources {
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private JarResources() {
+    }
+
+    /**
+     * Looks up a resource in a jar.
+     *
+     * @param jar  Jar file
+     * @param name Resource name
+     * @return Resource contents, or {@code null} if the jar has no such resource.
+     * Stored resources are slices of the mapped jar, compressed ones are inflated to the heap.
+     * @throws IOException if the jar cannot be read
+     */
+    static ByteBuffer find(Path jar, String name) throws IOException {
+        ByteBuffer mappedJar;
+        try (FileChannel channel = FileChannel.open(jar, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return findInZipFile(jar, name);
+            }
+            mappedJar = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        mappedJar.order(ByteOrder.LITTLE_ENDIAN);
+
+        int endOfCentralDirectory = findEndOfCentralDirectory(mappedJar);
+        if (endOfCentralDirectory < 0) {
+            throw new IOException("Not a jar: " + jar);
+        }
+        int entriesCount = mappedJar.getShort(endOfCentralDirectory + 10) & 0xFFFF;
+        long centralDirectoryOffset = mappedJar.getInt(endOfCentralDirectory + 16) & 0xFFFFFFFFL;
+        if (entriesCount == 0xFFFF || centralDirectoryOffset == 0xFFFFFFFFL) {
+            // ZIP64
+            return findInZipFile(jar, name);
+        }
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int offset = (int) centralDirectoryOffset;
+        for (int i = 0; i < entriesCount; i++) {
+            if (mappedJar.getInt(offset) != CENTRAL_DIRECTORY_HEADER_SIGNATURE) {
+                throw new IOException("Corrupted central directory in " + jar);
+            }
+            int nameLength = mappedJar.getShort(offset + 28) & 0xFFFF;
+            int extraLength = mappedJar.getShort(offset + 30) & 0xFFFF;
+            int commentLength = mappedJar.getShort(offset + 32) & 0xFFFF;
+            if (nameLength == nameBytes.length && bytesEqual(mappedJar, offset + CENTRAL_DIRECTORY_HEADER_SIZE, nameBytes)) {
+                int method = mappedJar.getShort(offset + 10) & 0xFFFF;
+                long compressedSize = mappedJar.getInt(offset + 20) & 0xFFFFFFFFL;
+                long size = mappedJar.getInt(offset + 24) & 0xFFFFFFFFL;
+                long localHeaderOffset = mappedJar.getInt(offset + 42) & 0xFFFFFFFFL;
+                if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL) {
+                    return findInZipFile(jar, name);
+                }
+                return read(mappedJar, (int) localHeaderOffset, method, (int) compressedSize, (int) size, jar);
+            }
+            offset += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return null;
+    }
+
+    private static ByteBuffer read(ByteBuffer mappedJar, int localHeaderOffset, int method, int compressedSize, int size, Path jar) throws IOException {
+        if (mappedJar.getInt(localHeaderOffset) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("Corrupted local header in " + jar);
+        }
+        int nameLength = mappedJar.getShort(localHeaderOffset + 26) & 0xFFFF;
+        int extraLength = mappedJar.getShort(localHeaderOffset + 28) & 0xFFFF;
+        int dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+
+        ByteBuffer data = mappedJar.duplicate();
+        data.position(dataOffset).limit(dataOffset + compressedSize);
+        data = data.slice();
+
+        if (method == STORED) {
+            return data;
+        }
+        if (method != DEFLATED) {
+            throw new IOException("Unsupported compression method " + method + " in " + jar);
+        }
+        byte[] compressed = new byte[compressedSize];
+        data.get(compressed);
+        byte[] inflated = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            int inflatedSize = 0;
+            while (inflatedSize < size && !inflater.finished()) {
+                int count = inflater.inflate(inflated, inflatedSize, size - inflatedSize);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflatedSize += count;
+            }
+            if (inflatedSize != size) {
+                throw new IOException("Corrupted entry in " + jar);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted entry in " + jar, e);
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(inflated);
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer mappedJar) {
+        int last = mappedJar.limit() - END_OF_CENTRAL_DIRECTORY_SIZE;
+        int first = Math.max(0, last - MAX_COMMENT_LENGTH);
+        for (int offset = last; offset >= first; offset--) {
+            if (mappedJar.getInt(offset) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean bytesEqual(ByteBuffer buffer, int offset, byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(offset + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fallback for the jars that the lightweight parser does not handle (ZIP64)
+     */
+    private static ByteBuffer findInZipFile(Path jar, String name) throws IOException {
+        try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+            ZipEntry entry = zipFile.getEntry(name);
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream in = zipFile.getInputStream(entry)) {
+                return ByteBuffer.wrap(readAllBytes(in));
+            }
+        }
+    }
+
+    private static byte[] readAllBytes(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        int length = 0;
+        int read;
+        while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length == buffer.length) {
+                byte[] grown = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, grown, 0, length);
+                buffer = grown;
+            }
+        }
+        byte[] result = new byte[length];
+        System.arraycopy(buffer, 0, result, 0, length);
+        return result;
+    }
+}
@@ -0,0 +1,129 @@
+package datadog.compiler.utils;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lines of the methods and constructors of a class, looked up by name and by a line inside the method,
+ * which is what a stack trace frame provides, or by the method itself.
+ */
+final class MethodLines {
+
+    static final MethodLines EMPTY = new MethodLines(Collections.<String, Overloads>emptyMap(), null);
+
+    private static final String CONSTRUCTOR_NAME = "<init>";
+
+    /**
+     * Methods with a given name that have lines
+     */
+    private final Map<String, Overloads> overloadsByName;
+
+    /**
+     * Lines table of the class, which has the lines of lambda bodies
+     */
+    private final String[] linesTable;
+
+    private MethodLines(Map<String, Overloads> overloadsByName, String[] linesTable) {
+        this.overloadsByName = overloadsByName;
+        this.linesTable = linesTable;
+    }
+
+    /**
+     * @param linesTable Lines table of the class (may be {@code null})
+     */
+    static MethodLines read(Class<?> clazz, String[] linesTable) {
+        Map<String, Overloads> overloadsByName = new HashMap<>();
+        for (Method method : clazz.getDeclaredMethods()) {
+            add(overloadsByName, method.getName(), method, linesTable);
+        }
+        for (Constructor<?> constructor : clazz.getDeclaredConstructors()) {
+            add(overloadsByName, CONSTRUCTOR_NAME, constructor, linesTable);
+        }
+        return overloadsByName.isEmpty() && linesTable == null ? EMPTY : new MethodLines(overloadsByName, linesTable);
+    }
+
+    private static void add(Map<String, Overloads> overloadsByName, String name, Executable executable, String[] linesTable) {
+        long lines = CompilerUtils.readLines(executable, linesTable);
+        if (lines == SourceLinesTables.NOT_FOUND) {
+            return;
+        }
+        Overloads overloads = overloadsByName.get(name);
+        overloadsByName.put(name, overloads == null ? new Overloads(executable, lines) : overloads.with(executable, lines));
+    }
+
+    /**
+     * @param executable A method or constructor of the class
+     * @return Packed lines of the method or {@link SourceLinesTables#NOT_FOUND}
+     */
+    long find(Executable executable) {
+        Overloads overloads = overloadsByName.get(executable instanceof Method ? executable.getName() : CONSTRUCTOR_NAME);
+        if (overloads != null) {
+            Executable[] executables = overloads.executables;
+            for (int i = 0; i < executables.length; i++) {
+                if (executables[i].equals(executable)) {
+                    return overloads.lines[i];
+                }
+            }
+        }
+        return SourceLinesTables.NOT_FOUND;
+    }
+
+    /**
+     * @param methodName Method name ({@code <init>} for constructors, {@code lambda$<method>$<index>} for lambdas)
+     * @param line       A line executed by the method, or a negative number if it is not known
+     * @return Packed lines of the method whose lines include the line,
+     * or of the only method with the name if the line is not known,
+     * or {@link SourceLinesTables#NOT_FOUND}
+     */
+    long find(String methodName, int line) {
+        Overloads overloads = overloadsByName.get(methodName);
+        if (overloads == null) {
+            if (linesTable != null && line >= 0) {
+                // lambda bodies are only in the table: the names of their methods are generated after the plugin runs
+                return SourceLinesTables.findLambda(linesTable, methodName, line);
+            }
+            return SourceLinesTables.NOT_FOUND;
+        }
+        long[] nameLines = overloads.lines;
+        if (line < 0) {
+            return nameLines.length == 1 ? nameLines[0] : SourceLinesTables.NOT_FOUND;
+        }
+        for (long lines : nameLines) {
+            if (SourceLinesTables.startLine(lines) <= line && line <= SourceLinesTables.endLine(lines)) {
+                return lines;
+            }
+        }
+        return SourceLinesTables.NOT_FOUND;
+    }
+
+    /**
+     * Methods with the same name and their packed lines, in the same order
+     */
+    private static final class Overloads {
+        private final Executable[] executables;
+        private final long[] lines;
+
+        private Overloads(Executable executable, long lines) {
+            this(new Executable[]{executable}, new long[]{lines});
+        }
+
+        private Overloads(Executable[] executables, long[] lines) {
+            this.executables = executables;
+            this.lines = lines;
+        }
+
+        Overloads with(Executable executable, long executableLines) {
+            int length = executables.length;
+            Executable[] grownExecutables = Arrays.copyOf(executables, length + 1);
+            long[] grownLines = Arrays.copyOf(lines, length + 1);
+            grownExecutables[length] = executable;
+            grownLines[length] = executableLines;
+            return new Overloads(grownExecutables, grownLines);
+        }
+    }
+}
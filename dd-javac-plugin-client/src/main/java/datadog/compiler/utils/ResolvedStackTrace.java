@@ -0,0 +1,50 @@
+package datadog.compiler.utils;
+
+/**
+ * Stack trace resolved by {@link StackTraceResolver}, with the source data of every frame.
+ */
+public final class ResolvedStackTrace {
+
+    private final StackTraceElement[] frames;
+    private final String[] sourcePaths;
+    private final long[] methodLines;
+
+    ResolvedStackTrace(StackTraceElement[] frames, String[] sourcePaths, long[] methodLines) {
+        this.frames = frames;
+        this.sourcePaths = sourcePaths;
+        this.methodLines = methodLines;
+    }
+
+    /**
+     * @return Number of frames
+     */
+    public int size() {
+        return frames.length;
+    }
+
+    public StackTraceElement getFrame(int index) {
+        return frames[index];
+    }
+
+    /**
+     * @return Source path of the frame's class (see {@link CompilerUtils#getSourcePath(Class)}),
+     * or {@code null} if the class has none or cannot be loaded
+     */
+    public String getSourcePath(int index) {
+        return sourcePaths[index];
+    }
+
+    /**
+     * @return Start line of the frame's method or {@link CompilerUtils#LINE_UNKNOWN} if the method cannot be determined
+     */
+    public int getMethodStartLine(int index) {
+        return SourceLinesTables.startLine(methodLines[index]);
+    }
+
+    /**
+     * @return End line of the frame's method or {@link CompilerUtils#LINE_UNKNOWN} if the method cannot be determined
+     */
+    public int getMethodEndLine(int index) {
+        return SourceLinesTables.endLine(methodLines[index]);
+    }
+}
@@ -0,0 +1,286 @@
+package datadog.compiler.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Source index written by Datadog Java compiler plugin (when enabled with the {@code sourceIndex} option).
+ * <p>
+ * The index maps class binary names and method descriptors to source paths and line ranges
+ * for all the classes of a compilation.
+ * It is stored as a single {@link #RESOURCE_NAME} resource next to the compiled classes
+ * (see {@link SourceIndexFormat} for the layout).
+ * <p>
+ * Lookups hash and compare the requested names against the index bytes in place,
+ * no strings are decoded and nothing is allocated until an entry's source path is requested.
+ * Lookups return entry numbers that are then used to query entry data:
+ * <pre>
+ * int entry = index.findMethod("com.example.Foo", "bar", "(I)V");
+ * if (entry != SourceIndex.NOT_FOUND) {
+ *     int startLine = index.getStartLine(entry);
+ * }
+ * </pre>
+ * Instances are immutable and thread-safe.
+ */
+public final class SourceIndex {
+
+    public static final String RESOURCE_NAME = "META-INF/dd-source-index.bin";
+
+    /**
+     * Returned by lookups when the index has no entry for the requested class or method
+     */
+    public static final int NOT_FOUND = -1;
+
+    private final ByteBuffer buffer;
+    private final int entryCount;
+    private final int slotCount;
+    private final int pathsOffset;
+    private final int slotsOffset;
+    private final int entriesOffset;
+    private final int stringsOffset;
+
+    /**
+     * Source paths decoded so far, paths are only decoded when an entry referring to them is accessed
+     */
+    private final String[] sourcePaths;
+
+    private SourceIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.remaining() < SourceIndexFormat.HEADER_SIZE || buffer.getInt(0) != SourceIndexFormat.MAGIC) {
+            throw new IllegalArgumentException("Not a source index");
+        }
+        int version = buffer.getInt(4);
+        if (version != SourceIndexFormat.VERSION) {
+            throw new IllegalArgumentException("Unsupported source index version " + version);
+        }
+        int pathCount = buffer.getInt(8);
+        entryCount = buffer.getInt(12);
+        slotCount = buffer.getInt(16);
+        int stringsSize = buffer.getInt(20);
+        if (Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("Corrupted source index: " + slotCount + " slots");
+        }
+
+        pathsOffset = SourceIndexFormat.HEADER_SIZE;
+        slotsOffset = pathsOffset + pathCount * SourceIndexFormat.PATH_SIZE;
+        entriesOffset = slotsOffset + slotCount * SourceIndexFormat.SLOT_SIZE;
+        stringsOffset = entriesOffset + entryCount * SourceIndexFormat.ENTRY_SIZE;
+        if (stringsOffset + stringsSize > buffer.limit()) {
+            throw new IllegalArgumentException("Truncated source index");
+        }
+        sourcePaths = new String[pathCount];
+    }
+
+    /**
+     * Reads an index.
+     *
+     * @param bytes Index contents
+     * @return The index
+     * @throws IllegalArgumentException if the bytes are not a valid index
+     */
+    public static SourceIndex read(byte[] bytes) {
+        return read(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Reads an index. The index is read from the buffer's position, the buffer contents are not copied.
+     *
+     * @param buffer Index contents
+     * @return The index
+     * @throws IllegalArgumentException if the buffer does not contain a valid index
+     */
+    public static SourceIndex read(ByteBuffer buffer) {
+        return new SourceIndex(buffer.slice().order(ByteOrder.BIG_ENDIAN));
+    }
+
+    /**
+     * Maps an index file into memory.
+     * Lookups read the mapped bytes directly, the file contents are not copied to the heap.
+     *
+     * @param indexFile Index file
+     * @return The index
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if the file is not a valid index
+     */
+    public static SourceIndex map(Path indexFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Opens the index of a class path element.
+     * <p>
+     * For a directory, the {@link #RESOURCE_NAME} file is mapped into memory.
+     * For a jar, the whole jar is mapped and the index is read from there in place if its entry is stored uncompressed,
+     * otherwise it is inflated to the heap.
+     *
+     * @param classPathElement Directory or jar
+     * @return The index or {@code null} if the directory or jar has none
+     * @throws IOException              if the index cannot be read
+     * @throws IllegalArgumentException if the index is not valid
+     */
+    public static SourceIndex open(Path classPathElement) throws IOException {
+        if (Files.isDirectory(classPathElement)) {
+            Path indexFile = classPathElement.resolve(RESOURCE_NAME);
+            return Files.isRegularFile(indexFile) ? map(indexFile) : null;
+        }
+        ByteBuffer index = JarResources.find(classPathElement, RESOURCE_NAME);
+        return index != null ? read(index) : null;
+    }
+
+    /**
+     * Looks up a class.
+     *
+     * @param className Binary name of the class (as returned by {@link Class#getName()})
+     * @return Entry number or {@link #NOT_FOUND}
+     */
+    public int findClass(String className) {
+        int hash = SourceIndexFormat.hash(SourceIndexFormat.FNV_OFFSET_BASIS, className);
+        int mask = slotCount - 1;
+        for (int probe = 0, slot = hash & mask; probe < slotCount; probe++, slot = (slot + 1) & mask) {
+            int entry = buffer.getInt(slotsOffset + slot * SourceIndexFormat.SLOT_SIZE) - 1;
+            if (entry < 0) {
+                return NOT_FOUND;
+            }
+            int offset = entriesOffset + entry * SourceIndexFormat.ENTRY_SIZE;
+            if (buffer.getInt(offset + SourceIndexFormat.ENTRY_HASH) == hash) {
+                int keyStart = stringsOffset + buffer.getInt(offset + SourceIndexFormat.ENTRY_KEY_OFFSET);
+                int keyEnd = keyStart + buffer.getInt(offset + SourceIndexFormat.ENTRY_KEY_LENGTH);
+                if (match(keyStart, keyEnd, className) == keyEnd) {
+                    return entry;
+                }
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Looks up a method or constructor.
+     *
+     * @param className  Binary name of the declaring class
+     * @param methodName Method name ({@code <init>} for constructors)
+     * @param descriptor Method descriptor, e.g. {@code (ILjava/lang/String;)V}
+     * @return Entry number or {@link #NOT_FOUND}
+     */
+    public int findMethod(String className, String methodName, String descriptor) {
+        int hash = SourceIndexFormat.hash(SourceIndexFormat.FNV_OFFSET_BASIS, className);
+        hash = SourceIndexFormat.hash(hash, SourceIndexFormat.MEMBER_SEPARATOR);
+        hash = SourceIndexFormat.hash(hash, methodName);
+        hash = SourceIndexFormat.hash(hash, descriptor);
+        int mask = slotCount - 1;
+        for (int probe = 0, slot = hash & mask; probe < slotCount; probe++, slot = (slot + 1) & mask) {
+            int entry = buffer.getInt(slotsOffset + slot * SourceIndexFormat.SLOT_SIZE) - 1;
+            if (entry < 0) {
+                return NOT_FOUND;
+            }
+            int offset = entriesOffset + entry * SourceIndexFormat.ENTRY_SIZE;
+            if (buffer.getInt(offset + SourceIndexFormat.ENTRY_HASH) == hash) {
+                int keyStart = stringsOffset + buffer.getInt(offset + SourceIndexFormat.ENTRY_KEY_OFFSET);
+                int keyEnd = keyStart + buffer.getInt(offset + SourceIndexFormat.ENTRY_KEY_LENGTH);
+                int position = match(keyStart, keyEnd, className);
+                if (position >= 0 && position < keyEnd && buffer.get(position) == SourceIndexFormat.MEMBER_SEPARATOR) {
+                    position = match(position + 1, keyEnd, methodName);
+                    if (position >= 0 && match(position, keyEnd, descriptor) == keyEnd) {
+                        return entry;
+                    }
+                }
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * @param entry Entry number returned by a lookup
+     * @return Path to the source file of the class or method
+     */
+    public String getSourcePath(int entry) {
+        int path = buffer.getInt(entryOffset(entry) + SourceIndexFormat.ENTRY_PATH);
+        String sourcePath = sourcePaths[path];
+        if (sourcePath == null) {
+            // racy but benign: every thread decodes the same value
+            int pathOffset = pathsOffset + path * SourceIndexFormat.PATH_SIZE;
+            sourcePath = readString(buffer.getInt(pathOffset), buffer.getInt(pathOffset + 4));
+            sourcePaths[path] = sourcePath;
+        }
+        return sourcePath;
+    }
+
+    /**
+     * @param entry Entry number returned by a lookup
+     * @return Start line of the class or method, or {@link CompilerUtils#LINE_UNKNOWN}
+     */
+    public int getStartLine(int entry) {
+        return buffer.getInt(entryOffset(entry) + SourceIndexFormat.ENTRY_START_LINE);
+    }
+
+    /**
+     * @param entry Entry number returned by a lookup
+     * @return End line of the class or method, or {@link CompilerUtils#LINE_UNKNOWN}
+     */
+    public int getEndLine(int entry) {
+        return buffer.getInt(entryOffset(entry) + SourceIndexFormat.ENTRY_END_LINE);
+    }
+
+    /**
+     * @return Number of entries in the index
+     */
+    public int size() {
+        return entryCount;
+    }
+
+    /**
+     * @param entry Entry number
+     * @return Key of the entry: class name, or {@code className#methodName + methodDescriptor}
+     */
+    String getKey(int entry) {
+        int offset = entryOffset(entry);
+        return readString(
+                buffer.getInt(offset + SourceIndexFormat.ENTRY_KEY_OFFSET),
+                buffer.getInt(offset + SourceIndexFormat.ENTRY_KEY_LENGTH));
+    }
+
+    /**
+     * Compares the bytes at the given position with the UTF-8 encoding of a string.
+     *
+     * @return Position of the first byte after the matched string or {@code -1} if the bytes do not match
+     */
+    private int match(int position, int end, String s) {
+        for (int i = 0; i < s.length(); ) {
+            int codePoint = s.codePointAt(i);
+            int length = SourceIndexFormat.utf8Length(codePoint);
+            if (position + length > end) {
+                return -1;
+            }
+            for (int k = 0; k < length; k++) {
+                if ((buffer.get(position++) & 0xFF) != SourceIndexFormat.utf8Byte(codePoint, length, k)) {
+                    return -1;
+                }
+            }
+            i += Character.charCount(codePoint);
+        }
+        return position;
+    }
+
+    private int entryOffset(int entry) {
+        if (entry < 0 || entry >= entryCount) {
+            throw new IndexOutOfBoundsException("Entry " + entry + " out of " + entryCount);
+        }
+        return entriesOffset + entry * SourceIndexFormat.ENTRY_SIZE;
+    }
+
+    private String readString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        int start = stringsOffset + offset;
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,123 @@
+package datadog.compiler.utils;
+
+/**
+ * Layout of the source index resource written by Datadog Java compiler plugin.
+ * <p>
+ * All numbers are big-endian ints:
+ * <pre>
+ * header   magic, version, path count, entry count, slot count, strings size
+ * paths    path count x (string offset, string length)
+ * slots    slot count x (entry number + 1, or 0 for an empty slot)
+ * entries  entry count x (key hash, key offset, key length, path number, start line, end line)
+ * strings  UTF-8 bytes of the paths and keys
+ * </pre>
+ * Entries are keyed by the class binary name for classes, and by
+ * {@code className#methodName + methodDescriptor} for methods and constructors.
+ * The slots are an open addressing hash table (linear probing, power of two size) over the key hashes.
+ */
+final class SourceIndexFormat {
+
+    static final int MAGIC = 0x44445349; // "DDSI"
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 6 * 4;
+    static final int PATH_SIZE = 2 * 4;
+    static final int SLOT_SIZE = 4;
+    static final int ENTRY_SIZE = 6 * 4;
+
+    static final int ENTRY_HASH = 0;
+    static final int ENTRY_KEY_OFFSET = 4;
+    static final int ENTRY_KEY_LENGTH = 8;
+    static final int ENTRY_PATH = 12;
+    static final int ENTRY_START_LINE = 16;
+    static final int ENTRY_END_LINE = 20;
+
+    static final char MEMBER_SEPARATOR = '#';
+
+    static final int FNV_OFFSET_BASIS = 0x811C9DC5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private SourceIndexFormat() {
+    }
+
+    static String methodKey(String className, String methodName, String descriptor) {
+        return className + MEMBER_SEPARATOR + methodName + descriptor;
+    }
+
+    /**
+     * FNV-1a hash of key bytes
+     */
+    static int hash(byte[] bytes) {
+        int hash = FNV_OFFSET_BASIS;
+        for (byte b : bytes) {
+            hash = hash(hash, b & 0xFF);
+        }
+        return hash;
+    }
+
+    /**
+     * Continues FNV-1a hash with the UTF-8 bytes of a string, without encoding it into an array
+     */
+    static int hash(int hash, String s) {
+        for (int i = 0; i < s.length(); ) {
+            int codePoint = s.codePointAt(i);
+            int length = utf8Length(codePoint);
+            for (int k = 0; k < length; k++) {
+                hash = hash(hash, utf8Byte(codePoint, length, k));
+            }
+            i += Character.charCount(codePoint);
+        }
+        return hash;
+    }
+
+    static int hash(int hash, int unsignedByte) {
+        return (hash ^ unsignedByte) * FNV_PRIME;
+    }
+
+    /**
+     * Number of bytes taken by a code point in UTF-8,
+     * unpaired surrogates are encoded as {@code '?'} (as {@link String#getBytes} does)
+     */
+    static int utf8Length(int codePoint) {
+        if (codePoint < 0x80 || isSurrogate(codePoint)) {
+            return 1;
+        } else if (codePoint < 0x800) {
+            return 2;
+        } else if (codePoint < 0x10000) {
+            return 3;
+        } else {
+            return 4;
+        }
+    }
+
+    /**
+     * Byte number {@code k} of the UTF-8 encoding of a code point (unsigned)
+     */
+    static int utf8Byte(int codePoint, int length, int k) {
+        switch (length) {
+            case 1:
+                return isSurrogate(codePoint) ? '?' : codePoint;
+            case 2:
+                return k == 0 ? 0xC0 | (codePoint >> 6) : 0x80 | (codePoint & 0x3F);
+            case 3:
+                return k == 0 ? 0xE0 | (codePoint >> 12) : 0x80 | ((codePoint >> (6 * (2 - k))) & 0x3F);
+            default:
+                return k == 0 ? 0xF0 | (codePoint >> 18) : 0x80 | ((codePoint >> (6 * (3 - k))) & 0x3F);
+        }
+    }
+
+    private static boolean isSurrogate(int codePoint) {
+        return codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE;
+    }
+
+    /**
+     * Number of hash table slots for the given number of entries: a power of two, at most half full
+     */
+    static int slotCount(int entryCount) {
+        int slotCount = 2;
+        while (slotCount < entryCount * 2) {
+            slotCount <<= 1;
+        }
+        return slotCount;
+    }
+}
@@ -0,0 +1,183 @@
+package datadog.compiler.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Assembles a {@link SourceIndex} (used by the compiler plugin).
+ * <p>
+ * Source paths are stored once in a shared path table, entries only refer to them.
+ */
+public final class SourceIndexWriter {
+
+    private final Map<String, Integer> pathNumbers = new HashMap<>();
+    private final List<String> paths = new ArrayList<>();
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Set<String> classNames = new HashSet<>();
+
+    /**
+     * Adds a class.
+     *
+     * @param className  Binary name of the class
+     * @param sourcePath Path to the class source file
+     * @param startLine  Start line of the class or {@link CompilerUtils#LINE_UNKNOWN}
+     * @param endLine    End line of the class or {@link CompilerUtils#LINE_UNKNOWN}
+     * @return This writer
+     */
+    public SourceIndexWriter addClass(String className, String sourcePath, int startLine, int endLine) {
+        classNames.add(className);
+        entries.put(className, new Entry(pathNumber(sourcePath), startLine, endLine));
+        return this;
+    }
+
+    /**
+     * Adds a method or constructor.
+     *
+     * @param className  Binary name of the declaring class
+     * @param methodName Method name ({@code <init>} for constructors)
+     * @param descriptor Method descriptor
+     * @param sourcePath Path to the class source file
+     * @param startLine  Start line of the method or {@link CompilerUtils#LINE_UNKNOWN}
+     * @param endLine    End line of the method or {@link CompilerUtils#LINE_UNKNOWN}
+     * @return This writer
+     */
+    public SourceIndexWriter addMethod(String className, String methodName, String descriptor,
+                                       String sourcePath, int startLine, int endLine) {
+        classNames.add(className);
+        entries.put(SourceIndexFormat.methodKey(className, methodName, descriptor), new Entry(pathNumber(sourcePath), startLine, endLine));
+        return this;
+    }
+
+    /**
+     * Adds the entries of a previously written index.
+     * Classes that were already in this writer (added directly or by an earlier merge) take precedence:
+     * none of the merged index's entries for them (including the ones for methods they do not have) are kept.
+     *
+     * @param index Previously written index
+     * @return This writer
+     */
+    public SourceIndexWriter merge(SourceIndex index) {
+        Set<String> mergedClassNames = new HashSet<>();
+        for (int i = 0; i < index.size(); i++) {
+            String key = index.getKey(i);
+            int separator = key.indexOf(SourceIndexFormat.MEMBER_SEPARATOR);
+            String className = separator >= 0 ? key.substring(0, separator) : key;
+            if (!classNames.contains(className) && !entries.containsKey(key)) {
+                entries.put(key, new Entry(pathNumber(index.getSourcePath(i)), index.getStartLine(i), index.getEndLine(i)));
+                mergedClassNames.add(className);
+            }
+        }
+        classNames.addAll(mergedClassNames);
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeTo(bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // cannot happen
+        }
+        return bytes.toByteArray();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+
+        int[] pathOffsets = new int[paths.size()];
+        int[] pathLengths = new int[paths.size()];
+        for (int i = 0; i < paths.size(); i++) {
+            byte[] pathBytes = paths.get(i).getBytes(StandardCharsets.UTF_8);
+            pathOffsets[i] = strings.size();
+            pathLengths[i] = pathBytes.length;
+            strings.write(pathBytes);
+        }
+
+        int entryCount = entries.size();
+        int slotCount = SourceIndexFormat.slotCount(entryCount);
+        int[] slots = new int[slotCount];
+        int[] hashes = new int[entryCount];
+        int[] keyOffsets = new int[entryCount];
+        int[] keyLengths = new int[entryCount];
+        int entryNumber = 0;
+        for (String key : entries.keySet()) {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            int hash = SourceIndexFormat.hash(keyBytes);
+            hashes[entryNumber] = hash;
+            keyOffsets[entryNumber] = strings.size();
+            keyLengths[entryNumber] = keyBytes.length;
+            strings.write(keyBytes);
+
+            int mask = slotCount - 1;
+            int slot = hash & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entryNumber + 1;
+            entryNumber++;
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(SourceIndexFormat.MAGIC);
+        data.writeInt(SourceIndexFormat.VERSION);
+        data.writeInt(paths.size());
+        data.writeInt(entryCount);
+        data.writeInt(slotCount);
+        data.writeInt(strings.size());
+        for (int i = 0; i < paths.size(); i++) {
+            data.writeInt(pathOffsets[i]);
+            data.writeInt(pathLengths[i]);
+        }
+        for (int slot : slots) {
+            data.writeInt(slot);
+        }
+        entryNumber = 0;
+        for (Entry entry : entries.values()) {
+            data.writeInt(hashes[entryNumber]);
+            data.writeInt(keyOffsets[entryNumber]);
+            data.writeInt(keyLengths[entryNumber]);
+            data.writeInt(entry.path);
+            data.writeInt(entry.startLine);
+            data.writeInt(entry.endLine);
+            entryNumber++;
+        }
+        strings.writeTo(data);
+        data.flush();
+    }
+
+    private int pathNumber(String path) {
+        Integer number = pathNumbers.get(path);
+        if (number == null) {
+            number = paths.size();
+            paths.add(path);
+            pathNumbers.put(path, number);
+        }
+        return number;
+    }
+
+    private static final class Entry {
+        private final int path;
+        private final int startLine;
+        private final int endLine;
+
+        private Entry(int path, int startLine, int endLine) {
+            this.path = path;
+            this.startLine = startLine;
+            this.endLine = endLine;
+        }
+    }
+}
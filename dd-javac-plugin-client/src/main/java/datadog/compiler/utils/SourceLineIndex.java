@@ -0,0 +1,223 @@
+package datadog.compiler.utils;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers "which class or method encloses line N of this source file",
+ * using the source data injected by Datadog Java compiler plugin.
+ * <p>
+ * For every source file the line ranges of classes and methods are kept in sorted primitive arrays,
+ * together with the position of the innermost range enclosing each of them.
+ * A query is a binary search followed by a walk up the (shallow) nesting chain, and allocates nothing.
+ * <p>
+ * Instances are immutable and thread-safe.
+ */
+public final class SourceLineIndex {
+
+    private final Map<String, FileRanges> files;
+
+    private SourceLineIndex(Map<String, FileRanges> files) {
+        this.files = files;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Finds the innermost class, method or constructor whose lines include the given line.
+     *
+     * @param sourcePath Path to the source file, as returned by {@link CompilerUtils#getSourcePath(Class)}
+     * @param line       Line number
+     * @return {@link Class}, {@link Method} or {@link Constructor}, or {@code null} if no element includes the line
+     */
+    public AnnotatedElement find(String sourcePath, int line) {
+        FileRanges ranges = files.get(sourcePath);
+        return ranges != null ? ranges.find(line) : null;
+    }
+
+    /**
+     * Finds the innermost class whose lines include the given line.
+     *
+     * @param sourcePath Path to the source file, as returned by {@link CompilerUtils#getSourcePath(Class)}
+     * @param line       Line number
+     * @return The class or {@code null} if no class includes the line
+     */
+    public Class<?> findClass(String sourcePath, int line) {
+        FileRanges ranges = files.get(sourcePath);
+        return ranges != null ? ranges.findClass(line) : null;
+    }
+
+    private static final class FileRanges {
+        private final int[] startLines;
+        private final int[] endLines;
+        /**
+         * Position of the innermost range that encloses the range, {@code -1} for outermost ranges
+         */
+        private final int[] parents;
+        private final AnnotatedElement[] elements;
+
+        private FileRanges(List<Range> ranges) {
+            Collections.sort(ranges, Range.ORDER);
+            int size = ranges.size();
+            startLines = new int[size];
+            endLines = new int[size];
+            parents = new int[size];
+            elements = new AnnotatedElement[size];
+
+            int[] enclosing = new int[size];
+            int depth = 0;
+            for (int i = 0; i < size; i++) {
+                Range range = ranges.get(i);
+                startLines[i] = range.startLine;
+                endLines[i] = range.endLine;
+                elements[i] = range.element;
+
+                while (depth > 0 && endLines[enclosing[depth - 1]] < range.endLine) {
+                    depth--;
+                }
+                parents[i] = depth > 0 ? enclosing[depth - 1] : -1;
+                enclosing[depth++] = i;
+            }
+        }
+
+        AnnotatedElement find(int line) {
+            int i = innermost(line);
+            return i >= 0 ? elements[i] : null;
+        }
+
+        Class<?> findClass(int line) {
+            for (int i = innermost(line); i >= 0; i = parents[i]) {
+                if (elements[i] instanceof Class) {
+                    return (Class<?>) elements[i];
+                }
+            }
+            return null;
+        }
+
+        private int innermost(int line) {
+            // last range starting at or before the line
+            int i = Arrays.binarySearch(startLines, line);
+            if (i < 0) {
+                i = -i - 2;
+            } else {
+                // several ranges may start on the same line, the innermost one comes last
+                while (i + 1 < startLines.length && startLines[i + 1] == line) {
+                    i++;
+                }
+            }
+            while (i >= 0 && endLines[i] < line) {
+                i = parents[i];
+            }
+            return i;
+        }
+    }
+
+    private static final class Range {
+        /**
+         * Outer ranges go first: by start line, then by end line descending, then classes before their members
+         */
+        private static final Comparator<Range> ORDER = new Comparator<Range>() {
+            @Override
+            public int compare(Range r1, Range r2) {
+                if (r1.startLine != r2.startLine) {
+                    return Integer.compare(r1.startLine, r2.startLine);
+                }
+                if (r1.endLine != r2.endLine) {
+                    return Integer.compare(r2.endLine, r1.endLine);
+                }
+                return Integer.compare(r1.depth, r2.depth);
+            }
+        };
+
+        private final int startLine;
+        private final int endLine;
+        private final int depth;
+        private final AnnotatedElement element;
+
+        private Range(int startLine, int endLine, int depth, AnnotatedElement element) {
+            this.startLine = startLine;
+            this.endLine = endLine;
+            this.depth = depth;
+            this.element = element;
+        }
+    }
+
+    /**
+     * Collects the lines of classes and their methods and constructors.
+     * Every class has to be added separately, including nested, inner, local and anonymous ones.
+     */
+    public static final class Builder {
+        private final Map<String, List<Range>> ranges = new HashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a class, along with its declared methods and constructors.
+         * Classes without a source path and elements without lines are skipped.
+         *
+         * @param clazz The class
+         * @return This builder
+         */
+        public Builder addClass(Class<?> clazz) {
+            String sourcePath = CompilerUtils.getSourcePath(clazz);
+            if (sourcePath == null) {
+                return this;
+            }
+            int depth = nestingDepth(clazz);
+            List<Range> fileRanges = ranges.get(sourcePath);
+            if (fileRanges == null) {
+                fileRanges = new ArrayList<>();
+                ranges.put(sourcePath, fileRanges);
+            }
+
+            int startLine = CompilerUtils.getStartLine(clazz);
+            int endLine = CompilerUtils.getEndLine(clazz);
+            if (startLine != CompilerUtils.LINE_UNKNOWN && endLine != CompilerUtils.LINE_UNKNOWN) {
+                fileRanges.add(new Range(startLine, endLine, depth, clazz));
+            }
+            for (Method method : clazz.getDeclaredMethods()) {
+                addExecutable(fileRanges, method, depth + 1);
+            }
+            for (Constructor<?> constructor : clazz.getDeclaredConstructors()) {
+                addExecutable(fileRanges, constructor, depth + 1);
+            }
+            return this;
+        }
+
+        private static void addExecutable(List<Range> fileRanges, Executable executable, int depth) {
+            int startLine = CompilerUtils.getStartLine(executable);
+            int endLine = CompilerUtils.getEndLine(executable);
+            if (startLine != CompilerUtils.LINE_UNKNOWN && endLine != CompilerUtils.LINE_UNKNOWN) {
+                fileRanges.add(new Range(startLine, endLine, depth, executable));
+            }
+        }
+
+        private static int nestingDepth(Class<?> clazz) {
+            int depth = 0;
+            for (Class<?> c = clazz.getEnclosingClass(); c != null; c = c.getEnclosingClass()) {
+                depth += 2; // the class, and the method it may be declared in
+            }
+            return depth;
+        }
+
+        public SourceLineIndex build() {
+            Map<String, FileRanges> files = new HashMap<>();
+            for (Map.Entry<String, List<Range>> entry : ranges.entrySet()) {
+                files.put(entry.getKey(), new FileRanges(new ArrayList<>(entry.getValue())));
+            }
+            return new SourceLineIndex(files);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package datadog.compiler.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes and decodes the method lines tables stored in {@link datadog.compiler.annotations.SourceLinesTable}.
+ * <p>
+ * Lookups scan the encoded strings in place, nothing is allocated when decoding
+ * (only the lookups of same-arity overloads build the names of their entries, see {@link #overloadEntryName(String, String[])}).
+ */
+public final class SourceLinesTables {
+
+    /**
+     * Returned by {@link #find(String[], String, int)} when the table has no entry for the method.
+     * Both its start and end lines are {@link CompilerUtils#LINE_UNKNOWN}.
+     */
+    public static final long NOT_FOUND = -1L;
+
+    /**
+     * Parameter count of the entries of lambda bodies.
+     * They are named after the methods that javac generates for lambdas ({@code lambda$<enclosing method>$<index>})
+     * without the index, see {@link #lambdaEntryName(String)}.
+     */
+    public static final int LAMBDA_PARAMETER_COUNT = -1;
+
+    private static final String LAMBDA_PREFIX = "lambda$";
+
+    /**
+     * Name of the private static final field (a {@code boolean} constant) that holds the table (and the source hash) in ABI-stable mode.
+     * Private members are not part of a class' API, so line changes do not make dependent modules recompile.
+     */
+    public static final String HOLDER_FIELD_NAME = "$dd$sourceLines";
+
+    /**
+     * Name of the entry with the lines of the class itself (only in a holder field table), its parameter count is 0
+     */
+    public static final String CLASS_ENTRY_NAME = "<class>";
+
+    /**
+     * Name of the constructor entries (only in a holder field table).
+     * Their parameter count is the one of the compiled constructor, synthetic parameters included
+     * (the enclosing instance of inner classes, the name and ordinal of enum constants).
+     */
+    public static final String CONSTRUCTOR_ENTRY_NAME = "<init>";
+
+    static final char ENTRY_SEPARATOR = ';';
+    static final char FIELD_SEPARATOR = ':';
+    private static final char PARAMETER_TYPES_START = '(';
+    private static final char PARAMETER_TYPE_SEPARATOR = ',';
+    private static final char PARAMETER_TYPES_END = ')';
+
+    /**
+     * Keeps every chunk well below the 65535 bytes limit of a class file string constant
+     * (a char takes at most 3 bytes in modified UTF-8)
+     */
+    static final int MAX_CHUNK_LENGTH = 16 * 1024;
+
+    private SourceLinesTables() {
+    }
+
+    /**
+     * Looks up the lines of a method.
+     *
+     * @param table          Encoded table
+     * @param name           Method name
+     * @param parameterCount Number of method parameters
+     * @return Start and end lines packed into a long (see {@link #startLine(long)} and {@link #endLine(long)}),
+     * or {@link #NOT_FOUND} if the table has no entry for the method
+     */
+    public static long find(String[] table, String name, int parameterCount) {
+        for (String chunk : table) {
+            int entryStart = 0;
+            int length = chunk.length();
+            while (entryStart < length) {
+                int entryEnd = chunk.indexOf(ENTRY_SEPARATOR, entryStart);
+                if (entryEnd < 0) {
+                    entryEnd = length;
+                }
+                int nameEnd = entryStart + name.length();
+                if (nameEnd < entryEnd
+                        && chunk.charAt(nameEnd) == FIELD_SEPARATOR
+                        && chunk.regionMatches(entryStart, name, 0, name.length())) {
+                    int parameterCountEnd = chunk.indexOf(FIELD_SEPARATOR, nameEnd + 1);
+                    if (parseInt(chunk, nameEnd + 1, parameterCountEnd) == parameterCount) {
+                        int startLineEnd = chunk.indexOf(FIELD_SEPARATOR, parameterCountEnd + 1);
+                        int startLine = parseInt(chunk, parameterCountEnd + 1, startLineEnd);
+                        int endLine = parseInt(chunk, startLineEnd + 1, entryEnd);
+                        return pack(startLine, endLine);
+                    }
+                }
+                entryStart = entryEnd + 1;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * @return {@code true} if the table has entries named after the parameter types of a method (see {@link #overloadEntryName(String, String[])})
+     */
+    public static boolean hasOverloads(String[] table, String name) {
+        for (String chunk : table) {
+            int entryStart = 0;
+            int length = chunk.length();
+            while (entryStart < length) {
+                int entryEnd = chunk.indexOf(ENTRY_SEPARATOR, entryStart);
+                if (entryEnd < 0) {
+                    entryEnd = length;
+                }
+                int nameEnd = entryStart + name.length();
+                if (nameEnd < entryEnd
+                        && chunk.charAt(nameEnd) == PARAMETER_TYPES_START
+                        && chunk.regionMatches(entryStart, name, 0, name.length())) {
+                    return true;
+                }
+                entryStart = entryEnd + 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Methods that cannot be told apart by name and parameter count (same-arity overloads)
+     * have entries named after the simple names of their erased parameter types, e.g. {@code of(int,String[])}.
+     * Their parameter counts, like their names, include the synthetic parameters of constructors.
+     *
+     * @param name               Method name, or {@link #CONSTRUCTOR_ENTRY_NAME}
+     * @param parameterTypeNames Simple names of the parameter types, as returned by {@link Class#getSimpleName()}
+     * @return Name of the table entry of the method
+     */
+    public static String overloadEntryName(String name, String[] parameterTypeNames) {
+        StringBuilder entryName = new StringBuilder(name).append(PARAMETER_TYPES_START);
+        for (int i = 0; i < parameterTypeNames.length; i++) {
+            if (i > 0) {
+                entryName.append(PARAMETER_TYPE_SEPARATOR);
+            }
+            entryName.append(parameterTypeNames[i]);
+        }
+        return entryName.append(PARAMETER_TYPES_END).toString();
+    }
+
+    /**
+     * Looks up the lines of a lambda body.
+     * <p>
+     * The lambdas of a method share the name of their entries, so the lambda is identified by a line it executes.
+     * If lambdas are nested, the innermost one is returned.
+     *
+     * @param table            Encoded table
+     * @param lambdaMethodName Name of the method javac generated for the lambda, e.g. {@code lambda$run$0}
+     * @param line             A line executed by the lambda, e.g. the line of a stack trace frame
+     * @return Start and end lines packed into a long, or {@link #NOT_FOUND} if the table has no lambda with the line
+     */
+    public static long findLambda(String[] table, String lambdaMethodName, int line) {
+        int nameLength = lambdaMethodName.lastIndexOf('$');
+        if (nameLength <= LAMBDA_PREFIX.length() || !lambdaMethodName.startsWith(LAMBDA_PREFIX)) {
+            return NOT_FOUND;
+        }
+        long result = NOT_FOUND;
+        for (String chunk : table) {
+            int entryStart = 0;
+            int length = chunk.length();
+            while (entryStart < length) {
+                int entryEnd = chunk.indexOf(ENTRY_SEPARATOR, entryStart);
+                if (entryEnd < 0) {
+                    entryEnd = length;
+                }
+                int nameEnd = entryStart + nameLength;
+                if (nameEnd < entryEnd
+                        && chunk.charAt(nameEnd) == FIELD_SEPARATOR
+                        && chunk.regionMatches(entryStart, lambdaMethodName, 0, nameLength)) {
+                    int parameterCountEnd = chunk.indexOf(FIELD_SEPARATOR, nameEnd + 1);
+                    if (parseInt(chunk, nameEnd + 1, parameterCountEnd) == LAMBDA_PARAMETER_COUNT) {
+                        int startLineEnd = chunk.indexOf(FIELD_SEPARATOR, parameterCountEnd + 1);
+                        int startLine = parseInt(chunk, parameterCountEnd + 1, startLineEnd);
+                        int endLine = parseInt(chunk, startLineEnd + 1, entryEnd);
+                        if (startLine <= line && line <= endLine
+                                && (result == NOT_FOUND || endLine - startLine < endLine(result) - startLine(result))) {
+                            result = pack(startLine, endLine);
+                        }
+                    }
+                }
+                entryStart = entryEnd + 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param enclosingMethodName Name javac uses for the method that encloses a lambda:
+     *                            the method name, {@code new} for constructors and instance initializers,
+     *                            {@code static} for static initializers
+     * @return Name of the table entries of the lambdas of the method
+     */
+    public static String lambdaEntryName(String enclosingMethodName) {
+        return LAMBDA_PREFIX + enclosingMethodName;
+    }
+
+    public static int startLine(long lines) {
+        return (int) (lines >>> 32);
+    }
+
+    public static int endLine(long lines) {
+        return (int) lines;
+    }
+
+    static long pack(int startLine, int endLine) {
+        return ((long) startLine << 32) | (endLine & 0xFFFFFFFFL);
+    }
+
+    private static int parseInt(String s, int from, int to) {
+        boolean negative = s.charAt(from) == '-';
+        int result = 0;
+        for (int i = negative ? from + 1 : from; i < to; i++) {
+            result = result * 10 + (s.charAt(i) - '0');
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Accumulates table entries (used by the compiler plugin)
+     */
+    public static final class Builder {
+        private final List<String> chunks = new ArrayList<>();
+        private final StringBuilder chunk = new StringBuilder();
+
+        public Builder add(String name, int parameterCount, int startLine, int endLine) {
+            if (chunk.length() > 0) {
+                if (chunk.length() + name.length() + 40 > MAX_CHUNK_LENGTH) {
+                    chunks.add(chunk.toString());
+                    chunk.setLength(0);
+                } else {
+                    chunk.append(ENTRY_SEPARATOR);
+                }
+            }
+            chunk.append(name).append(FIELD_SEPARATOR)
+                    .append(parameterCount).append(FIELD_SEPARATOR)
+                    .append(startLine).append(FIELD_SEPARATOR)
+                    .append(endLine);
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return chunks.isEmpty() && chunk.length() == 0;
+        }
+
+        public String[] build() {
+            List<String> result = new ArrayList<>(chunks);
+            if (chunk.length() > 0) {
+                result.add(chunk.toString());
+            }
+            return result.toArray(new String[0]);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package datadog.compiler.utils;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Source roots recorded by Datadog Java compiler plugin (when the {@code sourceRoot} option is used).
+ * <p>
+ * With a source root, classes carry source paths relative to the root,
+ * and the root itself is written once to the {@link #RESOURCE_NAME} resource of the classes directory or jar.
+ */
+public final class SourceRoots {
+
+    public static final String RESOURCE_NAME = "META-INF/dd-source-root";
+
+    /**
+     * Roots by code source location, an empty string stands for a location without a root
+     */
+    private static final ConcurrentMap<String, String> ROOTS = new ConcurrentHashMap<>();
+
+    private SourceRoots() {
+    }
+
+    static boolean isRelative(String sourcePath) {
+        return !new File(sourcePath).isAbsolute() && !sourcePath.startsWith("/");
+    }
+
+    /**
+     * @return Root recorded in the classes directory or jar the class was loaded from, or {@code null} if there is none
+     */
+    static String getSourceRoot(Class<?> clazz) {
+        URL location;
+        try {
+            CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+            location = codeSource != null ? codeSource.getLocation() : null;
+        } catch (SecurityException e) {
+            return null;
+        }
+        if (location == null) {
+            return null;
+        }
+        String key = location.toString();
+        String root = ROOTS.get(key);
+        if (root == null) {
+            root = read(location);
+            ROOTS.putIfAbsent(key, root);
+        }
+        return root.isEmpty() ? null : root;
+    }
+
+    static String resolve(String sourceRoot, String relativeSourcePath) {
+        return Paths.get(sourceRoot).resolve(relativeSourcePath).toString();
+    }
+
+    /**
+     * @return The root, or an empty string if the location has none or it cannot be read
+     */
+    static String read(URL location) {
+        try {
+            if (!"file".equals(location.getProtocol())) {
+                return "";
+            }
+            Path path = Paths.get(location.toURI());
+            ByteBuffer root;
+            if (Files.isDirectory(path)) {
+                Path rootFile = path.resolve(RESOURCE_NAME);
+                if (!Files.isRegularFile(rootFile)) {
+                    return "";
+                }
+                root = ByteBuffer.wrap(Files.readAllBytes(rootFile));
+            } else {
+                root = JarResources.find(path, RESOURCE_NAME);
+                if (root == null) {
+                    return "";
+                }
+            }
+            return StandardCharsets.UTF_8.decode(root).toString().trim();
+        } catch (Exception e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package datadog.compiler.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resolves the source data of whole stack traces at once.
+ * <p>
+ * Every frame is mapped to the source path of its class and to the lines of its method,
+ * the method being chosen among the methods with the frame's name by the line the frame executes.
+ * A class is loaded and read once per stack trace no matter how many frames it has,
+ * and the method lines of classes that can be cached (see {@link CompilerUtils}) are read once for all stack traces.
+ * The results are stored in flat arrays, so the cost of a resolved frame is a few array slots rather than an object.
+ * <p>
+ * Frames of {@code java.lang.StackWalker} can be resolved by converting them with {@code StackFrame.toStackTraceElement()}.
+ */
+public final class StackTraceResolver {
+
+    private static final LoadedClass UNKNOWN_CLASS = new LoadedClass(null, MethodLines.EMPTY);
+
+    /**
+     * Packages whose classes cannot be defined by application class loaders, so they cannot be compiled with the plugin
+     */
+    private static final String JDK_PACKAGE_PREFIX = "java.";
+
+    private StackTraceResolver() {
+    }
+
+    /**
+     * @param stackTrace  Frames to resolve
+     * @param classLoader Class loader to load the classes of the frames with
+     *                    (typically the context class loader of the thread that produced the stack trace)
+     * @return Source data of the frames
+     */
+    public static ResolvedStackTrace resolve(StackTraceElement[] stackTrace, ClassLoader classLoader) {
+        String[] sourcePaths = new String[stackTrace.length];
+        long[] lines = new long[stackTrace.length];
+        Map<String, LoadedClass> loadedClasses = new HashMap<>();
+
+        String lastClassName = null;
+        LoadedClass lastClass = UNKNOWN_CLASS;
+        for (int i = 0; i < stackTrace.length; i++) {
+            StackTraceElement frame = stackTrace[i];
+            String className = frame.getClassName();
+            if (!className.equals(lastClassName)) {
+                // consecutive frames are often in the same class, which spares a map lookup
+                LoadedClass loadedClass = loadedClasses.get(className);
+                if (loadedClass == null) {
+                    loadedClass = load(className, classLoader);
+                    loadedClasses.put(className, loadedClass);
+                }
+                lastClassName = className;
+                lastClass = loadedClass;
+            }
+            sourcePaths[i] = lastClass.sourcePath;
+            lines[i] = lastClass.methodLines.find(frame.getMethodName(), frame.getLineNumber());
+        }
+        return new ResolvedStackTrace(stackTrace, sourcePaths, lines);
+    }
+
+    private static LoadedClass load(String className, ClassLoader classLoader) {
+        if (className.startsWith(JDK_PACKAGE_PREFIX)) {
+            return UNKNOWN_CLASS;
+        }
+        try {
+            Class<?> clazz = Class.forName(className, false, classLoader);
+            ClassSourceInfo sourceInfo = ClassSourceInfo.read(clazz);
+            return new LoadedClass(CompilerUtils.getSourcePath(clazz), sourceInfo.getMethodLines(clazz));
+        } catch (ClassNotFoundException | LinkageError e) {
+            // the class is not visible to the loader or cannot be linked: its frames are left unresolved
+            return UNKNOWN_CLASS;
+        }
+    }
+
+    private static final class LoadedClass {
+        private final String sourcePath;
+        private final MethodLines methodLines;
+
+        private LoadedClass(String sourcePath, MethodLines methodLines) {
+            this.sourcePath = sourcePath;
+            this.methodLines = methodLines;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package datadog.compiler.utils;
+
+import datadog.compiler.annotations.SourceLines;
+import datadog.compiler.annotations.SourceLinesTable;
+import datadog.compiler.annotations.SourcePath;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class ClassFileSourceReaderTest {
+
+    private static final String TEST_CLASS_SOURCE_PATH = "/repo/src/package/TestClass\u00e9.java";
+
+    @SourcePath(TEST_CLASS_SOURCE_PATH)
+    @SourceLines(start = 17, end = 33)
+    @SuppressWarnings("unused")
+    private static final class TestClass {
+        private static final long LONG_CONSTANT = 1L;
+        private static final double DOUBLE_CONSTANT = 2.0;
+
+        @SourceLines(start = 22, end = 24)
+        TestClass(String arg) {
+            // no op
+        }
+
+        @Deprecated
+        @SourceLines(start = 26, end = 28)
+        public static void testMethod(int[] a, String b, long c) {
+            // no op
+        }
+
+        public static void notAnnotatedMethod() {
+            // no op
+        }
+    }
+
+    @SourceLinesTable({"tableMethod:0:40:42;tableMethod:1:44:46", "annotatedMethod:0:1:1"})
+    private static final class TestCompactClass {
+        public static void tableMethod() {
+            // no op
+        }
+
+        public static void tableMethod(Object[][] arg) {
+            // no op
+        }
+
+        @SourceLines(start = 50, end = 52)
+        public static void annotatedMethod() {
+            // no op
+        }
+
+        public static void missingMethod() {
+            // no op
+        }
+    }
+
+    @SourcePath(TEST_CLASS_SOURCE_PATH)
+    @SuppressWarnings("unused")
+    static final class TestHolderClass {
+        @SourceLinesTable("<class>:0:60:70;<init>:1:62:63;holderMethod:0:65:67")
+        private static boolean $dd$sourceLines;
+
+        TestHolderClass(int arg) {
+            // no op
+        }
+
+        public void holderMethod() {
+            // no op
+        }
+    }
+
+    @SuppressWarnings("unused")
+    final class TestHolderOverloadsClass {
+        @SourceLinesTable("<init>(ClassFileSourceReaderTest,int):2:80:81;<init>(ClassFileSourceReaderTest,String):2:83:84;overloaded(int[][]):1:86:87;overloaded(Entry):1:89:90")
+        private static final boolean $dd$sourceLines = false;
+
+        TestHolderOverloadsClass(int arg) {
+            // no op
+        }
+
+        TestHolderOverloadsClass(String arg) {
+            // no op
+        }
+
+        public void overloaded(int[][] arg) {
+            // no op
+        }
+
+        public void overloaded(Map.Entry<String, String> arg) {
+            // no op
+        }
+
+        public void overloaded(long arg) {
+            // no op
+        }
+    }
+
+    private static final class NotAnnotatedClass {
+        @Deprecated
+        public static void method() {
+            // no op
+        }
+    }
+
+    @Test
+    public void testAnnotatedClass() throws Exception {
+        RecordingVisitor visitor = new RecordingVisitor();
+        Assertions.assertTrue(new ClassFileSourceReader().read(classBytes(TestClass.class), visitor));
+        Assertions.assertEquals(listOf(
+                "class " + TestClass.class.getName() + " " + TEST_CLASS_SOURCE_PATH + " 17-33",
+                "method <init>(Ljava/lang/String;)V 22-24",
+                "method testMethod([ILjava/lang/String;J)V 26-28"
+        ), visitor.events);
+    }
+
+    @Test
+    public void testLinesTable() throws Exception {
+        RecordingVisitor visitor = new RecordingVisitor();
+        Assertions.assertTrue(new ClassFileSourceReader().read(classBytes(TestCompactClass.class), visitor));
+        Assertions.assertEquals(listOf(
+                "class " + TestCompactClass.class.getName() + " null -1--1",
+                "method tableMethod()V 40-42",
+                "method tableMethod([[Ljava/lang/Object;)V 44-46",
+                "method annotatedMethod()V 50-52"
+        ), visitor.events);
+    }
+
+    @Test
+    public void testHolderField() throws Exception {
+        RecordingVisitor visitor = new RecordingVisitor();
+        Assertions.assertTrue(new ClassFileSourceReader().read(classBytes(TestHolderClass.class), visitor));
+        Assertions.assertEquals(listOf(
+                "class " + TestHolderClass.class.getName() + " " + TEST_CLASS_SOURCE_PATH + " 60-70",
+                "method <init>(I)V 62-63",
+                "method holderMethod()V 65-67"
+        ), visitor.events);
+    }
+
+    @Test
+    public void testHolderFieldOverloads() throws Exception {
+        RecordingVisitor visitor = new RecordingVisitor();
+        Assertions.assertTrue(new ClassFileSourceReader().read(classBytes(TestHolderOverloadsClass.class), visitor));
+        Assertions.assertEquals(listOf(
+                "class " + TestHolderOverloadsClass.class.getName() + " null -1--1",
+                "method <init>(Ldatadog/compiler/utils/ClassFileSourceReaderTest;I)V 80-81",
+                "method <init>(Ldatadog/compiler/utils/ClassFileSourceReaderTest;Ljava/lang/String;)V 83-84",
+                "method overloaded([[I)V 86-87",
+                "method overloaded(Ljava/util/Map$Entry;)V 89-90"
+        ), visitor.events);
+    }
+
+    @Test
+    public void testNotAnnotatedClass() throws Exception {
+        RecordingVisitor visitor = new RecordingVisitor();
+        Assertions.assertFalse(new ClassFileSourceReader().read(classBytes(NotAnnotatedClass.class), visitor));
+        Assertions.assertTrue(visitor.events.isEmpty());
+    }
+
+    @Test
+    public void testReaderReuseAndBufferPosition() throws Exception {
+        ClassFileSourceReader reader = new ClassFileSourceReader();
+        byte[] classBytes = classBytes(TestClass.class);
+        ByteBuffer buffer = ByteBuffer.allocate(classBytes.length + 3);
+        buffer.position(3);
+        buffer.put(classBytes);
+        buffer.position(3);
+
+        for (int i = 0; i < 2; i++) {
+            RecordingVisitor visitor = new RecordingVisitor();
+            Assertions.assertTrue(reader.read(buffer, visitor));
+            Assertions.assertEquals(3, visitor.events.size());
+            Assertions.assertEquals(3, buffer.position());
+
+            Assertions.assertFalse(reader.read(classBytes(NotAnnotatedClass.class), new RecordingVisitor()));
+        }
+    }
+
+    @Test
+    public void testInvalidClassFile() throws Exception {
+        ClassFileSourceReader reader = new ClassFileSourceReader();
+        Assertions.assertThrows(IllegalArgumentException.class, () -> reader.read(new byte[]{1, 2, 3, 4}, new RecordingVisitor()));
+
+        byte[] classBytes = classBytes(TestClass.class);
+        byte[] truncated = new byte[classBytes.length / 2];
+        System.arraycopy(classBytes, 0, truncated, 0, truncated.length);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> reader.read(truncated, new RecordingVisitor()));
+    }
+
+    private static List<String> listOf(String... elements) {
+        List<String> list = new ArrayList<>();
+        for (String element : elements) {
+            list.add(element);
+        }
+        return list;
+    }
+
+    private static byte[] classBytes(Class<?> clazz) throws IOException {
+        String resourceName = clazz.getName().replace('.', '/') + ".class";
+        try (InputStream classStream = clazz.getClassLoader().getResourceAsStream(resourceName)) {
+            Assertions.assertNotNull(classStream, resourceName);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = classStream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    private static final class RecordingVisitor implements ClassFileSourceReader.Visitor {
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void visitClass(String className, String sourcePath, int startLine, int endLine) {
+            events.add("class " + className + " " + sourcePath + " " + startLine + "-" + endLine);
+        }
+
+        @Override
+        public void visitMethod(String name, String descriptor, int startLine, int endLine) {
+            events.add("method " + name + descriptor + " " + startLine + "-" + endLine);
+        }
+    }
+}
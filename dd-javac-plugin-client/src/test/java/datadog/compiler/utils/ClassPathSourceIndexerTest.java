@@ -0,0 +1,186 @@
+package datadog.compiler.utils;
+
+import datadog.compiler.annotations.SourceLines;
+import datadog.compiler.annotations.SourcePath;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ClassPathSourceIndexerTest {
+
+    @SourcePath("/repo/src/First.java")
+    @SourceLines(start = 1, end = 10)
+    private static final class First {
+        @SourceLines(start = 3, end = 5)
+        public void method(int arg) {
+            // no op
+        }
+    }
+
+    @SourcePath("/repo/src/Second.java")
+    private static final class Second {
+    }
+
+    @SourcePath("/repo/src/Nested.java")
+    @SourceLines(start = 7, end = 9)
+    private static final class Nested {
+    }
+
+    @SourcePath("/repo/src/Exploded.java")
+    private static final class Exploded {
+    }
+
+    private static final class NotAnnotated {
+    }
+
+    @SourcePath("/repo/src/Outer.java")
+    private static final class Outer {
+        // compiled with topLevelSourcePath: nested classes have lines but no path
+        @SourceLines(start = 2, end = 6)
+        private static final class Inner {
+            @SourceLines(start = 3, end = 5)
+            public void method() {
+                // no op
+            }
+        }
+    }
+
+    @Test
+    public void testIndexClassPath() throws Exception {
+        Path root = Files.createTempDirectory("class-path");
+        try {
+            // directory with an index written by the plugin: used as is, shadows the jar that follows
+            Path indexedDirectory = Files.createDirectories(root.resolve("indexed"));
+            Path indexFile = indexedDirectory.resolve(SourceIndex.RESOURCE_NAME);
+            Files.createDirectories(indexFile.getParent());
+            Files.write(indexFile, new SourceIndexWriter()
+                    .addClass(Second.class.getName(), "/indexed/Second.java", 1, 2)
+                    .toByteArray());
+
+            Path jar = root.resolve("plain.jar");
+            try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+                writeClass(out, First.class);
+                writeClass(out, Second.class);
+                writeClass(out, NotAnnotated.class);
+                out.putNextEntry(new ZipEntry("Invalid.class"));
+                out.write(new byte[]{1, 2, 3});
+                out.closeEntry();
+            }
+
+            Path fatJar = root.resolve("fat.jar");
+            try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(fatJar))) {
+                out.putNextEntry(new ZipEntry("BOOT-INF/lib/nested.jar"));
+                out.write(nestedJar(Nested.class));
+                out.closeEntry();
+            }
+
+            Path explodedDirectory = root.resolve("exploded");
+            Path classFile = explodedDirectory.resolve("BOOT-INF/classes/Exploded.class");
+            Files.createDirectories(classFile.getParent());
+            Files.write(classFile, classBytes(Exploded.class));
+
+            SourceIndex index = ClassPathSourceIndexer.index(
+                    Arrays.asList(indexedDirectory, jar, fatJar, explodedDirectory, root.resolve("missing.jar")),
+                    new ForkJoinPool(2));
+
+            int first = index.findClass(First.class.getName());
+            Assertions.assertEquals("/repo/src/First.java", index.getSourcePath(first));
+            Assertions.assertEquals(1, index.getStartLine(first));
+            Assertions.assertEquals(10, index.getEndLine(first));
+            int method = index.findMethod(First.class.getName(), "method", "(I)V");
+            Assertions.assertEquals("/repo/src/First.java", index.getSourcePath(method));
+            Assertions.assertEquals(3, index.getStartLine(method));
+            Assertions.assertEquals(5, index.getEndLine(method));
+
+            Assertions.assertEquals("/indexed/Second.java", index.getSourcePath(index.findClass(Second.class.getName())));
+
+            int nested = index.findClass(Nested.class.getName());
+            Assertions.assertEquals("/repo/src/Nested.java", index.getSourcePath(nested));
+            Assertions.assertEquals(7, index.getStartLine(nested));
+
+            Assertions.assertEquals("/repo/src/Exploded.java", index.getSourcePath(index.findClass(Exploded.class.getName())));
+
+            Assertions.assertEquals(SourceIndex.NOT_FOUND, index.findClass(NotAnnotated.class.getName()));
+        } finally {
+            deleteRecursively(root);
+        }
+    }
+
+    @Test
+    public void testNestedClassResolvedThroughEnclosingClass() throws Exception {
+        Path root = Files.createTempDirectory("class-path");
+        try {
+            Path jar = root.resolve("classes.jar");
+            try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+                // the nested class comes first, its path is resolved once the whole jar is scanned
+                writeClass(out, Outer.Inner.class);
+                writeClass(out, Outer.class);
+            }
+            Path nestedOnlyJar = root.resolve("nested-only.jar");
+            try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(nestedOnlyJar))) {
+                writeClass(out, Outer.Inner.class);
+            }
+
+            SourceIndex index = ClassPathSourceIndexer.index(Arrays.asList(jar), new ForkJoinPool(1));
+            int inner = index.findClass(Outer.Inner.class.getName());
+            Assertions.assertEquals("/repo/src/Outer.java", index.getSourcePath(inner));
+            Assertions.assertEquals(2, index.getStartLine(inner));
+            Assertions.assertEquals(6, index.getEndLine(inner));
+            int method = index.findMethod(Outer.Inner.class.getName(), "method", "()V");
+            Assertions.assertEquals("/repo/src/Outer.java", index.getSourcePath(method));
+            Assertions.assertEquals(3, index.getStartLine(method));
+
+            // the enclosing class is not in the element: there is no path to map the nested class to
+            SourceIndex nestedOnlyIndex = ClassPathSourceIndexer.index(Arrays.asList(nestedOnlyJar), new ForkJoinPool(1));
+            Assertions.assertEquals(SourceIndex.NOT_FOUND, nestedOnlyIndex.findClass(Outer.Inner.class.getName()));
+        } finally {
+            deleteRecursively(root);
+        }
+    }
+
+    private static byte[] nestedJar(Class<?> clazz) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            writeClass(out, clazz);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeClass(ZipOutputStream out, Class<?> clazz) throws IOException {
+        out.putNextEntry(new ZipEntry(clazz.getName().replace('.', '/') + ".class"));
+        out.write(classBytes(clazz));
+        out.closeEntry();
+    }
+
+    private static byte[] classBytes(Class<?> clazz) throws IOException {
+        String resourceName = clazz.getName().replace('.', '/') + ".class";
+        try (InputStream classStream = clazz.getClassLoader().getResourceAsStream(resourceName)) {
+            Assertions.assertNotNull(classStream, resourceName);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = classStream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -1,10 +1,17 @@
 package datadog.compiler.utils;
 
+import datadog.compiler.annotations.SourceHash;
 import datadog.compiler.annotations.SourceLines;
+import datadog.compiler.annotations.SourceLinesTable;
 import datadog.compiler.annotations.SourcePath;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.util.Map;
 
 public class CompilerUtilsTest {
 
@@ -14,6 +21,85 @@ public class CompilerUtilsTest {
     private static final int TEST_METHOD_SOURCE_LINES_START = 21;
     private static final int TEST_METHOD_SOURCE_LINES_END = 23;
 
+    @SuppressWarnings("unused")
+    static final class TestHolderClass {
+        @SourceHash(0xCAFEBABE)
+        @SourceLinesTable("<class>:0:60:70;<init>:1:62:63;holderMethod:0:65:67")
+        private static boolean $dd$sourceLines;
+
+        TestHolderClass(int arg) {
+            // no op
+        }
+
+        public void holderMethod() {
+            // no op
+        }
+    }
+
+    @SuppressWarnings("unused")
+    final class TestHolderOverloadsClass {
+        @SourceLinesTable("<init>(CompilerUtilsTest,int):2:80:81;<init>(CompilerUtilsTest,String):2:83:84;overloaded(int[]):1:86:87;overloaded(Entry):1:89:90")
+        private static final boolean $dd$sourceLines = false;
+
+        TestHolderOverloadsClass(int arg) {
+            // no op
+        }
+
+        TestHolderOverloadsClass(String arg) {
+            // no op
+        }
+
+        public void overloaded(int[] arg) {
+            // no op
+        }
+
+        public void overloaded(Map.Entry<String, String> arg) {
+            // no op
+        }
+
+        public void overloaded(long arg) {
+            // no op
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static final class TestOverloadedClass {
+        @SourceLines(start = 40, end = 41)
+        public void overloaded(int arg) {
+            // no op
+        }
+
+        @SourceLines(start = 43, end = 44)
+        public void overloaded(String arg) {
+            // no op
+        }
+
+        public void overloaded(long arg) {
+            // no op
+        }
+    }
+
+    @SourceLines(start = 50, end = 56)
+    private static final class TestUnresolvableClass {
+        TestUnresolvableClass(MissingType missing) {
+            // no op
+        }
+
+        @SourceLines(start = 54, end = 55)
+        public void resolvable() {
+            // no op
+        }
+    }
+
+    private static final class MissingType {
+    }
+
+    @SourceHash(0xCAFEBABE)
+    private static final class TestHashedClass {
+        private static final class NestedClass {
+        }
+    }
+
     @SourcePath(TEST_CLASS_SOURCE_PATH)
     @SourceLines(start = TEST_CLASS_SOURCE_LINES_START, end = TEST_CLASS_SOURCE_LINES_END)
     private static final class TestClass {
@@ -21,6 +107,44 @@ public class CompilerUtilsTest {
         public static void testMethod() {
             // no op
         }
+
+        private static final class NestedClass {
+            private final class InnerClass {
+            }
+        }
+
+        static Runnable anonymousClassInstance() {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    // no op
+                }
+            };
+        }
+    }
+
+    @SourceLinesTable({"tableMethod:0:30:32;tableMethod:1:34:36", "otherTableMethod:0:38:38"})
+    private static final class TestCompactClass {
+        public static void tableMethod() {
+            // no op
+        }
+
+        public static void tableMethod(int arg) {
+            // no op
+        }
+
+        public static void otherTableMethod() {
+            // no op
+        }
+
+        @SourceLines(start = TEST_METHOD_SOURCE_LINES_START, end = TEST_METHOD_SOURCE_LINES_END)
+        public static void annotatedMethod() {
+            // no op
+        }
+
+        public static void missingMethod() {
+            // no op
+        }
     }
 
     @Test
@@ -29,6 +153,41 @@ public class CompilerUtilsTest {
         Assertions.assertEquals(TEST_CLASS_SOURCE_PATH, sourcePath);
     }
 
+    @Test
+    public void testSourceHashExtraction() {
+        Assertions.assertEquals(0xCAFEBABEL, CompilerUtils.getSourceHash(TestHashedClass.class));
+        // nested classes share the hash of the top-level class, which is the annotated one in plugin output
+        Assertions.assertEquals(0xCAFEBABEL, CompilerUtils.getSourceHash(TestHashedClass.NestedClass.class));
+        Assertions.assertEquals(CompilerUtils.SOURCE_HASH_UNKNOWN, CompilerUtils.getSourceHash(TestClass.class));
+    }
+
+    @Test
+    public void testHolderFieldExtraction() throws Exception {
+        Assertions.assertEquals(60, CompilerUtils.getStartLine(TestHolderClass.class));
+        Assertions.assertEquals(70, CompilerUtils.getEndLine(TestHolderClass.class));
+
+        Constructor<?> constructor = TestHolderClass.class.getDeclaredConstructor(int.class);
+        Assertions.assertEquals(62, CompilerUtils.getStartLine(constructor));
+        Assertions.assertEquals(63, CompilerUtils.getEndLine(constructor));
+
+        Method method = TestHolderClass.class.getDeclaredMethod("holderMethod");
+        Assertions.assertEquals(65, CompilerUtils.getStartLine(method));
+        Assertions.assertEquals(67, CompilerUtils.getEndLine(method));
+
+        Assertions.assertEquals(0xCAFEBABEL, CompilerUtils.getSourceHash(TestHolderClass.class));
+    }
+
+    @Test
+    public void testHolderFieldOverloadsExtraction() throws Exception {
+        // overloads are told apart by their parameter types, the enclosing instance of the inner class included
+        Class<?> clazz = TestHolderOverloadsClass.class;
+        Assertions.assertEquals(80, CompilerUtils.getStartLine(clazz.getDeclaredConstructor(CompilerUtilsTest.class, int.class)));
+        Assertions.assertEquals(84, CompilerUtils.getEndLine(clazz.getDeclaredConstructor(CompilerUtilsTest.class, String.class)));
+        Assertions.assertEquals(86, CompilerUtils.getStartLine(clazz.getDeclaredMethod("overloaded", int[].class)));
+        Assertions.assertEquals(90, CompilerUtils.getEndLine(clazz.getDeclaredMethod("overloaded", Map.Entry.class)));
+        Assertions.assertEquals(CompilerUtils.LINE_UNKNOWN, CompilerUtils.getStartLine(clazz.getDeclaredMethod("overloaded", long.class)));
+    }
+
     @Test
     public void testMethodLinesExtraction() throws Exception {
         Method method = TestClass.class.getDeclaredMethod("testMethod");
@@ -45,4 +204,176 @@ public class CompilerUtilsTest {
         Assertions.assertEquals(TEST_CLASS_SOURCE_LINES_START, startLine);
         Assertions.assertEquals(TEST_CLASS_SOURCE_LINES_END, endLine);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testMethodLinesTableExtraction() throws Exception {
+        Method method = TestCompactClass.class.getDeclaredMethod("tableMethod");
+        Assertions.assertEquals(30, CompilerUtils.getStartLine(method));
+        Assertions.assertEquals(32, CompilerUtils.getEndLine(method));
+
+        Method overload = TestCompactClass.class.getDeclaredMethod("tableMethod", int.class);
+        Assertions.assertEquals(34, CompilerUtils.getStartLine(overload));
+        Assertions.assertEquals(36, CompilerUtils.getEndLine(overload));
+
+        Method otherMethod = TestCompactClass.class.getDeclaredMethod("otherTableMethod");
+        Assertions.assertEquals(38, CompilerUtils.getStartLine(otherMethod));
+        Assertions.assertEquals(38, CompilerUtils.getEndLine(otherMethod));
+
+        Method annotatedMethod = TestCompactClass.class.getDeclaredMethod("annotatedMethod");
+        Assertions.assertEquals(TEST_METHOD_SOURCE_LINES_START, CompilerUtils.getStartLine(annotatedMethod));
+        Assertions.assertEquals(TEST_METHOD_SOURCE_LINES_END, CompilerUtils.getEndLine(annotatedMethod));
+
+        Method missingMethod = TestCompactClass.class.getDeclaredMethod("missingMethod");
+        Assertions.assertEquals(CompilerUtils.LINE_UNKNOWN, CompilerUtils.getStartLine(missingMethod));
+        Assertions.assertEquals(CompilerUtils.LINE_UNKNOWN, CompilerUtils.getEndLine(missingMethod));
+    }
+
+    @Test
+    public void testAnonymousClassSourcePathExtraction() {
+        Class<?> anonymousClass = TestClass.anonymousClassInstance().getClass();
+        Assertions.assertTrue(anonymousClass.isAnonymousClass());
+        Assertions.assertEquals(TEST_CLASS_SOURCE_PATH, CompilerUtils.getSourcePath(anonymousClass));
+    }
+
+    @Test
+    public void testNestedClassSourcePathExtraction() {
+        // only the top-level class has the path when compiled with topLevelSourcePath
+        Assertions.assertEquals(TEST_CLASS_SOURCE_PATH, CompilerUtils.getSourcePath(TestClass.NestedClass.class));
+        Assertions.assertEquals(TEST_CLASS_SOURCE_PATH, CompilerUtils.getSourcePath(TestClass.NestedClass.InnerClass.class));
+        Assertions.assertNull(CompilerUtils.getSourcePath(TestHashedClass.NestedClass.class));
+    }
+
+    @Test
+    public void testRepeatedLookupsReturnSameData() throws Exception {
+        Method method = TestClass.class.getDeclaredMethod("testMethod");
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals(TEST_CLASS_SOURCE_PATH, CompilerUtils.getSourcePath(TestClass.class));
+            Assertions.assertEquals(TEST_CLASS_SOURCE_LINES_START, CompilerUtils.getStartLine(TestClass.class));
+            Assertions.assertEquals(TEST_CLASS_SOURCE_LINES_END, CompilerUtils.getEndLine(TestClass.class));
+            Assertions.assertEquals(TEST_METHOD_SOURCE_LINES_START, CompilerUtils.getStartLine(method));
+            Assertions.assertEquals(TEST_METHOD_SOURCE_LINES_END, CompilerUtils.getEndLine(method));
+            Assertions.assertEquals(TEST_METHOD_SOURCE_LINES_START, CompilerUtils.getStartLine(TestClass.class.getDeclaredMethod("testMethod")));
+        }
+    }
+
+    @Test
+    public void testOverloadedMethodLines() throws Exception {
+        // the class has no lines of its own, its methods are annotated individually
+        for (int i = 0; i < 2; i++) {
+            Assertions.assertEquals(40, CompilerUtils.getStartLine(TestOverloadedClass.class.getDeclaredMethod("overloaded", int.class)));
+            Assertions.assertEquals(44, CompilerUtils.getEndLine(TestOverloadedClass.class.getDeclaredMethod("overloaded", String.class)));
+            Assertions.assertEquals(CompilerUtils.LINE_UNKNOWN, CompilerUtils.getStartLine(TestOverloadedClass.class.getDeclaredMethod("overloaded", long.class)));
+        }
+    }
+
+    @Test
+    public void testLookupsForClassesFromUnrelatedClassLoader() throws Exception {
+        ClassLoader unrelatedClassLoader = new UnrelatedClassLoader(CompilerUtilsTest.class.getClassLoader());
+        Class<?> clazz = Class.forName(TestClass.class.getName(), false, unrelatedClassLoader);
+        Assertions.assertNotSame(TestClass.class, clazz);
+        Assertions.assertNull(ClassSourceInfo.forClass(clazz), "data must not be cached for classes from unrelated class loaders");
+
+        Method method = clazz.getDeclaredMethod("testMethod");
+        Assertions.assertEquals(TEST_CLASS_SOURCE_PATH, CompilerUtils.getSourcePath(clazz));
+        Assertions.assertEquals(TEST_CLASS_SOURCE_LINES_START, CompilerUtils.getStartLine(clazz));
+        Assertions.assertEquals(TEST_METHOD_SOURCE_LINES_START, CompilerUtils.getStartLine(method));
+        Assertions.assertEquals(TEST_METHOD_SOURCE_LINES_END, CompilerUtils.getEndLine(method));
+    }
+
+    @Test
+    public void testLookupsInClassWithUnresolvableMember() throws Exception {
+        ClassLoader classLoader = new MissingTypeClassLoader(CompilerUtilsTest.class.getClassLoader());
+        Class<?> clazz = Class.forName(TestUnresolvableClass.class.getName(), false, classLoader);
+        Assertions.assertNotNull(ClassSourceInfo.forClass(clazz), "the data of the class must be cacheable");
+        Assertions.assertThrows(NoClassDefFoundError.class, clazz::getDeclaredConstructors);
+
+        Method method = clazz.getDeclaredMethod("resolvable");
+        for (int i = 0; i < 2; i++) {
+            Assertions.assertEquals(54, CompilerUtils.getStartLine(method));
+            Assertions.assertEquals(55, CompilerUtils.getEndLine(method));
+        }
+    }
+
+    /**
+     * Defines test classes itself and takes everything else from the bootstrap class loader,
+     * except the annotations, which are shared with the loader of this library.
+     * It is not a descendant of the library's class loader.
+     */
+    private static final class UnrelatedClassLoader extends ClassLoader {
+        private final ClassLoader libraryClassLoader;
+
+        UnrelatedClassLoader(ClassLoader libraryClassLoader) {
+            super(null);
+            this.libraryClassLoader = libraryClassLoader;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("datadog.compiler.annotations.")) {
+                return libraryClassLoader.loadClass(name);
+            }
+            if (name.startsWith(CompilerUtilsTest.class.getName())) {
+                synchronized (getClassLoadingLock(name)) {
+                    Class<?> clazz = findLoadedClass(name);
+                    if (clazz == null) {
+                        clazz = defineTestClass(name);
+                    }
+                    return clazz;
+                }
+            }
+            return super.loadClass(name, resolve);
+        }
+
+        private Class<?> defineTestClass(String name) throws ClassNotFoundException {
+            byte[] classBytes = readTestClass(libraryClassLoader, name);
+            return defineClass(name, classBytes, 0, classBytes.length);
+        }
+    }
+
+    /**
+     * Defines {@link TestUnresolvableClass} itself, cannot load {@link MissingType},
+     * and delegates everything else to the library's class loader, of which it is a descendant.
+     */
+    private static final class MissingTypeClassLoader extends ClassLoader {
+
+        MissingTypeClassLoader(ClassLoader libraryClassLoader) {
+            super(libraryClassLoader);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.equals(MissingType.class.getName())) {
+                throw new ClassNotFoundException(name);
+            }
+            if (name.equals(TestUnresolvableClass.class.getName())) {
+                synchronized (getClassLoadingLock(name)) {
+                    Class<?> clazz = findLoadedClass(name);
+                    if (clazz == null) {
+                        byte[] classBytes = readTestClass(getParent(), name);
+                        clazz = defineClass(name, classBytes, 0, classBytes.length);
+                    }
+                    return clazz;
+                }
+            }
+            return super.loadClass(name, resolve);
+        }
+    }
+
+    private static byte[] readTestClass(ClassLoader classLoader, String name) throws ClassNotFoundException {
+        String resourceName = name.replace('.', '/') + ".class";
+        try (InputStream classStream = classLoader.getResourceAsStream(resourceName)) {
+            if (classStream == null) {
+                throw new ClassNotFoundException(name);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = classStream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+    }
+}
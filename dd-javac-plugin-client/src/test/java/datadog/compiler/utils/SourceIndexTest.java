@@ -0,0 +1,211 @@
+package datadog.compiler.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SourceIndexTest {
+
+    @Test
+    public void testRoundTrip() {
+        SourceIndexWriter writer = new SourceIndexWriter()
+                .addClass("com.example.Foo", "/repo/src/com/example/Foo.java", 3, 30)
+                .addMethod("com.example.Foo", "bar", "(I)V", "/repo/src/com/example/Foo.java", 5, 7)
+                .addMethod("com.example.Foo", "bar", "(Ljava/lang/String;)V", "/repo/src/com/example/Foo.java", 9, 11)
+                .addClass("com.example.Foo$Inner", "/repo/src/com/example/Foo.java", 13, 29)
+                .addClass("com.example.Baz", "/repo/src/com/example/Baz.java", CompilerUtils.LINE_UNKNOWN, CompilerUtils.LINE_UNKNOWN);
+        SourceIndex index = SourceIndex.read(writer.toByteArray());
+
+        Assertions.assertEquals(5, index.size());
+
+        int foo = index.findClass("com.example.Foo");
+        Assertions.assertEquals("/repo/src/com/example/Foo.java", index.getSourcePath(foo));
+        Assertions.assertEquals(3, index.getStartLine(foo));
+        Assertions.assertEquals(30, index.getEndLine(foo));
+
+        int barInt = index.findMethod("com.example.Foo", "bar", "(I)V");
+        Assertions.assertEquals(5, index.getStartLine(barInt));
+        Assertions.assertEquals(7, index.getEndLine(barInt));
+
+        int barString = index.findMethod("com.example.Foo", "bar", "(Ljava/lang/String;)V");
+        Assertions.assertEquals(9, index.getStartLine(barString));
+        Assertions.assertEquals(11, index.getEndLine(barString));
+
+        int baz = index.findClass("com.example.Baz");
+        Assertions.assertEquals("/repo/src/com/example/Baz.java", index.getSourcePath(baz));
+        Assertions.assertEquals(CompilerUtils.LINE_UNKNOWN, index.getStartLine(baz));
+
+        Assertions.assertEquals(SourceIndex.NOT_FOUND, index.findClass("com.example.Missing"));
+        Assertions.assertEquals(SourceIndex.NOT_FOUND, index.findMethod("com.example.Foo", "bar", "()V"));
+        Assertions.assertEquals(SourceIndex.NOT_FOUND, index.findMethod("com.example.Foo$Inner", "bar", "(I)V"));
+    }
+
+    @Test
+    public void testEmptyIndex() {
+        SourceIndex index = SourceIndex.read(new SourceIndexWriter().toByteArray());
+        Assertions.assertEquals(0, index.size());
+        Assertions.assertEquals(SourceIndex.NOT_FOUND, index.findClass("com.example.Foo"));
+    }
+
+    @Test
+    public void testManyEntries() {
+        SourceIndexWriter writer = new SourceIndexWriter();
+        for (int i = 0; i < 10_000; i++) {
+            writer.addMethod("com.example.Class" + (i % 100), "method" + i, "()V", "/repo/src/com/example/Class" + (i % 100) + ".java", i, i + 1);
+        }
+        SourceIndex index = SourceIndex.read(writer.toByteArray());
+        for (int i = 0; i < 10_000; i++) {
+            int entry = index.findMethod("com.example.Class" + (i % 100), "method" + i, "()V");
+            Assertions.assertEquals(i, index.getStartLine(entry));
+            Assertions.assertEquals("/repo/src/com/example/Class" + (i % 100) + ".java", index.getSourcePath(entry));
+        }
+    }
+
+    @Test
+    public void testMergeReplacesRecompiledClasses() {
+        SourceIndex previous = SourceIndex.read(new SourceIndexWriter()
+                .addClass("com.example.Foo", "/repo/src/com/example/Foo.java", 1, 10)
+                .addMethod("com.example.Foo", "removed", "()V", "/repo/src/com/example/Foo.java", 2, 3)
+                .addClass("com.example.Bar", "/repo/src/com/example/Bar.java", 1, 20)
+                .addMethod("com.example.Bar", "kept", "()V", "/repo/src/com/example/Bar.java", 4, 5)
+                .toByteArray());
+
+        SourceIndex merged = SourceIndex.read(new SourceIndexWriter()
+                .addClass("com.example.Foo", "/repo/src/com/example/Foo.java", 1, 12)
+                .merge(previous)
+                .toByteArray());
+
+        Assertions.assertEquals(3, merged.size());
+        Assertions.assertEquals(12, merged.getEndLine(merged.findClass("com.example.Foo")));
+        Assertions.assertEquals(SourceIndex.NOT_FOUND, merged.findMethod("com.example.Foo", "removed", "()V"));
+        Assertions.assertEquals(20, merged.getEndLine(merged.findClass("com.example.Bar")));
+        Assertions.assertEquals(4, merged.getStartLine(merged.findMethod("com.example.Bar", "kept", "()V")));
+    }
+
+    @Test
+    public void testMergeKeepsFirstMergedClass() {
+        SourceIndex first = SourceIndex.read(new SourceIndexWriter()
+                .addClass("com.example.Foo", "/first/com/example/Foo.java", 1, 10)
+                .toByteArray());
+        SourceIndex second = SourceIndex.read(new SourceIndexWriter()
+                .addClass("com.example.Foo", "/second/com/example/Foo.java", 1, 20)
+                .addMethod("com.example.Foo", "other", "()V", "/second/com/example/Foo.java", 2, 3)
+                .addClass("com.example.Bar", "/second/com/example/Bar.java", 1, 5)
+                .toByteArray());
+
+        SourceIndex merged = SourceIndex.read(new SourceIndexWriter()
+                .merge(first)
+                .merge(second)
+                .toByteArray());
+
+        Assertions.assertEquals(2, merged.size());
+        Assertions.assertEquals("/first/com/example/Foo.java", merged.getSourcePath(merged.findClass("com.example.Foo")));
+        Assertions.assertEquals(SourceIndex.NOT_FOUND, merged.findMethod("com.example.Foo", "other", "()V"));
+        Assertions.assertEquals("/second/com/example/Bar.java", merged.getSourcePath(merged.findClass("com.example.Bar")));
+    }
+
+    @Test
+    public void testInvalidIndex() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> SourceIndex.read(new byte[]{1, 2, 3}));
+
+        byte[] bytes = new SourceIndexWriter()
+                .addClass("com.example.Foo", "/repo/src/com/example/Foo.java", 1, 10)
+                .toByteArray();
+        byte[] truncated = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> SourceIndex.read(truncated));
+    }
+
+    @Test
+    public void testNonAsciiKeys() {
+        String className = "com.example.\u00c9t\u00e9";
+        String methodName = "\u65b9\u6cd5\ud83d\ude00";
+        SourceIndex index = SourceIndex.read(new SourceIndexWriter()
+                .addClass(className, "/repo/src/com/example/\u00c9t\u00e9.java", 1, 10)
+                .addMethod(className, methodName, "()V", "/repo/src/com/example/\u00c9t\u00e9.java", 2, 3)
+                .toByteArray());
+
+        int classEntry = index.findClass(className);
+        Assertions.assertEquals("/repo/src/com/example/\u00c9t\u00e9.java", index.getSourcePath(classEntry));
+        Assertions.assertEquals(2, index.getStartLine(index.findMethod(className, methodName, "()V")));
+        Assertions.assertEquals(SourceIndex.NOT_FOUND, index.findClass("com.example.\u00c9t\u00e8"));
+    }
+
+    @Test
+    public void testOpenDirectory() throws IOException {
+        Path directory = Files.createTempDirectory("source-index");
+        Path indexFile = directory.resolve(SourceIndex.RESOURCE_NAME);
+        try {
+            Assertions.assertNull(SourceIndex.open(directory));
+
+            Files.createDirectories(indexFile.getParent());
+            Files.write(indexFile, testIndexBytes());
+            assertTestIndex(SourceIndex.open(directory));
+            assertTestIndex(SourceIndex.map(indexFile));
+        } finally {
+            Files.deleteIfExists(indexFile);
+            Files.deleteIfExists(indexFile.getParent());
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void testOpenJar() throws IOException {
+        for (boolean compressed : new boolean[]{false, true}) {
+            Path jar = Files.createTempFile("source-index", ".jar");
+            try {
+                writeJar(jar, compressed, true);
+                assertTestIndex(SourceIndex.open(jar));
+
+                writeJar(jar, compressed, false);
+                Assertions.assertNull(SourceIndex.open(jar));
+            } finally {
+                Files.deleteIfExists(jar);
+            }
+        }
+    }
+
+    private static void writeJar(Path jar, boolean compressed, boolean withIndex) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("com/example/Foo.class"));
+            out.write(new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE});
+            out.closeEntry();
+
+            if (withIndex) {
+                byte[] indexBytes = testIndexBytes();
+                ZipEntry indexEntry = new ZipEntry(SourceIndex.RESOURCE_NAME);
+                if (!compressed) {
+                    CRC32 crc = new CRC32();
+                    crc.update(indexBytes);
+                    indexEntry.setMethod(ZipEntry.STORED);
+                    indexEntry.setSize(indexBytes.length);
+                    indexEntry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(indexEntry);
+                out.write(indexBytes);
+                out.closeEntry();
+            }
+            out.setComment("jar comment");
+        }
+    }
+
+    private static byte[] testIndexBytes() {
+        return new SourceIndexWriter()
+                .addClass("com.example.Foo", "/repo/src/com/example/Foo.java", 3, 30)
+                .addMethod("com.example.Foo", "bar", "(I)V", "/repo/src/com/example/Foo.java", 5, 7)
+                .toByteArray();
+    }
+
+    private static void assertTestIndex(SourceIndex index) {
+        Assertions.assertNotNull(index);
+        int foo = index.findClass("com.example.Foo");
+        Assertions.assertEquals("/repo/src/com/example/Foo.java", index.getSourcePath(foo));
+        Assertions.assertEquals(30, index.getEndLine(foo));
+        Assertions.assertEquals(5, index.getStartLine(index.findMethod("com.example.Foo", "bar", "(I)V")));
+    }
+}
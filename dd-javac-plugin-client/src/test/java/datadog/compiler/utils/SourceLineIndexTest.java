@@ -0,0 +1,123 @@
+package datadog.compiler.utils;
+
+import datadog.compiler.annotations.SourceLines;
+import datadog.compiler.annotations.SourcePath;
+import java.lang.reflect.AnnotatedElement;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SourceLineIndexTest {
+
+    private static final String OUTER_SOURCE_PATH = "/repo/src/package/Outer.java";
+    private static final String OTHER_SOURCE_PATH = "/repo/src/package/Other.java";
+
+    @SourcePath(OUTER_SOURCE_PATH)
+    @SourceLines(start = 1, end = 30)
+    private static final class Outer {
+        @SourceLines(start = 3, end = 5)
+        public static void a() {
+            // no op
+        }
+
+        @SourcePath(OUTER_SOURCE_PATH)
+        @SourceLines(start = 7, end = 20)
+        private static final class Inner {
+            @SourceLines(start = 13, end = 15)
+            public Inner() {
+                // no op
+            }
+
+            @SourceLines(start = 9, end = 11)
+            public static void b() {
+                // no op
+            }
+        }
+
+        @SourceLines(start = 22, end = 28)
+        public static Runnable c() {
+            return new Runnable() {
+                @Override
+                @SourceLines(start = 23, end = 25)
+                public void run() {
+                    // no op
+                }
+            };
+        }
+    }
+
+    @SourcePath(OTHER_SOURCE_PATH)
+    @SourceLines(start = 1, end = 5)
+    private static final class Other {
+        @SourceLines(start = 3, end = 3)
+        public static void d() {
+            // no op
+        }
+    }
+
+    @Test
+    public void testFind() throws Exception {
+        Class<?> anonymousClass = Outer.c().getClass();
+        SourceLineIndex index = SourceLineIndex.builder()
+                .addClass(Outer.Inner.class)
+                .addClass(anonymousClass)
+                .addClass(Outer.class)
+                .addClass(Other.class)
+                .build();
+
+        Assertions.assertEquals(Outer.class, index.find(OUTER_SOURCE_PATH, 1));
+        Assertions.assertEquals(Outer.class.getDeclaredMethod("a"), index.find(OUTER_SOURCE_PATH, 3));
+        Assertions.assertEquals(Outer.class.getDeclaredMethod("a"), index.find(OUTER_SOURCE_PATH, 5));
+        Assertions.assertEquals(Outer.class, index.find(OUTER_SOURCE_PATH, 6));
+        Assertions.assertEquals(Outer.Inner.class, index.find(OUTER_SOURCE_PATH, 8));
+        Assertions.assertEquals(Outer.Inner.class.getDeclaredMethod("b"), index.find(OUTER_SOURCE_PATH, 10));
+        Assertions.assertEquals(Outer.Inner.class, index.find(OUTER_SOURCE_PATH, 12));
+        Assertions.assertEquals(Outer.Inner.class.getDeclaredConstructor(), index.find(OUTER_SOURCE_PATH, 14));
+        Assertions.assertEquals(Outer.Inner.class, index.find(OUTER_SOURCE_PATH, 20));
+        Assertions.assertEquals(Outer.class.getDeclaredMethod("c"), index.find(OUTER_SOURCE_PATH, 22));
+        Assertions.assertEquals(anonymousClass.getDeclaredMethod("run"), index.find(OUTER_SOURCE_PATH, 24));
+        Assertions.assertEquals(Outer.class.getDeclaredMethod("c"), index.find(OUTER_SOURCE_PATH, 27));
+        Assertions.assertEquals(Outer.class, index.find(OUTER_SOURCE_PATH, 30));
+        Assertions.assertNull(index.find(OUTER_SOURCE_PATH, 31));
+        Assertions.assertNull(index.find(OUTER_SOURCE_PATH, 0));
+
+        Assertions.assertEquals(Other.class.getDeclaredMethod("d"), index.find(OTHER_SOURCE_PATH, 3));
+        Assertions.assertEquals(Other.class, index.find(OTHER_SOURCE_PATH, 4));
+        Assertions.assertNull(index.find("/repo/src/package/Missing.java", 3));
+    }
+
+    @Test
+    public void testFindClass() {
+        Class<?> anonymousClass = Outer.c().getClass();
+        SourceLineIndex index = SourceLineIndex.builder()
+                .addClass(Outer.class)
+                .addClass(Outer.Inner.class)
+                .addClass(anonymousClass)
+                .build();
+
+        Assertions.assertEquals(Outer.class, index.findClass(OUTER_SOURCE_PATH, 4));
+        Assertions.assertEquals(Outer.Inner.class, index.findClass(OUTER_SOURCE_PATH, 10));
+        // the anonymous class has no lines of its own, so the enclosing named class is returned
+        Assertions.assertEquals(Outer.class, index.findClass(OUTER_SOURCE_PATH, 24));
+        Assertions.assertNull(index.findClass(OUTER_SOURCE_PATH, 40));
+    }
+
+    @Test
+    public void testSameLineRanges() throws Exception {
+        SourceLineIndex index = SourceLineIndex.builder()
+                .addClass(OneLiner.class)
+                .build();
+
+        AnnotatedElement element = index.find(OUTER_SOURCE_PATH, 50);
+        Assertions.assertEquals(OneLiner.class.getDeclaredMethod("e"), element);
+        Assertions.assertEquals(OneLiner.class, index.findClass(OUTER_SOURCE_PATH, 50));
+    }
+
+    @SourcePath(OUTER_SOURCE_PATH)
+    @SourceLines(start = 50, end = 50)
+    private static final class OneLiner {
+        @SourceLines(start = 50, end = 50)
+        public static void e() {
+            // no op
+        }
+    }
+}
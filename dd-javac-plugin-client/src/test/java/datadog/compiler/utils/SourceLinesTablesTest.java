@@ -0,0 +1,97 @@
+package datadog.compiler.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SourceLinesTablesTest {
+
+    @Test
+    public void testRoundTrip() {
+        String[] table = new SourceLinesTables.Builder()
+                .add("method", 0, 3, 5)
+                .add("method", 2, 7, 12)
+                .add("methodWithLongerName", 0, 14, 14)
+                .add("lambda$method", -1, 100000, 100002)
+                .build();
+
+        Assertions.assertEquals(1, table.length);
+        assertLines(table, "method", 0, 3, 5);
+        assertLines(table, "method", 2, 7, 12);
+        assertLines(table, "methodWithLongerName", 0, 14, 14);
+        assertLines(table, "lambda$method", -1, 100000, 100002);
+
+        Assertions.assertEquals(SourceLinesTables.NOT_FOUND, SourceLinesTables.find(table, "method", 1));
+        Assertions.assertEquals(SourceLinesTables.NOT_FOUND, SourceLinesTables.find(table, "meth", 0));
+        Assertions.assertEquals(SourceLinesTables.NOT_FOUND, SourceLinesTables.find(table, "methodWithLongerNameAndSuffix", 0));
+    }
+
+    @Test
+    public void testFindLambda() {
+        String[] table = new SourceLinesTables.Builder()
+                .add("run", 0, 10, 30)
+                .add(SourceLinesTables.lambdaEntryName("run"), SourceLinesTables.LAMBDA_PARAMETER_COUNT, 12, 20)
+                .add(SourceLinesTables.lambdaEntryName("run"), SourceLinesTables.LAMBDA_PARAMETER_COUNT, 14, 16)
+                .add(SourceLinesTables.lambdaEntryName("runAll"), SourceLinesTables.LAMBDA_PARAMETER_COUNT, 40, 42)
+                .build();
+
+        // the innermost lambda that has the line
+        Assertions.assertEquals(SourceLinesTables.pack(14, 16), SourceLinesTables.findLambda(table, "lambda$run$1", 15));
+        Assertions.assertEquals(SourceLinesTables.pack(12, 20), SourceLinesTables.findLambda(table, "lambda$run$0", 18));
+        Assertions.assertEquals(SourceLinesTables.pack(40, 42), SourceLinesTables.findLambda(table, "lambda$runAll$0", 41));
+
+        Assertions.assertEquals(SourceLinesTables.NOT_FOUND, SourceLinesTables.findLambda(table, "lambda$run$0", 25));
+        Assertions.assertEquals(SourceLinesTables.NOT_FOUND, SourceLinesTables.findLambda(table, "lambda$ru$0", 15));
+        Assertions.assertEquals(SourceLinesTables.NOT_FOUND, SourceLinesTables.findLambda(table, "run", 15));
+        Assertions.assertEquals(SourceLinesTables.NOT_FOUND, SourceLinesTables.find(table, "run", 1));
+    }
+
+    @Test
+    public void testFindOverload() {
+        String[] table = new SourceLinesTables.Builder()
+                .add("run", 0, 3, 5)
+                .add(SourceLinesTables.overloadEntryName("run", new String[]{"int"}), 1, 7, 9)
+                .add(SourceLinesTables.overloadEntryName("run", new String[]{"String[]"}), 1, 11, 13)
+                .add(SourceLinesTables.overloadEntryName(SourceLinesTables.CONSTRUCTOR_ENTRY_NAME, new String[]{"Outer", "long"}), 2, 15, 17)
+                .build();
+
+        Assertions.assertEquals("run(int)", SourceLinesTables.overloadEntryName("run", new String[]{"int"}));
+        Assertions.assertEquals("<init>(Outer,long)", SourceLinesTables.overloadEntryName(SourceLinesTables.CONSTRUCTOR_ENTRY_NAME, new String[]{"Outer", "long"}));
+        Assertions.assertTrue(SourceLinesTables.hasOverloads(table, "run"));
+        Assertions.assertTrue(SourceLinesTables.hasOverloads(table, SourceLinesTables.CONSTRUCTOR_ENTRY_NAME));
+        Assertions.assertFalse(SourceLinesTables.hasOverloads(table, "ru"));
+        Assertions.assertFalse(SourceLinesTables.hasOverloads(table, "runAll"));
+
+        assertLines(table, "run", 0, 3, 5);
+        assertLines(table, "run(int)", 1, 7, 9);
+        assertLines(table, "run(String[])", 1, 11, 13);
+        assertLines(table, "<init>(Outer,long)", 2, 15, 17);
+
+        // overloads are not found by name and parameter count
+        Assertions.assertEquals(SourceLinesTables.NOT_FOUND, SourceLinesTables.find(table, "run", 1));
+        Assertions.assertEquals(SourceLinesTables.NOT_FOUND, SourceLinesTables.find(table, SourceLinesTables.CONSTRUCTOR_ENTRY_NAME, 2));
+        Assertions.assertEquals(SourceLinesTables.NOT_FOUND, SourceLinesTables.find(table, "run(long)", 1));
+    }
+
+    @Test
+    public void testLargeTableIsSplitIntoChunks() {
+        SourceLinesTables.Builder builder = new SourceLinesTables.Builder();
+        for (int i = 0; i < 5000; i++) {
+            builder.add("generatedMethod" + i, i % 4, i * 3, i * 3 + 2);
+        }
+        String[] table = builder.build();
+
+        Assertions.assertTrue(table.length > 1);
+        for (String chunk : table) {
+            Assertions.assertTrue(chunk.length() <= SourceLinesTables.MAX_CHUNK_LENGTH);
+        }
+        for (int i = 0; i < 5000; i++) {
+            assertLines(table, "generatedMethod" + i, i % 4, i * 3, i * 3 + 2);
+        }
+    }
+
+    private static void assertLines(String[] table, String name, int parameterCount, int expectedStart, int expectedEnd) {
+        long lines = SourceLinesTables.find(table, name, parameterCount);
+        Assertions.assertEquals(expectedStart, SourceLinesTables.startLine(lines));
+        Assertions.assertEquals(expectedEnd, SourceLinesTables.endLine(lines));
+    }
+}
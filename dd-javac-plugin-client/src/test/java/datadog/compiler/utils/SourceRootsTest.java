@@ -0,0 +1,67 @@
+package datadog.compiler.utils;
+
+import datadog.compiler.annotations.SourcePath;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SourceRootsTest {
+
+    @Test
+    public void testRelativePaths() {
+        Assertions.assertTrue(SourceRoots.isRelative("com/example/Foo.java"));
+        Assertions.assertFalse(SourceRoots.isRelative("/repo/src/com/example/Foo.java"));
+        Assertions.assertFalse(SourceRoots.isRelative(Paths.get("Foo.java").toAbsolutePath().toString()));
+
+        Assertions.assertEquals(
+                Paths.get("/repo/src", "com", "example", "Foo.java").toString(),
+                SourceRoots.resolve(Paths.get("/repo/src").toString(), "com/example/Foo.java"));
+    }
+
+    @Test
+    public void testReadFromDirectory() throws IOException {
+        Path directory = Files.createTempDirectory("source-root");
+        Path rootFile = directory.resolve(SourceRoots.RESOURCE_NAME);
+        try {
+            Assertions.assertEquals("", SourceRoots.read(directory.toUri().toURL()));
+
+            Files.createDirectories(rootFile.getParent());
+            Files.write(rootFile, "/repo/src".getBytes(StandardCharsets.UTF_8));
+            Assertions.assertEquals("/repo/src", SourceRoots.read(directory.toUri().toURL()));
+        } finally {
+            Files.deleteIfExists(rootFile);
+            Files.deleteIfExists(rootFile.getParent());
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void testReadFromJar() throws IOException {
+        Path jar = Files.createTempFile("source-root", ".jar");
+        try {
+            try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+                out.putNextEntry(new ZipEntry(SourceRoots.RESOURCE_NAME));
+                out.write("/repo/src".getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+            Assertions.assertEquals("/repo/src", SourceRoots.read(jar.toUri().toURL()));
+        } finally {
+            Files.deleteIfExists(jar);
+        }
+    }
+
+    @Test
+    public void testAbsoluteSourcePathIsReturnedAsIs() {
+        Assertions.assertEquals("/repo/src/package/Absolute.java", CompilerUtils.getAbsoluteSourcePath(Absolute.class));
+    }
+
+    @SourcePath("/repo/src/package/Absolute.java")
+    private static final class Absolute {
+    }
+}
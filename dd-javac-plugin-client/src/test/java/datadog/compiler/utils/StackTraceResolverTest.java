@@ -0,0 +1,95 @@
+package datadog.compiler.utils;
+
+import datadog.compiler.annotations.SourceLines;
+import datadog.compiler.annotations.SourceLinesTable;
+import datadog.compiler.annotations.SourcePath;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class StackTraceResolverTest {
+
+    private static final String SOURCE_PATH = "/repo/src/Frames.java";
+
+    @SourcePath(SOURCE_PATH)
+    @SourceLines(start = 1, end = 40)
+    @SourceLinesTable("tableMethod:0:30:35")
+    private static final class Frames {
+        @SourceLines(start = 3, end = 6)
+        Frames() {
+        }
+
+        @SourceLines(start = 8, end = 12)
+        public void overloaded() {
+            // no op
+        }
+
+        @SourceLines(start = 14, end = 20)
+        public void overloaded(int arg) {
+            // no op
+        }
+
+        @SourceLines(start = 22, end = 25)
+        public void single() {
+            // no op
+        }
+
+        public void tableMethod() {
+            // no op
+        }
+    }
+
+    private static final class NotAnnotated {
+        public void method() {
+            // no op
+        }
+    }
+
+    @Test
+    public void testResolveStackTrace() {
+        String className = Frames.class.getName();
+        StackTraceElement[] stackTrace = {
+                new StackTraceElement(className, "overloaded", "Frames.java", 16),
+                new StackTraceElement(className, "overloaded", "Frames.java", 9),
+                new StackTraceElement(className, "<init>", "Frames.java", 4),
+                new StackTraceElement("java.lang.Thread", "run", "Thread.java", 100),
+                new StackTraceElement(className, "single", "Frames.java", -1),
+                new StackTraceElement(className, "overloaded", "Frames.java", -1),
+                new StackTraceElement(className, "tableMethod", "Frames.java", 31),
+                new StackTraceElement(className, "lambda$single$0", "Frames.java", 23),
+                new StackTraceElement(NotAnnotated.class.getName(), "method", "NotAnnotated.java", 50),
+                new StackTraceElement("com.example.Missing", "method", "Missing.java", 1),
+        };
+
+        ResolvedStackTrace resolved = StackTraceResolver.resolve(stackTrace, getClass().getClassLoader());
+        Assertions.assertEquals(stackTrace.length, resolved.size());
+        Assertions.assertSame(stackTrace[0], resolved.getFrame(0));
+
+        assertFrame(resolved, 0, SOURCE_PATH, 14, 20);
+        assertFrame(resolved, 1, SOURCE_PATH, 8, 12);
+        assertFrame(resolved, 2, SOURCE_PATH, 3, 6);
+        assertFrame(resolved, 3, null, CompilerUtils.LINE_UNKNOWN, CompilerUtils.LINE_UNKNOWN);
+        // no line in the frame, but a single method with the name
+        assertFrame(resolved, 4, SOURCE_PATH, 22, 25);
+        // no line in the frame and overloads to choose from
+        assertFrame(resolved, 5, SOURCE_PATH, CompilerUtils.LINE_UNKNOWN, CompilerUtils.LINE_UNKNOWN);
+        assertFrame(resolved, 6, SOURCE_PATH, 30, 35);
+        assertFrame(resolved, 7, SOURCE_PATH, CompilerUtils.LINE_UNKNOWN, CompilerUtils.LINE_UNKNOWN);
+        assertFrame(resolved, 8, null, CompilerUtils.LINE_UNKNOWN, CompilerUtils.LINE_UNKNOWN);
+        assertFrame(resolved, 9, null, CompilerUtils.LINE_UNKNOWN, CompilerUtils.LINE_UNKNOWN);
+    }
+
+    @Test
+    public void testResolveCapturedStackTrace() {
+        ResolvedStackTrace resolved = StackTraceResolver.resolve(new Throwable().getStackTrace(), getClass().getClassLoader());
+        Assertions.assertEquals(StackTraceResolverTest.class.getName(), resolved.getFrame(0).getClassName());
+        // this class was not compiled with the plugin
+        Assertions.assertNull(resolved.getSourcePath(0));
+        Assertions.assertEquals(CompilerUtils.LINE_UNKNOWN, resolved.getMethodStartLine(0));
+    }
+
+    private static void assertFrame(ResolvedStackTrace resolved, int index, String sourcePath, int startLine, int endLine) {
+        Assertions.assertEquals(sourcePath, resolved.getSourcePath(index), "source path of frame " + index);
+        Assertions.assertEquals(startLine, resolved.getMethodStartLine(index), "start line of frame " + index);
+        Assertions.assertEquals(endLine, resolved.getMethodEndLine(index), "end line of frame " + index);
+    }
+}
@@ -0,0 +1,170 @@
+package datadog.compiler;
+
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.TypeTag;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.TreeMaker;
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.List;
+import com.sun.tools.javac.util.ListBuffer;
+import com.sun.tools.javac.util.Name;
+import com.sun.tools.javac.util.Names;
+import datadog.compiler.utils.SourceLinesTables;
+
+/**
+ * Builds the annotation trees injected by the plugin.
+ * <p>
+ * One instance is registered per javac {@link Context}: the {@link TreeMaker} and {@link Names} lookups
+ * and the interning of the annotation type names happen once per compilation task,
+ * rather than once per compilation unit.
+ * <p>
+ * The trees themselves are still created for every compilation unit,
+ * since javac attributes annotation trees in place and they cannot be safely shared between units.
+ */
+final class AnnotationTemplates {
+
+    private static final Context.Key<AnnotationTemplates> KEY = new Context.Key<>();
+
+    static AnnotationTemplates instance(Context context) {
+        AnnotationTemplates instance = context.get(KEY);
+        if (instance == null) {
+            instance = new AnnotationTemplates(context);
+            context.put(KEY, instance);
+        }
+        return instance;
+    }
+
+    private final TreeMaker maker;
+    private final Name[] annotationsPackage;
+    private final Name sourcePath;
+    private final Name sourceLines;
+    private final Name sourceLinesTable;
+    private final Name sourceHash;
+    private final Name holderField;
+    private final Name init;
+    private final Name start;
+    private final Name end;
+
+    private AnnotationTemplates(Context context) {
+        maker = TreeMaker.instance(context);
+
+        Names names = Names.instance(context);
+        annotationsPackage = new Name[]{
+                names.fromString("datadog"),
+                names.fromString("compiler"),
+                names.fromString("annotations")
+        };
+        sourcePath = names.fromString("SourcePath");
+        sourceLines = names.fromString("SourceLines");
+        sourceLinesTable = names.fromString("SourceLinesTable");
+        sourceHash = names.fromString("SourceHash");
+        holderField = names.fromString(SourceLinesTables.HOLDER_FIELD_NAME);
+        init = names.init;
+        start = names.fromString("start");
+        end = names.fromString("end");
+    }
+
+    JCTree.JCAnnotation sourcePathAnnotation(String path) {
+        return maker.Annotation(annotationType(sourcePath), List.<JCTree.JCExpression>of(maker.Literal(path)));
+    }
+
+    JCTree.JCExpression sourceLinesAnnotationType() {
+        return annotationType(sourceLines);
+    }
+
+    JCTree.JCAnnotation sourceLinesAnnotation(JCTree.JCExpression sourceLinesAnnotationType, int startLine, int endLine) {
+        JCTree.JCAssign startAssign = maker.Assign(maker.Ident(start), maker.Literal(startLine));
+        JCTree.JCAssign endAssign = maker.Assign(maker.Ident(end), maker.Literal(endLine));
+        return maker.Annotation(sourceLinesAnnotationType, List.<JCTree.JCExpression>of(startAssign, endAssign));
+    }
+
+    JCTree.JCAnnotation sourceLinesTableAnnotation(String[] table) {
+        ListBuffer<JCTree.JCExpression> elements = new ListBuffer<>();
+        for (String chunk : table) {
+            elements.append(maker.Literal(chunk));
+        }
+        JCTree.JCNewArray value = maker.NewArray(null, List.<JCTree.JCExpression>nil(), elements.toList());
+        return maker.Annotation(annotationType(sourceLinesTable), List.<JCTree.JCExpression>of(value));
+    }
+
+    /**
+     * @return Declaration of the private static field that holds source data in ABI-stable mode.
+     * The field is a constant: before Java 16 inner classes cannot declare any other static member,
+     * and constants are initialized from the class file rather than by the class initializer, which is not affected.
+     * Like the constructors javac generates, it is positioned at the class declaration, so that it is not taken for a member written in the source.
+     */
+    JCTree.JCVariableDecl holderField(int classPosition, List<JCTree.JCAnnotation> annotations) {
+        maker.at(classPosition);
+        JCTree.JCModifiers modifiers = maker.Modifiers(Flags.PRIVATE | Flags.STATIC | Flags.FINAL, annotations);
+        return maker.VarDef(modifiers, holderField, maker.TypeIdent(TypeTag.BOOLEAN), maker.Literal(TypeTag.BOOLEAN, 0));
+    }
+
+    boolean isHolderField(JCTree member) {
+        return member instanceof JCTree.JCVariableDecl && ((JCTree.JCVariableDecl) member).name == holderField;
+    }
+
+    JCTree.JCAnnotation sourceHashAnnotation(int hash) {
+        return maker.Annotation(annotationType(sourceHash), List.<JCTree.JCExpression>of(maker.Literal(hash)));
+    }
+
+    boolean isConstructor(JCTree.JCMethodDecl methodDeclaration) {
+        return methodDeclaration.name == init;
+    }
+
+    boolean isSourcePathAnnotation(JCTree.JCAnnotation annotation) {
+        return isAnnotationType(annotation.annotationType, sourcePath);
+    }
+
+    boolean isSourceLinesAnnotation(JCTree.JCAnnotation annotation) {
+        return isAnnotationType(annotation.annotationType, sourceLines);
+    }
+
+    boolean isSourceLinesTableAnnotation(JCTree.JCAnnotation annotation) {
+        return isAnnotationType(annotation.annotationType, sourceLinesTable);
+    }
+
+    boolean isSourceHashAnnotation(JCTree.JCAnnotation annotation) {
+        return isAnnotationType(annotation.annotationType, sourceHash);
+    }
+
+    /**
+     * Checks whether an annotation type tree refers to one of the {@code datadog.compiler.annotations} types.
+     * <p>
+     * Annotations are not attributed at parse time, so the check is purely syntactic:
+     * a simple name (declared in the same package or imported) matches by name,
+     * a qualified name has to spell out the annotations package.
+     * Names are interned by javac, so comparing them does not allocate.
+     */
+    private boolean isAnnotationType(JCTree annotationType, Name simpleName) {
+        if (annotationType instanceof JCTree.JCIdent) {
+            return ((JCTree.JCIdent) annotationType).name == simpleName;
+        }
+        if (annotationType instanceof JCTree.JCFieldAccess) {
+            JCTree.JCFieldAccess fieldAccess = (JCTree.JCFieldAccess) annotationType;
+            return fieldAccess.name == simpleName && isAnnotationsPackage(fieldAccess.selected);
+        }
+        return false;
+    }
+
+    private boolean isAnnotationsPackage(JCTree tree) {
+        for (int i = annotationsPackage.length - 1; i > 0; i--) {
+            if (!(tree instanceof JCTree.JCFieldAccess)) {
+                return false;
+            }
+            JCTree.JCFieldAccess fieldAccess = (JCTree.JCFieldAccess) tree;
+            if (fieldAccess.name != annotationsPackage[i]) {
+                return false;
+            }
+            tree = fieldAccess.selected;
+        }
+        return tree instanceof JCTree.JCIdent && ((JCTree.JCIdent) tree).name == annotationsPackage[0];
+    }
+
+    private JCTree.JCExpression annotationType(Name simpleName) {
+        JCTree.JCExpression id = maker.Ident(annotationsPackage[0]);
+        for (int i = 1; i < annotationsPackage.length; i++) {
+            id = maker.Select(id, annotationsPackage[i]);
+        }
+        return maker.Select(id, simpleName);
+    }
+}
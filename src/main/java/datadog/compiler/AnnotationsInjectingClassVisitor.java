@@ -1,72 +1,246 @@
 package datadog.compiler;
 
-import com.sun.source.tree.BlockTree;
 import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.LambdaExpressionTree;
 import com.sun.source.tree.LineMap;
-import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.Tree;
 import com.sun.source.util.TreeScanner;
 import com.sun.tools.javac.code.Flags;
 import com.sun.tools.javac.tree.EndPosTable;
 import com.sun.tools.javac.tree.JCTree;
-import com.sun.tools.javac.tree.TreeMaker;
-import com.sun.tools.javac.util.List;
-import com.sun.tools.javac.util.Name;
-import com.sun.tools.javac.util.Names;
+import com.sun.tools.javac.util.ListBuffer;
 import com.sun.tools.javac.util.Position;
+import datadog.compiler.utils.SourceLinesTables;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-public class AnnotationsInjectingClassVisitor extends TreeScanner<Void, Void> {
-    private final TreeMaker maker;
-    private final Names names;
+/**
+ * Injects the source annotations into the classes and methods of a compilation unit.
+ * <p>
+ * Only declarations are annotated, so the traversal does not walk every statement and expression:
+ * classes and their members are visited from an explicit stack, which keeps deeply nested generated code from overflowing the call stack,
+ * and a long method body, initializer or lambda body is only scanned (down to the classes and lambdas it declares)
+ * if the {@link DeclarationPrescanner} finds in its source text that it may declare some.
+ * <p>
+ * Visiting only reads the trees: the annotations it works out are created and attached by {@link #attach()}.
+ * Annotation trees are made with javac's {@link com.sun.tools.javac.tree.TreeMaker}, which is not thread-safe,
+ * so compilation units can be visited in parallel, but have to be attached one at a time on the javac thread.
+ */
+public class AnnotationsInjectingClassVisitor {
+    /**
+     * Names javac uses for initializers in the names of lambda methods
+     */
+    private static final String INSTANCE_INITIALIZER_NAME = "new";
+    private static final String STATIC_INITIALIZER_NAME = "static";
+    /**
+     * Bodies shorter than this are traversed without a pre-scan: they have few trees, which are as cheap to traverse as their text is to scan
+     */
+    private static final int PRESCANNED_BODY_MIN_LENGTH = 512;
+
+    private final AnnotationTemplates templates;
     private final JCTree.JCAnnotation sourcePathAnnotation;
+    /**
+     * {@code null} if source hashes are disabled
+     */
+    private final Integer sourceHash;
     private final JCTree.JCExpression sourceLinesAnnotationType;
     private final boolean sourceLinesAnnotationDisabled;
-    private final LineMap lineMap;
-    private final EndPosTable endPositions;
+    private final boolean compactSourceLines;
+    private final MethodVisibility methodVisibility;
+    private final boolean lambdaLines;
+    private final boolean abiStable;
+    /**
+     * Whether {@code @SourcePath} is only injected into top-level classes, nested classes being resolved through their enclosing class
+     */
+    private final boolean topLevelSourcePath;
+    private final LineResolver lines;
+    private final EndPositions endPositions;
+    /**
+     * {@code null} if the source text is not available, in which case every body is traversed
+     */
+    private final CharSequence source;
+    private DeclarationPrescanner prescanner;
+    private final PluginStatistics statistics;
+
+    private final Deque<PendingTree> pendingTrees = new ArrayDeque<>();
+    private final List<Attachment> attachments = new ArrayList<>();
+    private final BodyScanner bodyScanner = new BodyScanner();
+
+    /**
+     * Lines table of the class whose members are being visited,
+     * {@code null} if method lines are injected as individual annotations
+     */
+    private MethodLinesTable methodLinesTable;
+
+    /**
+     * Class whose members are being visited
+     */
+    private JCTree.JCClassDecl memberOwner;
+
+    /**
+     * Name javac gives to the enclosing method in the names of lambda methods,
+     * {@code null} outside of members
+     */
+    private String lambdaEnclosingName;
 
-    AnnotationsInjectingClassVisitor(TreeMaker maker,
-                                     Names names,
+    AnnotationsInjectingClassVisitor(AnnotationTemplates templates,
                                      JCTree.JCAnnotation sourcePathAnnotation,
+                                     Integer sourceHash,
                                      JCTree.JCExpression sourceLinesAnnotationType,
                                      boolean sourceLinesAnnotationDisabled,
+                                     boolean compactSourceLines,
+                                     MethodVisibility methodVisibility,
+                                     boolean lambdaLines,
+                                     boolean abiStable,
+                                     boolean topLevelSourcePath,
                                      LineMap lineMap,
-                                     EndPosTable endPositions) {
-        this.maker = maker;
-        this.names = names;
+                                     EndPosTable endPositions,
+                                     CharSequence source,
+                                     PluginStatistics statistics) {
+        this.templates = templates;
         this.sourcePathAnnotation = sourcePathAnnotation;
+        this.sourceHash = sourceHash;
         this.sourceLinesAnnotationType = sourceLinesAnnotationType;
         this.sourceLinesAnnotationDisabled = sourceLinesAnnotationDisabled;
-        this.lineMap = lineMap;
-        this.endPositions = endPositions;
+        this.compactSourceLines = compactSourceLines;
+        this.methodVisibility = methodVisibility;
+        this.lambdaLines = lambdaLines;
+        this.abiStable = abiStable;
+        this.topLevelSourcePath = topLevelSourcePath;
+        this.lines = new LineResolver(lineMap);
+        this.endPositions = new EndPositions(endPositions, source);
+        this.source = source;
+        this.statistics = statistics;
     }
 
-    @Override
-    public Void visitClass(ClassTree node, Void aVoid) {
+    /**
+     * Creates and attaches the annotations worked out by {@link #visit(CompilationUnitTree)}
+     */
+    void attach() {
+        for (Attachment attachment : attachments) {
+            attachment.attach();
+        }
+        attachments.clear();
+    }
+
+    void visit(CompilationUnitTree compilationUnit) {
+        push(compilationUnit.getTypeDecls(), null, null, null);
+        while (!pendingTrees.isEmpty()) {
+            PendingTree pendingTree = pendingTrees.pop();
+            methodLinesTable = pendingTree.methodLinesTable;
+            memberOwner = pendingTree.memberOwner;
+            lambdaEnclosingName = pendingTree.lambdaEnclosingName;
+            if (pendingTree.classCompletion != null) {
+                pendingTree.classCompletion.complete();
+            } else {
+                visit(pendingTree.tree);
+            }
+        }
+    }
+
+    private void visit(JCTree tree) {
+        if (tree instanceof JCTree.JCClassDecl) {
+            visitClass((JCTree.JCClassDecl) tree);
+        } else if (tree instanceof JCTree.JCMethodDecl) {
+            visitMethod((JCTree.JCMethodDecl) tree);
+        } else if (tree instanceof JCTree.JCVariableDecl) {
+            // field initializer
+            JCTree.JCVariableDecl variableDeclaration = (JCTree.JCVariableDecl) tree;
+            visitBody(variableDeclaration.init, isStaticMember(variableDeclaration.mods.flags) ? STATIC_INITIALIZER_NAME : INSTANCE_INITIALIZER_NAME);
+        } else if (tree instanceof JCTree.JCBlock) {
+            // initializer block
+            JCTree.JCBlock block = (JCTree.JCBlock) tree;
+            visitBody(block, block.isStatic() ? STATIC_INITIALIZER_NAME : INSTANCE_INITIALIZER_NAME);
+        } else if (tree instanceof JCTree.JCLambda) {
+            visitLambda((JCTree.JCLambda) tree);
+        }
+    }
+
+    /**
+     * Pushes trees so that they are popped in order
+     */
+    private void push(List<? extends Tree> trees, MethodLinesTable linesTable, JCTree.JCClassDecl owner, String enclosingName) {
+        for (int i = trees.size() - 1; i >= 0; i--) {
+            pendingTrees.push(new PendingTree((JCTree) trees.get(i), null, linesTable, owner, enclosingName));
+        }
+    }
+
+    private void visitClass(JCTree.JCClassDecl classDeclaration) {
         boolean sourcePathDetected = false;
         boolean sourceLinesDetected = false;
-        JCTree.JCClassDecl classDeclaration = (JCTree.JCClassDecl) node;
+        boolean sourceLinesTableDetected = false;
+        boolean sourceHashDetected = false;
 
         for (JCTree.JCAnnotation annotation : classDeclaration.mods.annotations) {
-            if (annotation.annotationType.toString().endsWith("SourceLines")) {
+            if (templates.isSourceLinesAnnotation(annotation)) {
                 // The class is already annotated with @SourceLines.
                 // This can happen, for instance, when code-generation tools are used
                 // that copy annotations from interface to class
                 sourceLinesDetected = true;
+                statistics.annotationsSkipped++;
             }
-            if (annotation.annotationType.toString().endsWith("SourcePath")) {
+            if (templates.isSourcePathAnnotation(annotation)) {
                 // The class is already annotated with @SourcePath.
                 sourcePathDetected = true;
+                statistics.annotationsSkipped++;
+            }
+            if (templates.isSourceLinesTableAnnotation(annotation)) {
+                sourceLinesTableDetected = true;
+                statistics.annotationsSkipped++;
+            }
+            if (templates.isSourceHashAnnotation(annotation)) {
+                sourceHashDetected = true;
+                statistics.annotationsSkipped++;
             }
         }
 
-        if (node.getSimpleName().length() == 0) {
-            // Anonymous
-            return super.visitClass(node, aVoid);
+        if (classDeclaration.getSimpleName().length() == 0) {
+            // Anonymous: cannot be annotated, so its methods are annotated individually
+            push(classDeclaration.defs, null, classDeclaration, null);
+            return;
         }
 
-        if (!sourcePathDetected) {
-            classDeclaration.mods.annotations = classDeclaration.mods.annotations.prepend(sourcePathAnnotation);
+        // In ABI-stable mode lines go to a private field, which is not part of the class' API.
+        // Interfaces cannot have private fields, and local classes have no API, they keep the regular annotations.
+        boolean holderFieldUsed = abiStable
+                && (classDeclaration.mods.flags & Flags.INTERFACE) == 0
+                && lambdaEnclosingName == null
+                && !hasHolderField(classDeclaration);
+        boolean holderSourceHash = false;
+
+        boolean annotated = false;
+        if (!sourcePathDetected && (!topLevelSourcePath || memberOwner == null)) {
+            attachSourcePath(classDeclaration.mods);
+            annotated = true;
+        }
+
+        // the hash is of the whole file: it is only stored on top-level classes, nested ones share it
+        if (sourceHash != null && !sourceHashDetected && memberOwner == null) {
+            if (holderFieldUsed) {
+                holderSourceHash = true;
+            } else {
+                attachSourceHash(classDeclaration.mods);
+                annotated = true;
+            }
         }
 
+        // non-public methods and lambdas are only worth recording if they do not cost an annotation each
+        boolean linesTableNeeded = holderFieldUsed || compactSourceLines || methodVisibility != MethodVisibility.PUBLIC || lambdaLines;
+        MethodLinesTable linesTable = linesTableNeeded && !sourceLinesAnnotationDisabled && !sourceLinesTableDetected
+                ? new MethodLinesTable(classDeclaration,
+                abiStable ? typeVariables(classDeclaration) : null,
+                holderFieldUsed,
+                holderFieldUsed ? constructorSyntheticParameterTypes(classDeclaration) : null)
+                : null;
+
         if (!sourceLinesAnnotationDisabled && !sourceLinesDetected) {
             JCTree.JCModifiers modifiers = classDeclaration.getModifiers();
 
@@ -75,73 +249,511 @@ public class AnnotationsInjectingClassVisitor extends TreeScanner<Void, Void> {
                 startPosition = classDeclaration.getStartPosition();
             }
 
-            int endPosition = classDeclaration.getEndPosition(endPositions);
-            if (endPosition == Position.NOPOS) {
-                return super.visitClass(node, aVoid);
+            int endPosition = endPositions.classEnd(classDeclaration);
+            if (endPosition != Position.NOPOS) {
+                if (holderFieldUsed && linesTable != null) {
+                    linesTable.addClass(lines.getLineNumber(startPosition), lines.getLineNumber(endPosition));
+                } else {
+                    attachSourceLines(classDeclaration.mods, lines.getLineNumber(startPosition), lines.getLineNumber(endPosition));
+                    annotated = true;
+                }
             }
+        }
+
+        // the completion is popped once the members, and the classes and lambdas they declare, have been visited
+        ClassCompletion completion = new ClassCompletion(classDeclaration, linesTable, holderFieldUsed, holderSourceHash, annotated);
+        pendingTrees.push(new PendingTree(null, completion, null, null, null));
+        push(classDeclaration.defs, linesTable, classDeclaration, null);
+    }
+
+    /**
+     * Annotates a class with the lines of its members once they have all been visited
+     */
+    private final class ClassCompletion {
+        private final JCTree.JCClassDecl classDeclaration;
+        private final MethodLinesTable linesTable;
+        private final boolean holderFieldUsed;
+        private final boolean holderSourceHash;
+        private boolean annotated;
 
-            JCTree.JCAnnotation sourceLinesAnnotation = sourceLinesAnnotation(startPosition, endPosition);
-            classDeclaration.mods.annotations = classDeclaration.mods.annotations.prepend(sourceLinesAnnotation);
+        ClassCompletion(JCTree.JCClassDecl classDeclaration,
+                        MethodLinesTable linesTable,
+                        boolean holderFieldUsed,
+                        boolean holderSourceHash,
+                        boolean annotated) {
+            this.classDeclaration = classDeclaration;
+            this.linesTable = linesTable;
+            this.holderFieldUsed = holderFieldUsed;
+            this.holderSourceHash = holderSourceHash;
+            this.annotated = annotated;
         }
 
-        return super.visitClass(node, aVoid);
+        void complete() {
+            String[] holderLinesTable = null;
+            if (linesTable != null && !linesTable.isEmpty()) {
+                if (holderFieldUsed) {
+                    holderLinesTable = linesTable.build();
+                } else {
+                    attachLinesTable(classDeclaration.mods, linesTable.build());
+                    annotated = true;
+                }
+            }
+            if (holderSourceHash || holderLinesTable != null) {
+                attachHolderField(classDeclaration, holderSourceHash, holderLinesTable);
+                annotated = true;
+            }
+            if (annotated) {
+                statistics.classesAnnotated++;
+            }
+        }
     }
 
-    public Void visitMethod(MethodTree node, Void aVoid) {
-        if (!sourceLinesAnnotationDisabled && (node instanceof JCTree.JCMethodDecl)) {
-            JCTree.JCMethodDecl methodDecl = (JCTree.JCMethodDecl) node;
+    private boolean hasHolderField(JCTree.JCClassDecl classDeclaration) {
+        for (JCTree member : classDeclaration.defs) {
+            if (templates.isHolderField(member)) {
+                statistics.annotationsSkipped++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Simple names of the types of the parameters javac adds to the constructors of a (non-local) class:
+     * the name and ordinal of enum constants, or the enclosing instance of inner classes.
+     * {@code null} for records, whose canonical constructor may be compact (declared without parameters).
+     */
+    private String[] constructorSyntheticParameterTypes(JCTree.JCClassDecl classDeclaration) {
+        if (isRecord(classDeclaration)) {
+            return null;
+        }
+        if ((classDeclaration.mods.flags & Flags.ENUM) != 0) {
+            return new String[]{"String", "int"};
+        }
+        return isInnerClass(classDeclaration) ? new String[]{memberOwner.name.toString()} : new String[0];
+    }
+
+    /**
+     * @return Type variables in scope in a (non-anonymous) class by name,
+     * {@code null} if some of them are declared by an enclosing method or initializer, which are not tracked
+     */
+    private Map<String, JCTree.JCTypeParameter> typeVariables(JCTree.JCClassDecl classDeclaration) {
+        if (lambdaEnclosingName != null) {
+            // local class
+            return null;
+        }
+        Map<String, JCTree.JCTypeParameter> enclosingTypeVariables = Collections.emptyMap();
+        if (isInnerClass(classDeclaration)) {
+            enclosingTypeVariables = methodLinesTable != null ? methodLinesTable.typeVariables : null;
+            if (enclosingTypeVariables == null) {
+                return null;
+            }
+        }
+        if (classDeclaration.typarams.isEmpty()) {
+            return enclosingTypeVariables;
+        }
+        Map<String, JCTree.JCTypeParameter> typeVariables = new HashMap<>(enclosingTypeVariables);
+        for (JCTree.JCTypeParameter typeParameter : classDeclaration.typarams) {
+            typeVariables.put(typeParameter.name.toString(), typeParameter);
+        }
+        return typeVariables;
+    }
+
+    /**
+     * @return Whether a member class has an enclosing instance
+     */
+    private boolean isInnerClass(JCTree.JCClassDecl classDeclaration) {
+        if (memberOwner == null
+                || (classDeclaration.mods.flags & (Flags.STATIC | Flags.ENUM | Flags.INTERFACE)) != 0
+                || isRecord(classDeclaration)) {
+            return false;
+        }
+        // members of interfaces are implicitly static
+        return (memberOwner.mods.flags & Flags.INTERFACE) == 0;
+    }
+
+    private static boolean isRecord(JCTree.JCClassDecl classDeclaration) {
+        return classDeclaration.getKind().name().equals("RECORD"); // the kind only exists in JDK 16+
+    }
+
+    private void visitMethod(JCTree.JCMethodDecl methodDecl) {
+        if (!sourceLinesAnnotationDisabled) {
+            annotateMethod(methodDecl);
+        }
+        visitBody(methodDecl.body, templates.isConstructor(methodDecl) ? INSTANCE_INITIALIZER_NAME : methodDecl.name.toString());
+    }
+
+    private void annotateMethod(JCTree.JCMethodDecl methodDecl) {
+        for (JCTree.JCAnnotation annotation : methodDecl.mods.annotations) {
+            if (templates.isSourceLinesAnnotation(annotation)) {
+                // The method is already annotated with @SourceLines.
+                // This can happen, for instance, when code-generation tools are used
+                // that copy annotations from interface methods to class methods
+                statistics.annotationsSkipped++;
+                return;
+            }
+        }
+
+        JCTree.JCModifiers modifiers = methodDecl.getModifiers();
+        if (methodVisibility.accepts(modifiers.flags)) {
+            int startPosition = modifiers.getStartPosition();
+            if (startPosition == Position.NOPOS) {
+                startPosition = methodDecl.getStartPosition();
+            }
+
+            int endPosition = endPositions.methodEnd(methodDecl);
 
-            for (JCTree.JCAnnotation annotation : methodDecl.mods.annotations) {
-                if (annotation.annotationType.toString().endsWith("SourceLines")) {
-                    // The method is already annotated with @SourceLines.
-                    // This can happen, for instance, when code-generation tools are used
-                    // that copy annotations from interface methods to class methods
-                    return super.visitMethod(node, aVoid);
+            int startLine = lines.getLineNumber(startPosition);
+            int endLine = lines.getLineNumber(endPosition);
+            // public methods keep individual annotations unless compact lines or a holder field are requested
+            boolean individualAnnotation = methodLinesTable == null
+                    || (!compactSourceLines && !methodLinesTable.holderField && (modifiers.flags & Flags.PUBLIC) != 0)
+                    || !methodLinesTable.add(methodDecl, startLine, endLine);
+            if (individualAnnotation) {
+                if (methodLinesTable != null && methodLinesTable.holderField) {
+                    // the table cannot tell the method apart, and an annotation would put its lines back in the API
+                    return;
                 }
+                attachSourceLines(methodDecl.mods, startLine, endLine);
+            }
+            statistics.methodsAnnotated++;
+        }
+    }
+
+    private void visitLambda(JCTree.JCLambda lambda) {
+        // lambdas of anonymous classes are skipped, there is no table to store their lines in
+        if (lambdaLines && methodLinesTable != null) {
+            int endPosition = endPositions.lambdaEnd(lambda);
+            if (endPosition != Position.NOPOS) {
+                methodLinesTable.addLambda(lambdaEnclosingName, lines.getLineNumber(lambda.getStartPosition()), lines.getLineNumber(endPosition));
+                statistics.lambdasAnnotated++;
+            }
+        }
+        visitBody(lambda.body, lambdaEnclosingName);
+    }
+
+    /**
+     * Pushes the classes and lambdas declared in a method body, an initializer or a lambda body
+     *
+     * @param enclosingName Name javac gives to the enclosing method in the names of lambda methods
+     */
+    private void visitBody(JCTree body, String enclosingName) {
+        if (body == null) {
+            return;
+        }
+        if (!mayDeclare(body)) {
+            statistics.bodiesSkipped++;
+            return;
+        }
+        List<JCTree> declarations = bodyScanner.declarations;
+        body.accept(bodyScanner, null);
+        push(declarations, methodLinesTable, memberOwner, enclosingName);
+        declarations.clear();
+    }
+
+    private boolean mayDeclare(JCTree body) {
+        if (source == null) {
+            return true;
+        }
+        if (body instanceof JCTree.JCNewClass && ((JCTree.JCNewClass) body).def != null) {
+            // enum constants with a body have no "new" in the source
+            return true;
+        }
+        int startPosition = body.getStartPosition();
+        int endPosition = endPositions.bodyEnd(body);
+        if (endPosition == Position.NOPOS || endPosition - startPosition < PRESCANNED_BODY_MIN_LENGTH) {
+            return true;
+        }
+        if (prescanner == null) {
+            prescanner = new DeclarationPrescanner(source, lambdaLines);
+        }
+        return prescanner.mayDeclare(startPosition, endPosition);
+    }
+
+    private boolean isStaticMember(long flags) {
+        // fields of interfaces and annotation types are implicitly static
+        return (flags & Flags.STATIC) != 0 || (memberOwner.mods.flags & Flags.INTERFACE) != 0;
+    }
+
+    private void attachSourcePath(final JCTree.JCModifiers modifiers) {
+        attachments.add(new Attachment() {
+            @Override
+            void attach() {
+                modifiers.annotations = modifiers.annotations.prepend(sourcePathAnnotation);
             }
+        });
+    }
 
-            JCTree.JCModifiers modifiers = methodDecl.getModifiers();
-            if ((modifiers.flags & Flags.PUBLIC) != 0) {
+    private void attachSourceHash(final JCTree.JCModifiers modifiers) {
+        attachments.add(new Attachment() {
+            @Override
+            void attach() {
+                modifiers.annotations = modifiers.annotations.prepend(templates.sourceHashAnnotation(sourceHash));
+            }
+        });
+    }
+
+    private void attachSourceLines(final JCTree.JCModifiers modifiers, final int startLine, final int endLine) {
+        attachments.add(new Attachment() {
+            @Override
+            void attach() {
+                modifiers.annotations = modifiers.annotations.prepend(templates.sourceLinesAnnotation(sourceLinesAnnotationType, startLine, endLine));
+            }
+        });
+    }
 
-                int startPosition = modifiers.getStartPosition();
-                if (startPosition == Position.NOPOS) {
-                    startPosition = methodDecl.getStartPosition();
+    private void attachLinesTable(final JCTree.JCModifiers modifiers, final String[] linesTable) {
+        attachments.add(new Attachment() {
+            @Override
+            void attach() {
+                modifiers.annotations = modifiers.annotations.prepend(templates.sourceLinesTableAnnotation(linesTable));
+            }
+        });
+    }
+
+    /**
+     * @param linesTable {@code null} if there are no lines to store
+     */
+    private void attachHolderField(final JCTree.JCClassDecl classDeclaration, final boolean holderSourceHash, final String[] linesTable) {
+        attachments.add(new Attachment() {
+            @Override
+            void attach() {
+                ListBuffer<JCTree.JCAnnotation> holderAnnotations = new ListBuffer<>();
+                if (holderSourceHash) {
+                    holderAnnotations.append(templates.sourceHashAnnotation(sourceHash));
                 }
+                if (linesTable != null) {
+                    holderAnnotations.append(templates.sourceLinesTableAnnotation(linesTable));
+                }
+                classDeclaration.defs = classDeclaration.defs.append(templates.holderField(classDeclaration.pos, holderAnnotations.toList()));
+            }
+        });
+    }
+
+    /**
+     * A change to the trees worked out by the visit, made by {@link #attach()}
+     */
+    private abstract static class Attachment {
+        abstract void attach();
+    }
+
+    /**
+     * Collects the classes and lambdas declared in a body, without descending into them
+     */
+    private static final class BodyScanner extends TreeScanner<Void, Void> {
+        private final List<JCTree> declarations = new ArrayList<>();
+
+        @Override
+        public Void visitClass(ClassTree node, Void aVoid) {
+            declarations.add((JCTree) node);
+            return null;
+        }
+
+        @Override
+        public Void visitLambdaExpression(LambdaExpressionTree node, Void aVoid) {
+            declarations.add((JCTree) node);
+            return null;
+        }
+    }
+
+    /**
+     * A tree to visit, or a class to complete, with the state of the traversal at the point it was found
+     */
+    private static final class PendingTree {
+        private final JCTree tree;
+        private final ClassCompletion classCompletion;
+        private final MethodLinesTable methodLinesTable;
+        private final JCTree.JCClassDecl memberOwner;
+        private final String lambdaEnclosingName;
+
+        PendingTree(JCTree tree,
+                    ClassCompletion classCompletion,
+                    MethodLinesTable methodLinesTable,
+                    JCTree.JCClassDecl memberOwner,
+                    String lambdaEnclosingName) {
+            this.tree = tree;
+            this.classCompletion = classCompletion;
+            this.methodLinesTable = methodLinesTable;
+            this.memberOwner = memberOwner;
+            this.lambdaEnclosingName = lambdaEnclosingName;
+        }
+    }
 
-                int endPosition = methodDecl.getEndPosition(endPositions);
-                if (endPosition == Position.NOPOS) {
-                    BlockTree methodBody = node.getBody();
-                    if (methodBody != null) {
-                        JCTree methodBodyTree = (JCTree) methodBody;
-                        endPosition = methodBodyTree.getEndPosition(endPositions);
+    /**
+     * Collects the lines of the methods and lambdas of a class into a single {@link SourceLinesTables} table.
+     * <p>
+     * At runtime the entries are looked up by method name and parameter count,
+     * so methods that cannot be told apart this way (same-arity overloads) keep individual annotations,
+     * except in holder field tables: there they are named after the erased simple names of their parameter types
+     * (see {@link SourceLinesTables#overloadEntryName(String, String[])}), and have no lines at all only if these names clash too.
+     * Constructors, whose runtime parameter count may include synthetic parameters, are only stored in holder field tables,
+     * with the synthetic parameters counted.
+     */
+    private final class MethodLinesTable {
+        /**
+         * Bounds type variables are erased to are only followed this deep
+         */
+        private static final int MAX_BOUND_DEPTH = 8;
+
+        private final Set<String> ambiguousKeys = new HashSet<>();
+        private final Map<JCTree.JCMethodDecl, String> overloadEntryNames = new HashMap<>();
+        private final SourceLinesTables.Builder builder = new SourceLinesTables.Builder();
+        private final boolean holderField;
+        /**
+         * {@code null} if constructors are not stored
+         */
+        private final String[] constructorSyntheticParameterTypes;
+        /**
+         * Type variables in scope in the class, {@code null} if they are not known
+         */
+        private final Map<String, JCTree.JCTypeParameter> typeVariables;
+
+        MethodLinesTable(JCTree.JCClassDecl classDeclaration,
+                         Map<String, JCTree.JCTypeParameter> typeVariables,
+                         boolean holderField,
+                         String[] constructorSyntheticParameterTypes) {
+            this.typeVariables = typeVariables;
+            this.holderField = holderField;
+            this.constructorSyntheticParameterTypes = constructorSyntheticParameterTypes;
+            Set<String> keys = new HashSet<>();
+            for (JCTree member : classDeclaration.defs) {
+                if (member instanceof JCTree.JCMethodDecl) {
+                    String key = key((JCTree.JCMethodDecl) member);
+                    if (!keys.add(key)) {
+                        ambiguousKeys.add(key);
                     }
                 }
+            }
+            if ((classDeclaration.mods.flags & Flags.ENUM) != 0) {
+                // clashes with the implicitly declared valueOf(String)
+                ambiguousKeys.add("valueOf:1");
+            }
+            if (holderField && typeVariables != null && !ambiguousKeys.isEmpty()) {
+                Set<String> entryNames = new HashSet<>();
+                Set<String> clashingEntryNames = new HashSet<>();
+                for (JCTree member : classDeclaration.defs) {
+                    if (member instanceof JCTree.JCMethodDecl && ambiguousKeys.contains(key((JCTree.JCMethodDecl) member))) {
+                        String entryName = overloadEntryName((JCTree.JCMethodDecl) member);
+                        if (entryName != null) {
+                            if (!entryNames.add(entryName)) {
+                                clashingEntryNames.add(entryName);
+                            }
+                            overloadEntryNames.put((JCTree.JCMethodDecl) member, entryName);
+                        }
+                    }
+                }
+                // e.g. overloads that only differ by type variables with the same bound
+                overloadEntryNames.values().removeAll(clashingEntryNames);
+            }
+        }
+
+        void addClass(int startLine, int endLine) {
+            builder.add(SourceLinesTables.CLASS_ENTRY_NAME, 0, startLine, endLine);
+        }
 
-                JCTree.JCAnnotation sourceLinesAnnotation = sourceLinesAnnotation(startPosition, endPosition);
-                methodDecl.mods.annotations = methodDecl.mods.annotations.prepend(sourceLinesAnnotation);
+        boolean add(JCTree.JCMethodDecl methodDeclaration, int startLine, int endLine) {
+            boolean constructor = templates.isConstructor(methodDeclaration);
+            if (constructor && constructorSyntheticParameterTypes == null) {
+                return false;
+            }
+            String name = constructor ? SourceLinesTables.CONSTRUCTOR_ENTRY_NAME : methodDeclaration.name.toString();
+            int parameterCount = methodDeclaration.params.size() + (constructor ? constructorSyntheticParameterTypes.length : 0);
+            if (ambiguousKeys.contains(key(methodDeclaration))) {
+                name = overloadEntryNames.get(methodDeclaration);
+                if (name == null) {
+                    return false;
+                }
             }
+            builder.add(name, parameterCount, startLine, endLine);
+            return true;
         }
-        return super.visitMethod(node, aVoid);
-    }
 
-    private JCTree.JCAnnotation sourceLinesAnnotation(int startPosition, int endPosition) {
-        int startLine = (int) lineMap.getLineNumber(startPosition);
-        int endLine = (int) lineMap.getLineNumber(endPosition);
+        void addLambda(String enclosingName, int startLine, int endLine) {
+            builder.add(SourceLinesTables.lambdaEntryName(enclosingName), SourceLinesTables.LAMBDA_PARAMETER_COUNT, startLine, endLine);
+        }
 
-        Name startName = names.fromString("start");
-        JCTree.JCIdent startIdent = maker.Ident(startName);
-        JCTree.JCLiteral startLiteral = maker.Literal(startLine);
-        JCTree.JCAssign startAssign = maker.Assign(startIdent, startLiteral);
+        boolean isEmpty() {
+            return builder.isEmpty();
+        }
 
-        Name endName = names.fromString("end");
-        JCTree.JCIdent endIdent = maker.Ident(endName);
-        JCTree.JCLiteral endLiteral = maker.Literal(endLine);
-        JCTree.JCAssign endAssign = maker.Assign(endIdent, endLiteral);
+        String[] build() {
+            return builder.build();
+        }
 
-        return annotation(maker, sourceLinesAnnotationType, startAssign, endAssign);
-    }
+        private String key(JCTree.JCMethodDecl methodDeclaration) {
+            return methodDeclaration.name.toString() + ':' + methodDeclaration.params.size();
+        }
 
-    private static JCTree.JCAnnotation annotation(TreeMaker maker, JCTree type, JCTree.JCExpression... arguments) {
-        return maker.Annotation(type, List.from(arguments));
+        /**
+         * @return Name of the entry of a method named after its parameter types, {@code null} if they cannot be worked out
+         */
+        private String overloadEntryName(JCTree.JCMethodDecl methodDeclaration) {
+            boolean constructor = templates.isConstructor(methodDeclaration);
+            if (constructor && constructorSyntheticParameterTypes == null) {
+                return null;
+            }
+            List<String> parameterTypeNames = new ArrayList<>();
+            if (constructor) {
+                Collections.addAll(parameterTypeNames, constructorSyntheticParameterTypes);
+            }
+            for (JCTree.JCVariableDecl parameter : methodDeclaration.params) {
+                String parameterTypeName = erasedSimpleName(parameter.vartype, methodDeclaration.typarams, 0);
+                if (parameterTypeName == null) {
+                    return null;
+                }
+                parameterTypeNames.add(parameterTypeName);
+            }
+            String name = constructor ? SourceLinesTables.CONSTRUCTOR_ENTRY_NAME : methodDeclaration.name.toString();
+            return SourceLinesTables.overloadEntryName(name, parameterTypeNames.toArray(new String[0]));
+        }
+
+        /**
+         * Works out the simple name of the erasure of a type from its (unattributed) tree,
+         * the way {@link Class#getSimpleName()} returns it at runtime.
+         *
+         * @return {@code null} if the name cannot be worked out
+         */
+        private String erasedSimpleName(JCTree type, List<JCTree.JCTypeParameter> methodTypeParameters, int depth) {
+            if (type instanceof JCTree.JCAnnotatedType) {
+                return erasedSimpleName(((JCTree.JCAnnotatedType) type).underlyingType, methodTypeParameters, depth);
+            }
+            if (type instanceof JCTree.JCPrimitiveTypeTree) {
+                return type.toString();
+            }
+            if (type instanceof JCTree.JCArrayTypeTree) {
+                // varargs are arrays too
+                String elementTypeName = erasedSimpleName(((JCTree.JCArrayTypeTree) type).elemtype, methodTypeParameters, depth);
+                return elementTypeName != null ? elementTypeName + "[]" : null;
+            }
+            if (type instanceof JCTree.JCTypeApply) {
+                return erasedSimpleName(((JCTree.JCTypeApply) type).clazz, methodTypeParameters, depth);
+            }
+            if (type instanceof JCTree.JCFieldAccess) {
+                return ((JCTree.JCFieldAccess) type).name.toString();
+            }
+            if (type instanceof JCTree.JCIdent) {
+                String name = ((JCTree.JCIdent) type).name.toString();
+                for (JCTree.JCTypeParameter typeParameter : methodTypeParameters) {
+                    if (typeParameter.name.contentEquals(name)) {
+                        return boundSimpleName(typeParameter, methodTypeParameters, depth);
+                    }
+                }
+                JCTree.JCTypeParameter typeParameter = typeVariables.get(name);
+                return typeParameter != null
+                        ? boundSimpleName(typeParameter, Collections.<JCTree.JCTypeParameter>emptyList(), depth)
+                        : name;
+            }
+            return null;
+        }
+
+        /**
+         * A type variable is erased to the erasure of its first bound
+         */
+        private String boundSimpleName(JCTree.JCTypeParameter typeParameter, List<JCTree.JCTypeParameter> methodTypeParameters, int depth) {
+            if (typeParameter.bounds.isEmpty()) {
+                return "Object";
+            }
+            return depth < MAX_BOUND_DEPTH ? erasedSimpleName(typeParameter.bounds.head, methodTypeParameters, depth + 1) : null;
+        }
     }
 }
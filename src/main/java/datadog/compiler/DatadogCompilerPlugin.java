@@ -5,19 +5,48 @@ import com.sun.source.util.Plugin;
 import com.sun.tools.javac.api.BasicJavacTask;
 import com.sun.tools.javac.util.Context;
 import com.sun.tools.javac.util.Log;
-import java.util.Arrays;
-import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DatadogCompilerPlugin implements Plugin {
 
     static final String DISABLE_SOURCE_LINES_ANNOTATION = "disableSourceLinesAnnotation";
+    static final String COMPACT_SOURCE_LINES = "compactSourceLines";
+    static final String METHOD_VISIBILITY = "methodVisibility";
+    static final String LAMBDA_LINES = "lambdaLines";
+    static final String ABI_STABLE = "abiStable";
+    static final String SOURCE_INDEX = "sourceIndex";
+    static final String SOURCE_HASH = "sourceHash";
+    static final String TOP_LEVEL_SOURCE_PATH = "topLevelSourcePath";
+    static final String DISCARD_END_POSITIONS = "discardEndPositions";
+    static final String SOURCE_ROOT = "sourceRoot";
+    static final String THREADS = "threads";
+    static final String STATISTICS = "stats";
+    static final String INCLUDE = "include";
+    static final String EXCLUDE = "exclude";
+    static final String INCLUDE_PACKAGE = "includePackage";
+    static final String EXCLUDE_PACKAGE = "excludePackage";
+
+    /**
+     * Time spent making {@code jdk.compiler} accessible when the plugin class was initialized,
+     * reported by the first compilation of the JVM that collects statistics
+     */
+    private static final AtomicLong COMPILER_MODULE_SETUP_NANOS = new AtomicLong();
 
     static {
+        long start = System.nanoTime();
         CompilerModuleOpener.setup();
+        COMPILER_MODULE_SETUP_NANOS.set(System.nanoTime() - start);
     }
 
     static final String NAME = "DatadogCompilerPlugin";
 
+    /**
+     * @return Time spent making {@code jdk.compiler} accessible, {@code 0} if it has already been taken
+     */
+    static long takeCompilerModuleSetupNanos() {
+        return COMPILER_MODULE_SETUP_NANOS.getAndSet(0);
+    }
+
     @Override
     public String getName() {
         return NAME;
@@ -29,11 +58,14 @@ public class DatadogCompilerPlugin implements Plugin {
             BasicJavacTask basicJavacTask = (BasicJavacTask) task;
             Context context = basicJavacTask.getContext();
 
-            Collection<String> arguments = Arrays.asList(strings);
-            boolean sourceLinesAnnotationDisabled = arguments.contains(DISABLE_SOURCE_LINES_ANNOTATION);
-            task.addTaskListener(new DatadogTaskListener(basicJavacTask, sourceLinesAnnotationDisabled));
+            PluginOptions options = PluginOptions.parse(strings);
+            task.addTaskListener(new DatadogTaskListener(basicJavacTask, options));
 
-            Log.instance(context).printRawLines(Log.WriterKind.NOTICE, NAME + " initialized");
+            Log log = Log.instance(context);
+            for (String warning : options.warnings) {
+                log.printRawLines(Log.WriterKind.WARNING, NAME + ": " + warning);
+            }
+            log.printRawLines(Log.WriterKind.NOTICE, NAME + " initialized");
         }
     }
 
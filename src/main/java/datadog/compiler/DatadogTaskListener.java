@@ -1,104 +1,345 @@
 package datadog.compiler;
 
 import com.sun.source.tree.CompilationUnitTree;
-import com.sun.source.tree.LineMap;
+import com.sun.source.tree.ExpressionTree;
 import com.sun.source.util.TaskEvent;
 import com.sun.source.util.TaskListener;
 import com.sun.tools.javac.api.BasicJavacTask;
-import com.sun.tools.javac.tree.EndPosTable;
 import com.sun.tools.javac.tree.JCTree;
-import com.sun.tools.javac.tree.TreeMaker;
 import com.sun.tools.javac.util.Context;
-import com.sun.tools.javac.util.List;
 import com.sun.tools.javac.util.Log;
-import com.sun.tools.javac.util.Names;
+import datadog.compiler.utils.SourceRoots;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import javax.lang.model.element.TypeElement;
+import javax.tools.FileObject;
+import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
 
+/**
+ * Annotates the compilation units as they go through javac.
+ * <p>
+ * Units are collected as they are parsed, and annotated all together when javac starts entering them:
+ * their annotations are computed on the javac thread, or on a pool of {@link PluginOptions#threads} threads if several are configured,
+ * then attached to the trees on the javac thread.
+ */
 final class DatadogTaskListener implements TaskListener {
+    /**
+     * Kind of the event that ends the whole compilation.
+     * It only exists in JDK 9+, so it is compared by name.
+     */
+    private static final String COMPILATION_TASK_KIND = "COMPILATION";
+    private static final boolean COMPILATION_EVENT_SUPPORTED = isCompilationEventSupported();
+
     private final BasicJavacTask basicJavacTask;
-    private final boolean sourceLinesAnnotationDisabled;
+    private final PluginOptions options;
+    private final SourceIndexCollector sourceIndexCollector;
+    private final SourceHasher sourceHasher;
+    private final PluginStatistics statistics = new PluginStatistics();
+    private List<PendingCompilationUnit> pendingCompilationUnits = new ArrayList<>();
+    /**
+     * {@code null} until units are computed in parallel.
+     * Shut down when the compilation finishes, or after every round in JDK 8, where there is no event for the end of the compilation.
+     */
+    private ForkJoinPool pool;
+    private AnnotationTemplates annotationTemplates;
+    private boolean sourceRootRecorded;
 
-    DatadogTaskListener(BasicJavacTask basicJavacTask, boolean sourceLinesAnnotationDisabled) {
+    DatadogTaskListener(BasicJavacTask basicJavacTask, PluginOptions options) {
         this.basicJavacTask = basicJavacTask;
-        this.sourceLinesAnnotationDisabled = sourceLinesAnnotationDisabled;
+        this.options = options;
+        this.sourceIndexCollector = options.sourceIndex ? new SourceIndexCollector(basicJavacTask.getContext()) : null;
+        this.sourceHasher = options.sourceHash ? new SourceHasher() : null;
+        if (options.statistics) {
+            statistics.compilerModuleSetupNanos = DatadogCompilerPlugin.takeCompilerModuleSetupNanos();
+        }
     }
 
     @Override
     public void started(TaskEvent e) {
+        // every unit is parsed before javac starts entering them,
+        // except for the ones completed from the source path which are parsed and entered one by one
+        if (e.getKind() == TaskEvent.Kind.ENTER && !pendingCompilationUnits.isEmpty()) {
+            annotatePendingCompilationUnits();
+        }
     }
 
     @Override
     public void finished(TaskEvent e) {
         TaskEvent.Kind taskKind = e.getKind();
+        if (taskKind == TaskEvent.Kind.ANALYZE) {
+            if (sourceIndexCollector != null) {
+                collectSourceIndex(e);
+            }
+            return;
+        }
+        if (taskKind == TaskEvent.Kind.GENERATE) {
+            if (sourceIndexCollector != null && !COMPILATION_EVENT_SUPPORTED && e.getTypeElement() != null) {
+                writeSourceIndex(e.getTypeElement());
+            }
+            return;
+        }
+        if (COMPILATION_TASK_KIND.equals(taskKind.name())) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            if (sourceIndexCollector != null) {
+                writeSourceIndex(null);
+            }
+            if (options.statistics) {
+                reportStatistics();
+            }
+            return;
+        }
         if (taskKind != TaskEvent.Kind.PARSE) {
             return;
         }
 
         Context context = basicJavacTask.getContext();
         try {
-            Path sourcePath = getSourcePath(e);
+            Path sourcePath = getAbsoluteSourcePath(e);
             if (sourcePath.endsWith("module-info.java")) {
+                long start = nanoTime();
                 ModuleOpeningClassVisitor moduleOpeningClassVisitor = new ModuleOpeningClassVisitor(context);
                 CompilationUnitTree compilationUnit = e.getCompilationUnit();
                 compilationUnit.accept(moduleOpeningClassVisitor, null);
+                statistics.moduleOpeningNanos += nanoTime() - start;
+                return;
+            }
+
+            if (options.sourceRoot != null && !sourceRootRecorded) {
+                sourceRootRecorded = true;
+                recordSourceRoot(context);
+            }
+
+            long start = nanoTime();
+            CompilationUnitTree compilationUnit = e.getCompilationUnit();
+            if (options.discardEndPositions && compilationUnit instanceof JCTree.JCCompilationUnit) {
+                // javac keeps the end positions of every tree whenever there is a task listener,
+                // it hands the table over to its log only after this event, so the table is not referenced anywhere else yet
+                ((JCTree.JCCompilationUnit) compilationUnit).endPositions = EndPositions.DISCARDED;
+            }
+            if (!ProcessedCompilationUnits.instance(context).add(compilationUnit)) {
+                statistics.compilationUnitsRepeated++;
+                return;
+            }
+            String recordedSourcePath = getSourcePath(sourcePath);
+            if (!isAccepted(recordedSourcePath, compilationUnit)) {
+                statistics.compilationUnitsSkipped++;
                 return;
             }
+            statistics.compilationUnits++;
 
-            TreeMaker maker = TreeMaker.instance(context);
-            Names names = Names.instance(context);
+            AnnotationTemplates templates = annotationTemplates(context);
+            JCTree.JCAnnotation sourcePathAnnotation = templates.sourcePathAnnotation(recordedSourcePath);
+            JCTree.JCExpression sourceLinesAnnotationType = templates.sourceLinesAnnotationType();
 
-            JCTree.JCExpression sourcePathAnnotationType = select(maker, names, "datadog", "compiler", "annotations", "SourcePath");
-            JCTree.JCAnnotation sourcePathAnnotation = annotation(maker, sourcePathAnnotationType, maker.Literal(sourcePath.toString()));
+            // javac has already read the file to parse it, the content comes from the file manager's cache
+            CharSequence source = getSourceContent(compilationUnit);
 
-            JCTree.JCExpression sourceLinesAnnotationType = select(maker, names, "datadog", "compiler", "annotations", "SourceLines");
+            pendingCompilationUnits.add(new PendingCompilationUnit(
+                    compilationUnit, templates, options, sourcePathAnnotation, sourceLinesAnnotationType, source));
 
-            CompilationUnitTree compilationUnit = e.getCompilationUnit();
-            LineMap lineMap = compilationUnit.getLineMap();
-            EndPosTable endPositions;
-            if (compilationUnit instanceof JCTree.JCCompilationUnit) {
-                JCTree.JCCompilationUnit jcCompilationUnit = (JCTree.JCCompilationUnit) compilationUnit;
-                endPositions = jcCompilationUnit.endPositions;
+            statistics.treeVisitorNanos += nanoTime() - start;
+
+        } catch (Throwable t) {
+            logError(context, "Could not process " + Log.instance(context).currentSourceFile().toUri(), t);
+        }
+    }
+
+    private void annotatePendingCompilationUnits() {
+        Context context = basicJavacTask.getContext();
+        long start = nanoTime();
+        List<PendingCompilationUnit> units = pendingCompilationUnits;
+        pendingCompilationUnits = new ArrayList<>();
+        try {
+            if (options.threads > 1 && units.size() > 1) {
+                try {
+                    PendingCompilationUnit.computeAll(units, pool(), options.sourceHash);
+                } finally {
+                    if (!COMPILATION_EVENT_SUPPORTED) {
+                        // otherwise every compilation in a long-lived build daemon would leave its pool behind
+                        pool.shutdown();
+                        pool = null;
+                    }
+                }
             } else {
-                endPositions = null;
+                for (PendingCompilationUnit unit : units) {
+                    unit.compute(sourceHasher);
+                }
+            }
+        } catch (Throwable t) {
+            logError(context, "Could not compute annotations", t);
+            return;
+        }
+
+        for (PendingCompilationUnit unit : units) {
+            try {
+                unit.attach();
+            } catch (Throwable t) {
+                logError(context, "Could not process " + unit.getSourceFile().toUri(), t);
             }
+            statistics.add(unit.statistics);
+        }
+        statistics.annotationStageNanos += nanoTime() - start;
+    }
 
-            AnnotationsInjectingClassVisitor treeVisitor = new AnnotationsInjectingClassVisitor(
-                    maker, names, sourcePathAnnotation, sourceLinesAnnotationType, sourceLinesAnnotationDisabled, lineMap, endPositions);
-            compilationUnit.accept(treeVisitor, null);
+    /**
+     * @return Current time for the timings of the statistics, {@code 0} if they are not collected
+     */
+    private long nanoTime() {
+        return options.statistics ? System.nanoTime() : 0L;
+    }
 
+    private ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(options.threads);
+        }
+        return pool;
+    }
+
+    /**
+     * @return Text of the compilation unit, {@code null} if it cannot be read
+     */
+    private static CharSequence getSourceContent(CompilationUnitTree compilationUnit) {
+        try {
+            return compilationUnit.getSourceFile().getCharContent(false);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void collectSourceIndex(TaskEvent e) {
+        Context context = basicJavacTask.getContext();
+        try {
+            CompilationUnitTree compilationUnit = e.getCompilationUnit();
+            if (compilationUnit instanceof JCTree.JCCompilationUnit && e.getTypeElement() != null) {
+                long start = nanoTime();
+                String sourcePath = getSourcePath(getAbsoluteSourcePath(e));
+                if (isAccepted(sourcePath, compilationUnit)) {
+                    sourceIndexCollector.collect((JCTree.JCCompilationUnit) compilationUnit, e.getTypeElement(), sourcePath);
+                }
+                statistics.treeVisitorNanos += nanoTime() - start;
+            }
         } catch (Throwable t) {
-            Log log = Log.instance(context);
-            log.printRawLines(
-                    Log.WriterKind.WARNING,
-                    "Could not process "
-                            + log.currentSourceFile().toUri()
-                            + ": "
-                            + t.getMessage());
+            logError(context, "Could not index " + e.getSourceFile().toUri(), t);
+        }
+    }
+
+    /**
+     * @param generatedClass Class that has just been generated in JDK 8, to write the locations of its top-level class only,
+     *                       {@code null} to write all the locations when the compilation finishes
+     */
+    private void writeSourceIndex(TypeElement generatedClass) {
+        Context context = basicJavacTask.getContext();
+        try {
+            if (Log.instance(context).nerrors == 0) {
+                if (generatedClass != null) {
+                    sourceIndexCollector.write(generatedClass);
+                } else {
+                    sourceIndexCollector.write();
+                }
+            }
+        } catch (Throwable t) {
+            logError(context, "Could not write source index", t);
+        }
+    }
 
-            PrintWriter logWriter = log.getWriter(Log.WriterKind.WARNING);
-            t.printStackTrace(logWriter);
+    private boolean isAccepted(String sourcePath, CompilationUnitTree compilationUnit) {
+        SourceFilter sourceFilter = options.sourceFilter;
+        if (sourceFilter.isEmpty()) {
+            return true;
         }
+        ExpressionTree packageName = compilationUnit.getPackageName();
+        return sourceFilter.accepts(sourcePath, packageName != null ? packageName.toString() : "");
     }
 
-    private static Path getSourcePath(TaskEvent e) {
+    private void reportStatistics() {
+        Context context = basicJavacTask.getContext();
+        statistics.report(Log.instance(context));
+        if (options.statisticsFile != null) {
+            try {
+                statistics.writeJson(options.statisticsFile);
+            } catch (Throwable t) {
+                logError(context, "Could not write statistics to " + options.statisticsFile, t);
+            }
+        }
+    }
+
+    private static void logError(Context context, String message, Throwable t) {
+        Log log = Log.instance(context);
+        log.printRawLines(Log.WriterKind.WARNING, message + ": " + t.getMessage());
+
+        PrintWriter logWriter = log.getWriter(Log.WriterKind.WARNING);
+        t.printStackTrace(logWriter);
+    }
+
+    static boolean isCompilationEventSupported() {
+        for (TaskEvent.Kind kind : TaskEvent.Kind.values()) {
+            if (COMPILATION_TASK_KIND.equals(kind.name())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Path getAbsoluteSourcePath(TaskEvent e) {
         JavaFileObject sourceFile = e.getSourceFile();
         URI sourceUri = sourceFile.toUri();
         return Paths.get(sourceUri).toAbsolutePath();
     }
 
-    private static JCTree.JCExpression select(TreeMaker maker, Names names, String... parts) {
-        JCTree.JCExpression id = maker.Ident(names.fromString(parts[0]));
-        for (int i = 1; i < parts.length; i++) {
-            id = maker.Select(id, names.fromString(parts[i]));
+    /**
+     * Returns the path that is recorded for a source file:
+     * the absolute path, or the path relative to the source root (with {@code /} separators) if the file is under the root.
+     */
+    private String getSourcePath(Path absoluteSourcePath) {
+        Path sourceRoot = options.sourceRoot;
+        if (sourceRoot != null) {
+            Path normalizedSourcePath = absoluteSourcePath.normalize();
+            if (normalizedSourcePath.startsWith(sourceRoot)) {
+                StringBuilder relativePath = new StringBuilder();
+                for (Path name : sourceRoot.relativize(normalizedSourcePath)) {
+                    if (relativePath.length() > 0) {
+                        relativePath.append('/');
+                    }
+                    relativePath.append(name);
+                }
+                return relativePath.toString();
+            }
         }
-        return id;
+        return absoluteSourcePath.toString();
     }
 
-    private static JCTree.JCAnnotation annotation(TreeMaker maker, JCTree type, JCTree.JCExpression... arguments) {
-        return maker.Annotation(type, List.from(arguments));
+    /**
+     * Writes the source root to the class output, so that relative source paths can be resolved at runtime.
+     */
+    private void recordSourceRoot(Context context) {
+        try {
+            JavaFileManager fileManager = context.get(JavaFileManager.class);
+            FileObject sourceRootFile = fileManager.getFileForOutput(StandardLocation.CLASS_OUTPUT, "", SourceRoots.RESOURCE_NAME, null);
+            try (Writer writer = new OutputStreamWriter(sourceRootFile.openOutputStream(), StandardCharsets.UTF_8)) {
+                writer.write(options.sourceRoot.toString());
+            }
+        } catch (Throwable t) {
+            logError(context, "Could not record source root", t);
+        }
+    }
+
+    private AnnotationTemplates annotationTemplates(Context context) {
+        if (annotationTemplates == null) {
+            annotationTemplates = AnnotationTemplates.instance(context);
+        }
+        return annotationTemplates;
     }
 }
@@ -0,0 +1,510 @@
+package datadog.compiler;
+
+import java.nio.CharBuffer;
+
+/**
+ * Tells from the source text whether a method body, an initializer or a lambda body may declare classes
+ * (local or anonymous ones) or, if requested, lambdas, so that the bodies that cannot are not traversed.
+ * <p>
+ * The check is a single pass over the characters of the body with a minimal lexer that skips comments and literals.
+ * A body may declare a class if it has a {@code class} (other than in a class literal), {@code interface}, {@code enum}
+ * or {@code record} declaration keyword, or a {@code new} expression whose arguments are followed by a brace.
+ * It errs on the side of caution: a false positive only costs a traversal, whereas a false negative would leave a class unannotated.
+ * Unicode escapes outside of literals may stand for any character, so a body that has one is always traversed.
+ * <p>
+ * The text is read from an array (the one backing javac's cached content when there is one) and ASCII characters are classified with a table,
+ * so that scanning a long body costs a fraction of traversing its tree.
+ * <p>
+ * The same lexer finds where declarations end when javac has not kept their end positions (see {@link EndPositions}):
+ * the braces of class bodies, the semicolons of methods without a body and the ends of expressions.
+ * <p>
+ * One instance is used per compilation unit, instances are not thread-safe.
+ */
+final class DeclarationPrescanner {
+
+    /**
+     * Returned by the skipping methods when the source cannot be reasoned about
+     */
+    private static final int UNKNOWN = -1;
+    /**
+     * Returned when a {@code new} keyword does not start a class instance creation (arrays, constructor references)
+     */
+    private static final int NOT_CLASS_INSTANCE_CREATION = -2;
+
+    /**
+     * What {@link #find(int, int)} looks for
+     */
+    private static final int OPENING_BRACE = 0;
+    private static final int CLOSING_BRACE = 1;
+    private static final int SEMICOLON = 2;
+    private static final int EXPRESSION_END = 3;
+
+    /**
+     * Classes of ASCII characters
+     */
+    private static final byte OTHER = 0;
+    private static final byte IDENTIFIER_START = 1;
+    private static final byte IDENTIFIER_PART = 2;
+    private static final byte SPECIAL = 3;
+    private static final byte[] ASCII_CLASSES = new byte[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            ASCII_CLASSES[c] = IDENTIFIER_START;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            ASCII_CLASSES[c] = IDENTIFIER_START;
+        }
+        ASCII_CLASSES['_'] = IDENTIFIER_START;
+        ASCII_CLASSES['$'] = IDENTIFIER_START;
+        for (char c = '0'; c <= '9'; c++) {
+            ASCII_CLASSES[c] = IDENTIFIER_PART;
+        }
+        for (char c : new char[]{'/', '"', '\'', '\\', '-', '(', ')'}) {
+            ASCII_CLASSES[c] = SPECIAL;
+        }
+    }
+
+    private final char[] chars;
+    /**
+     * Index in {@link #chars} of the first character of the source
+     */
+    private final int base;
+    private final int length;
+    private final boolean lambdas;
+
+    private int end;
+    /**
+     * Parenthesis depths of the arguments of the class instance creations that are being scanned
+     */
+    private int[] argumentDepths = new int[8];
+    private int pendingCreations;
+
+    DeclarationPrescanner(CharSequence source, boolean lambdas) {
+        if (source instanceof CharBuffer && ((CharBuffer) source).hasArray()) {
+            CharBuffer buffer = (CharBuffer) source;
+            this.chars = buffer.array();
+            this.base = buffer.arrayOffset() + buffer.position();
+        } else {
+            this.chars = source.toString().toCharArray();
+            this.base = 0;
+        }
+        this.length = source.length();
+        this.lambdas = lambdas;
+    }
+
+    /**
+     * @param start Position of the first character of the body
+     * @param end   Position after the last character of the body
+     * @return {@code false} if the body certainly declares no classes (and no lambdas, if requested)
+     */
+    boolean mayDeclare(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            return true;
+        }
+        if (!hasBraceOrArrow(start, end)) {
+            return false;
+        }
+        this.end = end;
+        pendingCreations = 0;
+        int parenthesisDepth = 0;
+        int i = start;
+        while (i < end) {
+            char c = charAt(i);
+            byte characterClass;
+            if (c < 128) {
+                characterClass = ASCII_CLASSES[c];
+                if (characterClass == OTHER || characterClass == IDENTIFIER_PART) {
+                    i++;
+                    continue;
+                }
+            } else {
+                characterClass = Character.isJavaIdentifierStart(c) ? IDENTIFIER_START : OTHER;
+            }
+            if (characterClass == IDENTIFIER_START) {
+                int wordEnd = wordEnd(i);
+                if (wordEnd - i > 3 || c == 'n') {
+                    if (isWord(i, wordEnd, "new")) {
+                        int arguments = classInstanceCreationArguments(wordEnd);
+                        if (arguments == UNKNOWN) {
+                            return true;
+                        }
+                        if (arguments != NOT_CLASS_INSTANCE_CREATION) {
+                            parenthesisDepth++;
+                            pushCreation(parenthesisDepth);
+                            i = arguments + 1;
+                            continue;
+                        }
+                    } else if (isWord(i, wordEnd, "interface") || isWord(i, wordEnd, "enum")
+                            || (isWord(i, wordEnd, "class") && !isClassLiteral(start, i))
+                            || (isWord(i, wordEnd, "record") && isRecordDeclaration(wordEnd))) {
+                        return true;
+                    }
+                }
+                i = wordEnd;
+                continue;
+            }
+            switch (c) {
+                case '/': {
+                    int afterComment = skipComment(i);
+                    if (afterComment == UNKNOWN) {
+                        return true;
+                    }
+                    i = afterComment == i ? i + 1 : afterComment;
+                    break;
+                }
+                case '"':
+                case '\'': {
+                    i = skipLiteral(i);
+                    if (i == UNKNOWN) {
+                        return true;
+                    }
+                    break;
+                }
+                case '\\':
+                    // a Unicode escape
+                    return true;
+                case '-':
+                    if (lambdas && i + 1 < end && charAt(i + 1) == '>') {
+                        return true;
+                    }
+                    i++;
+                    break;
+                case '(':
+                    parenthesisDepth++;
+                    i++;
+                    break;
+                case ')':
+                    if (pendingCreations > 0 && argumentDepths[pendingCreations - 1] == parenthesisDepth) {
+                        pendingCreations--;
+                        int next = skipWhitespaceAndComments(i + 1);
+                        if (next == UNKNOWN || (next < end && charAt(next) == '{')) {
+                            return true;
+                        }
+                    }
+                    parenthesisDepth--;
+                    i++;
+                    break;
+                default:
+                    i++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Position of the first opening brace from the given position that is not in parentheses or brackets
+     * (the brace that opens the body of a class whose header starts there), -1 if it cannot be found
+     */
+    int openingBrace(int from) {
+        return find(from, OPENING_BRACE);
+    }
+
+    /**
+     * @return Position of the closing brace of the body the given position is in, -1 if it cannot be found
+     */
+    int closingBrace(int from) {
+        return find(from, CLOSING_BRACE);
+    }
+
+    /**
+     * @return Position of the semicolon that ends the declaration or statement the given position is in, -1 if it cannot be found
+     */
+    int semicolon(int from) {
+        return find(from, SEMICOLON);
+    }
+
+    /**
+     * @return Position of the last character of the expression that starts at the given position, -1 if it cannot be found.
+     * The expression ends before the first comma, semicolon or unmatched closing parenthesis, bracket or brace.
+     */
+    int expressionEnd(int from) {
+        return find(from, EXPRESSION_END);
+    }
+
+    /**
+     * Scans the text from the given position, keeping track of the nesting of parentheses, brackets and braces.
+     * Code is assumed to be well-formed: unbalanced nesting or a Unicode escape outside of a literal stop the scan.
+     */
+    private int find(int from, int target) {
+        if (from < 0 || from > length) {
+            return UNKNOWN;
+        }
+        this.end = length;
+        int depth = 0;
+        int lastCharacter = UNKNOWN;
+        int i = from;
+        while (i < end) {
+            char c = charAt(i);
+            switch (c) {
+                case '/': {
+                    int afterComment = skipComment(i);
+                    if (afterComment == UNKNOWN) {
+                        return UNKNOWN;
+                    }
+                    if (afterComment != i) {
+                        i = afterComment;
+                        continue;
+                    }
+                    break;
+                }
+                case '"':
+                case '\'': {
+                    int afterLiteral = skipLiteral(i);
+                    if (afterLiteral == UNKNOWN) {
+                        return UNKNOWN;
+                    }
+                    lastCharacter = afterLiteral - 1;
+                    i = afterLiteral;
+                    continue;
+                }
+                case '\\':
+                    return UNKNOWN;
+                case '(':
+                case '[':
+                    depth++;
+                    break;
+                case '{':
+                    if (target == OPENING_BRACE && depth == 0) {
+                        return i;
+                    }
+                    depth++;
+                    break;
+                case ')':
+                case ']':
+                case '}':
+                    if (depth == 0) {
+                        if (target == EXPRESSION_END) {
+                            return lastCharacter;
+                        }
+                        return c == '}' && target == CLOSING_BRACE ? i : UNKNOWN;
+                    }
+                    depth--;
+                    break;
+                case ',':
+                case ';':
+                    if (depth == 0) {
+                        if (target == EXPRESSION_END) {
+                            return lastCharacter;
+                        }
+                        if (c == ';' && target == SEMICOLON) {
+                            return i;
+                        }
+                    }
+                    break;
+                default:
+            }
+            if (!Character.isWhitespace(c)) {
+                lastCharacter = i;
+            }
+            i++;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Every class declaration has a body in braces, and every lambda an arrow:
+     * most bodies have neither, and are told apart with a loop that does not need to lex the text.
+     */
+    private boolean hasBraceOrArrow(int start, int end) {
+        // the body of a method, an initializer or a lambda may itself be a block
+        int from = base + start + (start < end && chars[base + start] == '{' ? 1 : 0);
+        int to = base + end;
+        for (int i = from; i < to; i++) {
+            char c = chars[i];
+            if (c == '{' || c == '\\' || (c == '-' && lambdas)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Position of the opening parenthesis of the arguments of the class instance creation
+     * whose type starts at the given position, {@link #NOT_CLASS_INSTANCE_CREATION} or {@link #UNKNOWN}
+     */
+    private int classInstanceCreationArguments(int typeStart) {
+        int angleBracketDepth = 0;
+        int i = typeStart;
+        while (true) {
+            i = skipWhitespaceAndComments(i);
+            if (i == UNKNOWN) {
+                return UNKNOWN;
+            }
+            if (i >= end) {
+                return NOT_CLASS_INSTANCE_CREATION;
+            }
+            char c = charAt(i);
+            if (c == '<') {
+                angleBracketDepth++;
+            } else if (c == '>') {
+                angleBracketDepth--;
+            } else if (c == '(' || c == '[') {
+                if (angleBracketDepth != 0) {
+                    return UNKNOWN;
+                }
+                return c == '(' ? i : NOT_CLASS_INSTANCE_CREATION;
+            } else if (c == '@' || c == '\\') {
+                // type annotations may have arguments of their own
+                return UNKNOWN;
+            } else if (c != '.' && c != ',' && c != '?' && c != '&' && !Character.isJavaIdentifierPart(c)) {
+                // a constructor reference
+                return NOT_CLASS_INSTANCE_CREATION;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * {@code record} is a contextual keyword, it only declares a record if followed by a name and a parenthesis or type parameters
+     */
+    private boolean isRecordDeclaration(int wordEnd) {
+        int nameStart = skipWhitespaceAndComments(wordEnd);
+        if (nameStart == UNKNOWN) {
+            return true;
+        }
+        if (nameStart >= end || !Character.isJavaIdentifierStart(charAt(nameStart))) {
+            return false;
+        }
+        int next = skipWhitespaceAndComments(wordEnd(nameStart));
+        if (next == UNKNOWN) {
+            return true;
+        }
+        return next < end && (charAt(next) == '(' || charAt(next) == '<');
+    }
+
+    private boolean isClassLiteral(int start, int wordStart) {
+        int i = wordStart - 1;
+        while (i >= start && Character.isWhitespace(charAt(i))) {
+            i--;
+        }
+        return i >= start && charAt(i) == '.';
+    }
+
+    private int skipWhitespaceAndComments(int from) {
+        int i = from;
+        while (i < end) {
+            char c = charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '/') {
+                int afterComment = skipComment(i);
+                if (afterComment == UNKNOWN || afterComment == i) {
+                    return afterComment;
+                }
+                i = afterComment;
+            } else if (c == '\\') {
+                return UNKNOWN;
+            } else {
+                return i;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * @return Position after the comment that starts at the given position, the same position if there is no comment there,
+     * or {@link #UNKNOWN} if the comment has a Unicode escape, which may end it
+     */
+    private int skipComment(int from) {
+        if (from + 1 >= end) {
+            return from;
+        }
+        char next = charAt(from + 1);
+        if (next == '/') {
+            for (int i = from + 2; i < end; i++) {
+                char c = charAt(i);
+                if (c == '\n' || c == '\r') {
+                    return i + 1;
+                }
+                if (c == '\\') {
+                    return UNKNOWN;
+                }
+            }
+            return end;
+        }
+        if (next == '*') {
+            for (int i = from + 2; i < end; i++) {
+                char c = charAt(i);
+                if (c == '*' && i + 1 < end && charAt(i + 1) == '/') {
+                    return i + 2;
+                }
+                if (c == '\\') {
+                    return UNKNOWN;
+                }
+            }
+            return end;
+        }
+        return from;
+    }
+
+    /**
+     * @return Position after the string, text block or character literal that starts at the given position,
+     * or {@link #UNKNOWN} if the literal has a Unicode escape, which may end it
+     */
+    private int skipLiteral(int from) {
+        char quote = charAt(from);
+        boolean textBlock = quote == '"' && from + 2 < end && charAt(from + 1) == '"' && charAt(from + 2) == '"';
+        int i = textBlock ? from + 3 : from + 1;
+        while (i < end) {
+            char c = charAt(i);
+            if (c == '\\') {
+                if (i + 1 < end && charAt(i + 1) == 'u') {
+                    return UNKNOWN;
+                }
+                i += 2;
+            } else if (c == quote) {
+                if (!textBlock) {
+                    return i + 1;
+                }
+                if (i + 2 < end && charAt(i + 1) == '"' && charAt(i + 2) == '"') {
+                    return i + 3;
+                }
+                i++;
+            } else if (!textBlock && (c == '\n' || c == '\r')) {
+                // unterminated literal, the code does not compile anyway
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return end;
+    }
+
+    private int wordEnd(int wordStart) {
+        int i = wordStart + 1;
+        while (i < end) {
+            char c = charAt(i);
+            if (c < 128 ? ASCII_CLASSES[c] != IDENTIFIER_START && ASCII_CLASSES[c] != IDENTIFIER_PART : !Character.isJavaIdentifierPart(c)) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private char charAt(int position) {
+        return chars[base + position];
+    }
+
+    private boolean isWord(int wordStart, int wordEnd, String word) {
+        if (wordEnd - wordStart != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (charAt(wordStart + i) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void pushCreation(int parenthesisDepth) {
+        if (pendingCreations == argumentDepths.length) {
+            int[] grown = new int[argumentDepths.length * 2];
+            System.arraycopy(argumentDepths, 0, grown, 0, pendingCreations);
+            argumentDepths = grown;
+        }
+        argumentDepths[pendingCreations++] = parenthesisDepth;
+    }
+}
@@ -0,0 +1,152 @@
+package datadog.compiler;
+
+import com.sun.tools.javac.tree.EndPosTable;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.TreeInfo;
+import com.sun.tools.javac.util.Position;
+
+/**
+ * Finds where the declarations of a compilation unit end.
+ * <p>
+ * javac can record the end position of every tree in the end position table of the compilation unit,
+ * at the cost of an entry per tree for as long as the trees are alive.
+ * When the table is not available (or has no entry for a declaration), ends are worked out from what is cheap to keep:
+ * blocks record the position of their closing brace in the tree,
+ * and the rest is found in the source text by {@link DeclarationPrescanner}, starting as close to the end as the trees allow:
+ * the closing brace of a class body is searched for from the end of its last member,
+ * the semicolon of a method without a body from its name, and the end of an expression lambda from the start of its body.
+ * <p>
+ * Positions are those of the last character of declarations, or the position after it when they come from the table,
+ * which is on the same line.
+ */
+final class EndPositions {
+
+    /**
+     * Table the end positions are replaced with when they are discarded, it records nothing
+     */
+    static final EndPosTable DISCARDED = new EndPosTable() {
+        @Override
+        public int getEndPos(JCTree tree) {
+            return Position.NOPOS;
+        }
+
+        @Override
+        public void storeEnd(JCTree tree, int endpos) {
+        }
+
+        @Override
+        public int replaceTree(JCTree oldtree, JCTree newtree) {
+            return Position.NOPOS;
+        }
+    };
+
+    /**
+     * {@code null} if the end positions are not available
+     */
+    private final EndPosTable table;
+    /**
+     * {@code null} if the source text is not available, in which case only the ends of blocks are known without the table
+     */
+    private final CharSequence source;
+    private DeclarationPrescanner scanner;
+
+    EndPositions(EndPosTable table, CharSequence source) {
+        this.table = table != DISCARDED ? table : null;
+        this.source = source;
+    }
+
+    static boolean isDiscarded(EndPosTable table) {
+        return table == null || table == DISCARDED;
+    }
+
+    int classEnd(JCTree.JCClassDecl classDeclaration) {
+        if (table != null) {
+            int endPosition = classDeclaration.getEndPosition(table);
+            if (endPosition != Position.NOPOS) {
+                return endPosition;
+            }
+        }
+        DeclarationPrescanner scanner = scanner();
+        if (scanner == null) {
+            return Position.NOPOS;
+        }
+        // anonymous classes start at their opening brace, other classes at their keyword
+        int bodyStart = scanner.openingBrace(classDeclaration.pos);
+        if (bodyStart == Position.NOPOS) {
+            return Position.NOPOS;
+        }
+        // the fields of record components come before the body
+        JCTree lastMember = null;
+        int lastMemberStart = bodyStart;
+        for (JCTree member : classDeclaration.defs) {
+            int memberStart = TreeInfo.getStartPos(member);
+            if (memberStart > lastMemberStart) {
+                lastMember = member;
+                lastMemberStart = memberStart;
+            }
+        }
+        int from;
+        if (lastMember == null) {
+            from = bodyStart + 1;
+        } else {
+            int lastMemberEnd = blockEnd(lastMember);
+            from = lastMemberEnd != Position.NOPOS ? lastMemberEnd + 1 : lastMemberStart;
+        }
+        return scanner.closingBrace(from);
+    }
+
+    int methodEnd(JCTree.JCMethodDecl methodDeclaration) {
+        if (table != null) {
+            int endPosition = methodDeclaration.getEndPosition(table);
+            if (endPosition != Position.NOPOS) {
+                return endPosition;
+            }
+        }
+        if (methodDeclaration.body != null) {
+            return methodDeclaration.body.endpos;
+        }
+        DeclarationPrescanner scanner = scanner();
+        return scanner != null ? scanner.semicolon(methodDeclaration.pos) : Position.NOPOS;
+    }
+
+    int lambdaEnd(JCTree.JCLambda lambda) {
+        if (table != null) {
+            int endPosition = lambda.getEndPosition(table);
+            if (endPosition != Position.NOPOS) {
+                return endPosition;
+            }
+        }
+        if (lambda.body instanceof JCTree.JCBlock) {
+            return ((JCTree.JCBlock) lambda.body).endpos;
+        }
+        DeclarationPrescanner scanner = scanner();
+        return scanner != null ? scanner.expressionEnd(lambda.body.getStartPosition()) : Position.NOPOS;
+    }
+
+    /**
+     * @return End of a method body, an initializer or a lambda body, {@link Position#NOPOS} if it is an expression that is not in the table
+     */
+    int bodyEnd(JCTree body) {
+        if (table != null) {
+            return body.getEndPosition(table);
+        }
+        return blockEnd(body);
+    }
+
+    private static int blockEnd(JCTree tree) {
+        if (tree instanceof JCTree.JCBlock) {
+            return ((JCTree.JCBlock) tree).endpos;
+        }
+        if (tree instanceof JCTree.JCMethodDecl && ((JCTree.JCMethodDecl) tree).body != null) {
+            return ((JCTree.JCMethodDecl) tree).body.endpos;
+        }
+        return Position.NOPOS;
+    }
+
+    private DeclarationPrescanner scanner() {
+        if (scanner == null && source != null) {
+            scanner = new DeclarationPrescanner(source, false);
+        }
+        return scanner;
+    }
+}
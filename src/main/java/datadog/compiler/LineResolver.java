@@ -0,0 +1,82 @@
+package datadog.compiler;
+
+import com.sun.source.tree.LineMap;
+
+/**
+ * Resolves source positions to line numbers, remembering the line of the last resolved position.
+ * <p>
+ * Tree scanners visit declarations in source order, so consecutive positions are usually close to each other.
+ * A position on the cursor line is resolved with two comparisons,
+ * other positions are found by galloping from the cursor (in either direction) and then binary searching the bracketed lines,
+ * which costs a logarithm of the distance to the cursor rather than of the file size.
+ * <p>
+ * One instance is used per compilation unit, instances are not thread-safe.
+ */
+final class LineResolver {
+
+    private static final int FIRST_LINE = 1;
+
+    private final LineMap lineMap;
+    private final long lastLine;
+
+    private long line = FIRST_LINE;
+    private long lineStart;
+    private long nextLineStart;
+
+    LineResolver(LineMap lineMap) {
+        this.lineMap = lineMap;
+        this.lastLine = lineMap.getLineNumber(Integer.MAX_VALUE);
+        this.lineStart = lineMap.getStartPosition(FIRST_LINE);
+        this.nextLineStart = startOf(FIRST_LINE + 1);
+    }
+
+    /**
+     * @param position Source position
+     * @return Line of the position, as returned by {@link LineMap#getLineNumber(long)}
+     */
+    int getLineNumber(long position) {
+        if (position >= lineStart && position < nextLineStart) {
+            return (int) line;
+        }
+        if (position < 0) {
+            // NOPOS, left to the line map
+            return (int) lineMap.getLineNumber(position);
+        }
+
+        // bracket the line between lo (starts at or before the position) and hi (starts after it)
+        long lo;
+        long hi;
+        if (position >= lineStart) {
+            lo = line;
+            hi = line + 1;
+            for (long step = 1; startOf(hi) <= position; step <<= 1) {
+                lo = hi;
+                hi = Math.min(hi + step, lastLine + 1);
+            }
+        } else {
+            hi = line;
+            lo = line - 1;
+            for (long step = 1; lineMap.getStartPosition(lo) > position; step <<= 1) {
+                hi = lo;
+                lo = Math.max(lo - step, FIRST_LINE);
+            }
+        }
+        while (hi - lo > 1) {
+            long mid = (lo + hi) >>> 1;
+            if (lineMap.getStartPosition(mid) <= position) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+
+        line = lo;
+        lineStart = lineMap.getStartPosition(lo);
+        nextLineStart = startOf(lo + 1);
+        return (int) line;
+    }
+
+    private long startOf(long line) {
+        return line <= lastLine ? lineMap.getStartPosition(line) : Long.MAX_VALUE;
+    }
+}
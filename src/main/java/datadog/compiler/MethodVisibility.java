@@ -0,0 +1,35 @@
+package datadog.compiler;
+
+import com.sun.tools.javac.code.Flags;
+import java.util.Locale;
+
+/**
+ * Least visibility a method needs to have its lines recorded, set with the {@code methodVisibility} plugin argument.
+ * Visibility is taken from the declared modifiers, so interface methods without an explicit modifier count as package-private.
+ */
+enum MethodVisibility {
+    PUBLIC,
+    PROTECTED,
+    PACKAGE,
+    ALL;
+
+    boolean accepts(long flags) {
+        switch (this) {
+            case PUBLIC:
+                return (flags & Flags.PUBLIC) != 0;
+            case PROTECTED:
+                return (flags & (Flags.PUBLIC | Flags.PROTECTED)) != 0;
+            case PACKAGE:
+                return (flags & Flags.PRIVATE) == 0;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is not one of {@code public}, {@code protected}, {@code package}, {@code all}
+     */
+    static MethodVisibility parse(String value) {
+        return valueOf(value.toUpperCase(Locale.ROOT));
+    }
+}
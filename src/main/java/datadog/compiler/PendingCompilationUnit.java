@@ -0,0 +1,146 @@
+package datadog.compiler;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.tools.javac.tree.EndPosTable;
+import com.sun.tools.javac.tree.JCTree;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.tools.JavaFileObject;
+
+/**
+ * A parsed compilation unit whose annotations have not been injected yet.
+ * <p>
+ * Working out the annotations of a unit (hashing its source, computing the lines of its declarations)
+ * only reads its trees, its line map and its end positions, so the units parsed in a compilation round
+ * are collected and computed together, in parallel if there are several threads.
+ * The annotation trees are then created and attached one unit at a time on the javac thread, before the units are entered.
+ * <p>
+ * Everything that goes through javac's shared state (the file manager, the annotation templates) is prepared
+ * when the unit is parsed, on the javac thread.
+ */
+final class PendingCompilationUnit {
+
+    private final CompilationUnitTree compilationUnit;
+    private final AnnotationTemplates templates;
+    private final PluginOptions options;
+    private final JCTree.JCAnnotation sourcePathAnnotation;
+    private final JCTree.JCExpression sourceLinesAnnotationType;
+    /**
+     * {@code null} if the source cannot be read
+     */
+    private final CharSequence source;
+
+    /**
+     * Counters of this unit, added to those of the compilation once it is attached
+     */
+    final PluginStatistics statistics = new PluginStatistics();
+
+    private AnnotationsInjectingClassVisitor visitor;
+    /**
+     * Error thrown while computing the annotations, {@code null} if there was none
+     */
+    private Throwable failure;
+
+    PendingCompilationUnit(CompilationUnitTree compilationUnit,
+                           AnnotationTemplates templates,
+                           PluginOptions options,
+                           JCTree.JCAnnotation sourcePathAnnotation,
+                           JCTree.JCExpression sourceLinesAnnotationType,
+                           CharSequence source) {
+        this.compilationUnit = compilationUnit;
+        this.templates = templates;
+        this.options = options;
+        this.sourcePathAnnotation = sourcePathAnnotation;
+        this.sourceLinesAnnotationType = sourceLinesAnnotationType;
+        this.source = source;
+    }
+
+    JavaFileObject getSourceFile() {
+        return compilationUnit.getSourceFile();
+    }
+
+    /**
+     * Works out the annotations of the unit without modifying its trees, can be called from any thread.
+     *
+     * @param sourceHasher {@code null} if source hashes are disabled
+     */
+    void compute(SourceHasher sourceHasher) {
+        try {
+            Integer sourceHash = null;
+            if (sourceHasher != null && source != null) {
+                long hashStart = nanoTime();
+                sourceHash = sourceHasher.hash(source);
+                statistics.sourceHashNanos += nanoTime() - hashStart;
+            }
+
+            long start = nanoTime();
+            EndPosTable endPositions;
+            if (compilationUnit instanceof JCTree.JCCompilationUnit) {
+                JCTree.JCCompilationUnit jcCompilationUnit = (JCTree.JCCompilationUnit) compilationUnit;
+                endPositions = jcCompilationUnit.endPositions;
+            } else {
+                endPositions = null;
+            }
+
+            visitor = new AnnotationsInjectingClassVisitor(
+                    templates, sourcePathAnnotation, sourceHash, sourceLinesAnnotationType, options.sourceLinesAnnotationDisabled, options.compactSourceLines,
+                    options.methodVisibility, options.lambdaLines, options.abiStable, options.topLevelSourcePath, compilationUnit.getLineMap(), endPositions, source, statistics);
+            visitor.visit(compilationUnit);
+            statistics.treeVisitorNanos += nanoTime() - start;
+
+        } catch (Throwable t) {
+            visitor = null;
+            failure = t;
+        }
+    }
+
+    /**
+     * Attaches the computed annotations to the trees, must be called on the javac thread.
+     *
+     * @throws Throwable The error thrown while computing the annotations, if any
+     */
+    void attach() throws Throwable {
+        if (failure != null) {
+            throw failure;
+        }
+        long start = nanoTime();
+        visitor.attach();
+        statistics.treeVisitorNanos += nanoTime() - start;
+    }
+
+    /**
+     * @return Current time for the timings of the statistics, {@code 0} if they are not collected
+     */
+    private long nanoTime() {
+        return options.statistics ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Computes the given units on the threads of the pool, each thread taking the next unit that is not computed yet,
+     * and returns once all of them are.
+     */
+    static void computeAll(final List<PendingCompilationUnit> units, ForkJoinPool pool, final boolean sourceHash) {
+        final AtomicInteger nextUnit = new AtomicInteger();
+        int workers = Math.min(pool.getParallelism(), units.size());
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            tasks.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // hashers are not thread-safe, every worker has its own
+                    SourceHasher sourceHasher = sourceHash ? new SourceHasher() : null;
+                    int unit;
+                    while ((unit = nextUnit.getAndIncrement()) < units.size()) {
+                        units.get(unit).compute(sourceHasher);
+                    }
+                }
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+}
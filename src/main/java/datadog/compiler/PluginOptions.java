@@ -0,0 +1,200 @@
+package datadog.compiler;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Arguments passed to the plugin after the {@code -Xplugin} clause.
+ * Flags are given by name, valued options as {@code name=value}.
+ * Filter options can be repeated.
+ * Invalid arguments do not fail the compilation, they are reported as warnings and ignored.
+ */
+final class PluginOptions {
+
+    final boolean sourceLinesAnnotationDisabled;
+    final boolean compactSourceLines;
+    final MethodVisibility methodVisibility;
+    final boolean lambdaLines;
+    final boolean abiStable;
+    final boolean sourceIndex;
+    final boolean sourceHash;
+    final boolean topLevelSourcePath;
+    final boolean discardEndPositions;
+
+    /**
+     * Absolute normalized source root, {@code null} if source paths are absolute
+     */
+    final Path sourceRoot;
+
+    /**
+     * Number of threads that compute the annotations of parsed compilation units, {@code 1} (the default) to compute them on the javac thread.
+     * Build tools often run several compilations at once, so extra threads are opt-in.
+     */
+    final int threads;
+
+    final boolean statistics;
+
+    /**
+     * File the statistics are written to as JSON, {@code null} if they are only logged
+     */
+    final Path statisticsFile;
+
+    final SourceFilter sourceFilter;
+
+    final List<String> warnings;
+
+    private PluginOptions(boolean sourceLinesAnnotationDisabled,
+                          boolean compactSourceLines,
+                          MethodVisibility methodVisibility,
+                          boolean lambdaLines,
+                          boolean abiStable,
+                          boolean sourceIndex,
+                          boolean sourceHash,
+                          boolean topLevelSourcePath,
+                          boolean discardEndPositions,
+                          Path sourceRoot,
+                          int threads,
+                          boolean statistics,
+                          Path statisticsFile,
+                          SourceFilter sourceFilter,
+                          List<String> warnings) {
+        this.sourceLinesAnnotationDisabled = sourceLinesAnnotationDisabled;
+        this.compactSourceLines = compactSourceLines;
+        this.methodVisibility = methodVisibility;
+        this.lambdaLines = lambdaLines;
+        this.abiStable = abiStable;
+        this.sourceIndex = sourceIndex;
+        this.sourceHash = sourceHash;
+        this.topLevelSourcePath = topLevelSourcePath;
+        this.discardEndPositions = discardEndPositions;
+        this.sourceRoot = sourceRoot;
+        this.threads = threads;
+        this.statistics = statistics;
+        this.statisticsFile = statisticsFile;
+        this.sourceFilter = sourceFilter;
+        this.warnings = warnings;
+    }
+
+    static PluginOptions parse(String... arguments) {
+        boolean sourceLinesAnnotationDisabled = false;
+        boolean compactSourceLines = false;
+        MethodVisibility methodVisibility = MethodVisibility.PUBLIC;
+        boolean lambdaLines = false;
+        boolean abiStable = false;
+        boolean sourceIndex = false;
+        boolean sourceHash = false;
+        boolean topLevelSourcePath = false;
+        boolean discardEndPositions = false;
+        Path sourceRoot = null;
+        int threads = 1;
+        boolean statistics = false;
+        Path statisticsFile = null;
+        SourceFilter sourceFilter = new SourceFilter();
+        List<String> warnings = new ArrayList<>();
+
+        for (String argument : arguments) {
+            int separator = argument.indexOf('=');
+            String name = separator >= 0 ? argument.substring(0, separator) : argument;
+            String value = separator >= 0 ? argument.substring(separator + 1) : null;
+            switch (name) {
+                case DatadogCompilerPlugin.DISABLE_SOURCE_LINES_ANNOTATION:
+                    sourceLinesAnnotationDisabled = true;
+                    break;
+                case DatadogCompilerPlugin.COMPACT_SOURCE_LINES:
+                    compactSourceLines = true;
+                    break;
+                case DatadogCompilerPlugin.METHOD_VISIBILITY:
+                    if (value == null || value.isEmpty()) {
+                        warnings.add("Ignoring " + name + " argument without a value, expected " + name + "=<public|protected|package|all>");
+                        break;
+                    }
+                    try {
+                        methodVisibility = MethodVisibility.parse(value);
+                    } catch (IllegalArgumentException e) {
+                        warnings.add("Ignoring invalid " + name + " value " + value + ", expected one of public, protected, package, all");
+                    }
+                    break;
+                case DatadogCompilerPlugin.LAMBDA_LINES:
+                    lambdaLines = true;
+                    break;
+                case DatadogCompilerPlugin.ABI_STABLE:
+                    abiStable = true;
+                    break;
+                case DatadogCompilerPlugin.SOURCE_INDEX:
+                    sourceIndex = true;
+                    break;
+                case DatadogCompilerPlugin.SOURCE_HASH:
+                    sourceHash = true;
+                    break;
+                case DatadogCompilerPlugin.TOP_LEVEL_SOURCE_PATH:
+                    topLevelSourcePath = true;
+                    break;
+                case DatadogCompilerPlugin.DISCARD_END_POSITIONS:
+                    discardEndPositions = true;
+                    break;
+                case DatadogCompilerPlugin.SOURCE_ROOT:
+                    if (value == null || value.isEmpty()) {
+                        warnings.add("Ignoring " + name + " argument without a value, expected " + name + "=<directory>");
+                    } else {
+                        sourceRoot = Paths.get(value).toAbsolutePath().normalize();
+                    }
+                    break;
+                case DatadogCompilerPlugin.THREADS:
+                    if (value == null || value.isEmpty()) {
+                        warnings.add("Ignoring " + name + " argument without a value, expected " + name + "=<number of threads>");
+                        break;
+                    }
+                    try {
+                        int parsedThreads = Integer.parseInt(value);
+                        if (parsedThreads < 1) {
+                            throw new NumberFormatException();
+                        }
+                        threads = parsedThreads;
+                    } catch (NumberFormatException e) {
+                        warnings.add("Ignoring invalid " + name + " value " + value + ", expected a positive number");
+                    }
+                    break;
+                case DatadogCompilerPlugin.STATISTICS:
+                    statistics = true;
+                    if (!DatadogTaskListener.isCompilationEventSupported()) {
+                        warnings.add(name + " argument has no effect: statistics are reported when the compilation finishes, which requires JDK 9+ javac");
+                    }
+                    if (value != null && !value.isEmpty()) {
+                        statisticsFile = Paths.get(value);
+                    }
+                    break;
+                case DatadogCompilerPlugin.INCLUDE:
+                case DatadogCompilerPlugin.EXCLUDE:
+                    if (value == null || value.isEmpty()) {
+                        warnings.add("Ignoring " + name + " argument without a value, expected " + name + "=<glob or regex pattern>");
+                        break;
+                    }
+                    try {
+                        if (name.equals(DatadogCompilerPlugin.INCLUDE)) {
+                            sourceFilter.include(value);
+                        } else {
+                            sourceFilter.exclude(value);
+                        }
+                    } catch (IllegalArgumentException e) {
+                        warnings.add("Ignoring invalid " + name + " pattern " + value + ": " + e.getMessage());
+                    }
+                    break;
+                case DatadogCompilerPlugin.INCLUDE_PACKAGE:
+                case DatadogCompilerPlugin.EXCLUDE_PACKAGE:
+                    if (value == null || value.isEmpty()) {
+                        warnings.add("Ignoring " + name + " argument without a value, expected " + name + "=<package>");
+                    } else if (name.equals(DatadogCompilerPlugin.INCLUDE_PACKAGE)) {
+                        sourceFilter.includePackage(value);
+                    } else {
+                        sourceFilter.excludePackage(value);
+                    }
+                    break;
+                default:
+                    warnings.add("Ignoring unknown argument " + argument);
+            }
+        }
+        return new PluginOptions(sourceLinesAnnotationDisabled, compactSourceLines, methodVisibility, lambdaLines, abiStable, sourceIndex, sourceHash, topLevelSourcePath, discardEndPositions, sourceRoot, threads, statistics, statisticsFile, sourceFilter, warnings);
+    }
+}
@@ -0,0 +1,122 @@
+package datadog.compiler;
+
+import com.sun.tools.javac.util.Log;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counters and timings of the work done by the plugin during a compilation,
+ * reported when the compilation finishes if the {@code stats} option is enabled.
+ * <p>
+ * Counters are a few field increments, so they are kept unconditionally,
+ * timings are only measured when the option is enabled (their fields stay 0 otherwise).
+ * Not thread-safe: compilation units computed in parallel count into instances of their own,
+ * which are added to the compilation's one on the javac thread.
+ */
+final class PluginStatistics {
+
+    long compilationUnits;
+    /**
+     * Compilation units rejected by the source filter
+     */
+    long compilationUnitsSkipped;
+    /**
+     * Compilation units that were already processed in the same compilation
+     */
+    long compilationUnitsRepeated;
+    long classesAnnotated;
+    long methodsAnnotated;
+    long lambdasAnnotated;
+    /**
+     * Annotations that were not injected because the code already had them
+     */
+    long annotationsSkipped;
+    /**
+     * Method bodies, initializers and lambda bodies that were not traversed as they cannot declare classes
+     */
+    long bodiesSkipped;
+    /**
+     * Time spent in tree visitors, summed over the threads that compute annotations
+     */
+    long treeVisitorNanos;
+    /**
+     * Time spent hashing sources, summed over the threads that compute annotations
+     */
+    long sourceHashNanos;
+    /**
+     * Time the javac thread spent waiting for the annotations of parsed compilation units to be computed and attached
+     */
+    long annotationStageNanos;
+    /**
+     * Time spent opening the unnamed module to the modules compiled with module-info files
+     */
+    long moduleOpeningNanos;
+    /**
+     * Time spent making {@code jdk.compiler} accessible to the plugin, which is done once per JVM when the plugin is loaded,
+     * so it is only counted by the first compilation that collects statistics
+     */
+    long compilerModuleSetupNanos;
+
+    void add(PluginStatistics other) {
+        compilationUnits += other.compilationUnits;
+        compilationUnitsSkipped += other.compilationUnitsSkipped;
+        compilationUnitsRepeated += other.compilationUnitsRepeated;
+        classesAnnotated += other.classesAnnotated;
+        methodsAnnotated += other.methodsAnnotated;
+        lambdasAnnotated += other.lambdasAnnotated;
+        annotationsSkipped += other.annotationsSkipped;
+        bodiesSkipped += other.bodiesSkipped;
+        treeVisitorNanos += other.treeVisitorNanos;
+        sourceHashNanos += other.sourceHashNanos;
+        annotationStageNanos += other.annotationStageNanos;
+        moduleOpeningNanos += other.moduleOpeningNanos;
+        compilerModuleSetupNanos += other.compilerModuleSetupNanos;
+    }
+
+    void report(Log log) {
+        log.printRawLines(Log.WriterKind.NOTICE, DatadogCompilerPlugin.NAME + " statistics: "
+                + compilationUnits + " compilation units visited, "
+                + compilationUnitsSkipped + " filtered out, "
+                + compilationUnitsRepeated + " already processed, "
+                + classesAnnotated + " classes, " + methodsAnnotated + " methods and " + lambdasAnnotated + " lambdas annotated, "
+                + annotationsSkipped + " annotations skipped as already present, "
+                + bodiesSkipped + " bodies skipped, "
+                + TimeUnit.NANOSECONDS.toMillis(treeVisitorNanos) + " ms in tree visitors, "
+                + TimeUnit.NANOSECONDS.toMillis(sourceHashNanos) + " ms hashing sources, "
+                + TimeUnit.NANOSECONDS.toMillis(annotationStageNanos) + " ms of javac time annotating, "
+                + TimeUnit.NANOSECONDS.toMillis(moduleOpeningNanos) + " ms in module opening, "
+                + TimeUnit.NANOSECONDS.toMillis(compilerModuleSetupNanos) + " ms making jdk.compiler accessible");
+    }
+
+    void writeJson(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(toJson());
+        }
+    }
+
+    String toJson() {
+        return "{"
+                + "\"compilationUnits\":" + compilationUnits + ","
+                + "\"compilationUnitsSkipped\":" + compilationUnitsSkipped + ","
+                + "\"compilationUnitsRepeated\":" + compilationUnitsRepeated + ","
+                + "\"classesAnnotated\":" + classesAnnotated + ","
+                + "\"methodsAnnotated\":" + methodsAnnotated + ","
+                + "\"lambdasAnnotated\":" + lambdasAnnotated + ","
+                + "\"annotationsSkipped\":" + annotationsSkipped + ","
+                + "\"bodiesSkipped\":" + bodiesSkipped + ","
+                + "\"treeVisitorNanos\":" + treeVisitorNanos + ","
+                + "\"sourceHashNanos\":" + sourceHashNanos + ","
+                + "\"annotationStageNanos\":" + annotationStageNanos + ","
+                + "\"moduleOpeningNanos\":" + moduleOpeningNanos + ","
+                + "\"compilerModuleSetupNanos\":" + compilerModuleSetupNanos
+                + "}\n";
+    }
+}
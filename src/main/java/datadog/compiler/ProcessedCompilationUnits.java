@@ -0,0 +1,41 @@
+package datadog.compiler;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.tools.javac.util.Context;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Compilation units already augmented by the plugin in a javac {@link Context}.
+ * <p>
+ * A tree must not be walked and annotated twice, which could happen if javac reported the same tree more than once
+ * (e.g. across annotation processing rounds) or if the plugin was registered more than once for the same task.
+ * Units are tracked by identity: trees do not override {@code equals}.
+ * References are weak, so that the set does not keep trees javac has released.
+ */
+final class ProcessedCompilationUnits {
+
+    private static final Context.Key<ProcessedCompilationUnits> KEY = new Context.Key<>();
+
+    static ProcessedCompilationUnits instance(Context context) {
+        ProcessedCompilationUnits instance = context.get(KEY);
+        if (instance == null) {
+            instance = new ProcessedCompilationUnits();
+            context.put(KEY, instance);
+        }
+        return instance;
+    }
+
+    private final Set<CompilationUnitTree> compilationUnits = Collections.newSetFromMap(new WeakHashMap<CompilationUnitTree, Boolean>());
+
+    private ProcessedCompilationUnits() {
+    }
+
+    /**
+     * @return {@code true} if the unit was not processed before
+     */
+    boolean add(CompilationUnitTree compilationUnit) {
+        return compilationUnits.add(compilationUnit);
+    }
+}
@@ -0,0 +1,98 @@
+package datadog.compiler;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which compilation units the plugin processes.
+ * <p>
+ * A unit is processed if its source path matches one of the include patterns (or there are none)
+ * and none of the exclude patterns, and if its package is under one of the included packages (or there are none)
+ * and under none of the excluded packages.
+ * Source paths are matched as they are recorded: relative to the source root if there is one, absolute otherwise.
+ * <p>
+ * Patterns are compiled once, when the options are parsed.
+ */
+final class SourceFilter {
+
+    private final List<PathMatcher> includes = new ArrayList<>();
+    private final List<PathMatcher> excludes = new ArrayList<>();
+    private final List<String> includedPackages = new ArrayList<>();
+    private final List<String> excludedPackages = new ArrayList<>();
+
+    /**
+     * @param pattern {@code glob:<pattern>} or {@code regex:<pattern>}, glob is assumed if there is no syntax prefix
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    void include(String pattern) {
+        includes.add(matcher(pattern));
+    }
+
+    /**
+     * @param pattern {@code glob:<pattern>} or {@code regex:<pattern>}, glob is assumed if there is no syntax prefix
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    void exclude(String pattern) {
+        excludes.add(matcher(pattern));
+    }
+
+    void includePackage(String packagePrefix) {
+        includedPackages.add(packagePrefix);
+    }
+
+    void excludePackage(String packagePrefix) {
+        excludedPackages.add(packagePrefix);
+    }
+
+    boolean isEmpty() {
+        return includes.isEmpty() && excludes.isEmpty() && includedPackages.isEmpty() && excludedPackages.isEmpty();
+    }
+
+    /**
+     * @param sourcePath  Source path as it is recorded in the annotations
+     * @param packageName Package of the compilation unit, empty for the unnamed package
+     */
+    boolean accepts(String sourcePath, String packageName) {
+        if (!includedPackages.isEmpty() && !isInAnyPackage(packageName, includedPackages)) {
+            return false;
+        }
+        if (isInAnyPackage(packageName, excludedPackages)) {
+            return false;
+        }
+        if (includes.isEmpty() && excludes.isEmpty()) {
+            return true;
+        }
+        Path path = FileSystems.getDefault().getPath(sourcePath);
+        if (!includes.isEmpty() && !matchesAny(path, includes)) {
+            return false;
+        }
+        return !matchesAny(path, excludes);
+    }
+
+    private static boolean matchesAny(Path path, List<PathMatcher> matchers) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isInAnyPackage(String packageName, List<String> packagePrefixes) {
+        for (String packagePrefix : packagePrefixes) {
+            if (packageName.startsWith(packagePrefix)
+                    && (packageName.length() == packagePrefix.length() || packageName.charAt(packagePrefix.length()) == '.')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static PathMatcher matcher(String pattern) {
+        String syntaxAndPattern = pattern.startsWith("glob:") || pattern.startsWith("regex:") ? pattern : "glob:" + pattern;
+        return FileSystems.getDefault().getPathMatcher(syntaxAndPattern);
+    }
+}
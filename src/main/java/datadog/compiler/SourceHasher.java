@@ -0,0 +1,50 @@
+package datadog.compiler;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Computes the {@link datadog.compiler.annotations.SourceHash} of a compilation unit.
+ * <p>
+ * The hash is computed over the source text javac has already decoded (file objects cache their content),
+ * re-encoded to UTF-8 in a fixed buffer, so the file is neither read again nor copied as a whole.
+ * CRC32 is used as it is available in every JDK and intrinsified by the JIT.
+ * Not thread-safe: every thread that computes annotations has its own instance.
+ */
+final class SourceHasher {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    int hash(CharSequence source) {
+        crc.reset();
+        encoder.reset();
+        // the content may be the buffer cached by the file manager, its position must not move
+        CharBuffer chars = source instanceof CharBuffer ? ((CharBuffer) source).duplicate() : CharBuffer.wrap(source);
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, buffer, true);
+            update();
+        } while (result.isOverflow());
+        do {
+            result = encoder.flush(buffer);
+            update();
+        } while (result.isOverflow());
+        return (int) crc.getValue();
+    }
+
+    private void update() {
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+}
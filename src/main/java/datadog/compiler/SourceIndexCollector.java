@@ -0,0 +1,268 @@
+package datadog.compiler;
+
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.LineMap;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.util.TreeScanner;
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.Types;
+import com.sun.tools.javac.tree.EndPosTable;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.Position;
+import datadog.compiler.utils.CompilerUtils;
+import datadog.compiler.utils.SourceIndex;
+import datadog.compiler.utils.SourceIndexWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import javax.lang.model.element.TypeElement;
+import javax.tools.FileObject;
+import javax.tools.JavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * Collects the source locations of all classes, methods and constructors of a compilation
+ * and writes them to a single {@link SourceIndex} resource in the class output directory.
+ * <p>
+ * Locations are recorded once a class has been analyzed, when its trees carry symbols.
+ * Binary names and method descriptors are only computed when the index is written at the end of the compilation
+ * (or, in JDK 8, once the top-level class is generated):
+ * by then javac has added synthetic constructor parameters (enum name and ordinal, outer instance, captured variables),
+ * so the descriptors match the ones in the class files.
+ */
+final class SourceIndexCollector {
+
+    private final Context context;
+    private final List<Location> locations = new ArrayList<>();
+
+    SourceIndexCollector(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Records the locations of a top-level class and everything declared in it.
+     */
+    void collect(JCTree.JCCompilationUnit compilationUnit, TypeElement typeElement, String sourcePath) {
+        for (JCTree definition : compilationUnit.defs) {
+            if (definition instanceof JCTree.JCClassDecl && ((JCTree.JCClassDecl) definition).sym == typeElement) {
+                EndPosTable table = compilationUnit.endPositions;
+                // without the table, the ends of classes are found in the source text
+                CharSequence source = EndPositions.isDiscarded(table) ? getSourceContent(compilationUnit) : null;
+                definition.accept(new LocationsScanner(sourcePath, compilationUnit.getLineMap(), new EndPositions(table, source)), null);
+            }
+        }
+    }
+
+    /**
+     * @return Text of the compilation unit, {@code null} if it cannot be read
+     */
+    private static CharSequence getSourceContent(JCTree.JCCompilationUnit compilationUnit) {
+        try {
+            return compilationUnit.getSourceFile().getCharContent(false);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes collected locations, merging them with the index left by a previous compilation if there is one.
+     */
+    void write() throws IOException {
+        write(locations);
+        locations.clear();
+    }
+
+    /**
+     * Writes collected locations of the top-level class that contains a generated class,
+     * merging them with the index written so far.
+     * <p>
+     * JDK 8 has no event for the end of the compilation, so the index is updated every time a top-level class is generated:
+     * its nested and local classes have been lowered along with it, while other classes may not have been yet.
+     */
+    void write(TypeElement generatedClass) throws IOException {
+        Symbol.ClassSymbol outermostClass = ((Symbol) generatedClass).outermostClass();
+        List<Location> generatedLocations = new ArrayList<>();
+        for (Iterator<Location> iterator = locations.iterator(); iterator.hasNext(); ) {
+            Location location = iterator.next();
+            if (location.symbol.outermostClass() == outermostClass) {
+                generatedLocations.add(location);
+                iterator.remove();
+            }
+        }
+        write(generatedLocations);
+    }
+
+    private void write(List<Location> locations) throws IOException {
+        if (locations.isEmpty()) {
+            return;
+        }
+
+        Types types = Types.instance(context);
+        SourceIndexWriter writer = new SourceIndexWriter();
+        for (Location location : locations) {
+            Symbol symbol = location.symbol;
+            if (symbol instanceof Symbol.ClassSymbol) {
+                writer.addClass(
+                        ((Symbol.ClassSymbol) symbol).flatname.toString(),
+                        location.sourcePath, location.startLine, location.endLine);
+            } else {
+                writer.addMethod(
+                        ((Symbol.ClassSymbol) symbol.owner).flatname.toString(),
+                        symbol.name.toString(),
+                        descriptor(symbol.externalType(types), types),
+                        location.sourcePath, location.startLine, location.endLine);
+            }
+        }
+
+        JavaFileManager fileManager = context.get(JavaFileManager.class);
+        SourceIndex previousIndex = readPreviousIndex(fileManager);
+        if (previousIndex != null) {
+            writer.merge(previousIndex);
+        }
+
+        FileObject indexFile = fileManager.getFileForOutput(StandardLocation.CLASS_OUTPUT, "", SourceIndex.RESOURCE_NAME, null);
+        try (OutputStream out = indexFile.openOutputStream()) {
+            writer.writeTo(out);
+        }
+    }
+
+    private static SourceIndex readPreviousIndex(JavaFileManager fileManager) {
+        try {
+            FileObject indexFile = fileManager.getFileForInput(StandardLocation.CLASS_OUTPUT, "", SourceIndex.RESOURCE_NAME);
+            if (indexFile == null) {
+                return null;
+            }
+            try (InputStream in = indexFile.openInputStream()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, read);
+                }
+                return SourceIndex.read(bytes.toByteArray());
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // no previous index, or one that cannot be read: it is overwritten
+            return null;
+        }
+    }
+
+    private static String descriptor(Type methodType, Types types) {
+        StringBuilder descriptor = new StringBuilder("(");
+        for (Type parameterType : methodType.getParameterTypes()) {
+            appendDescriptor(descriptor, parameterType, types);
+        }
+        descriptor.append(')');
+        appendDescriptor(descriptor, methodType.getReturnType(), types);
+        return descriptor.toString();
+    }
+
+    private static void appendDescriptor(StringBuilder descriptor, Type type, Types types) {
+        switch (type.getTag()) {
+            case BYTE:
+                descriptor.append('B');
+                break;
+            case CHAR:
+                descriptor.append('C');
+                break;
+            case DOUBLE:
+                descriptor.append('D');
+                break;
+            case FLOAT:
+                descriptor.append('F');
+                break;
+            case INT:
+                descriptor.append('I');
+                break;
+            case LONG:
+                descriptor.append('J');
+                break;
+            case SHORT:
+                descriptor.append('S');
+                break;
+            case BOOLEAN:
+                descriptor.append('Z');
+                break;
+            case VOID:
+                descriptor.append('V');
+                break;
+            case ARRAY:
+                descriptor.append('[');
+                appendDescriptor(descriptor, ((Type.ArrayType) type).elemtype, types);
+                break;
+            case CLASS:
+                String className = ((Symbol.ClassSymbol) type.tsym).flatname.toString();
+                descriptor.append('L').append(className.replace('.', '/')).append(';');
+                break;
+            default:
+                Type erasure = types.erasure(type);
+                if (erasure == type) {
+                    throw new IllegalArgumentException("Unexpected type in method signature: " + type);
+                }
+                appendDescriptor(descriptor, erasure, types);
+        }
+    }
+
+    private final class LocationsScanner extends TreeScanner<Void, Void> {
+        private final String sourcePath;
+        private final LineResolver lines;
+        private final EndPositions endPositions;
+
+        private LocationsScanner(String sourcePath, LineMap lineMap, EndPositions endPositions) {
+            this.sourcePath = sourcePath;
+            this.lines = new LineResolver(lineMap);
+            this.endPositions = endPositions;
+        }
+
+        @Override
+        public Void visitClass(ClassTree node, Void aVoid) {
+            JCTree.JCClassDecl classDeclaration = (JCTree.JCClassDecl) node;
+            if (classDeclaration.sym != null) {
+                int endPosition = endPositions.classEnd(classDeclaration);
+                add(classDeclaration.sym, classDeclaration.mods, classDeclaration, endPosition);
+            }
+            return super.visitClass(node, aVoid);
+        }
+
+        @Override
+        public Void visitMethod(MethodTree node, Void aVoid) {
+            JCTree.JCMethodDecl methodDeclaration = (JCTree.JCMethodDecl) node;
+            if (methodDeclaration.sym != null && (methodDeclaration.mods.flags & Flags.GENERATEDCONSTR) == 0) {
+                int endPosition = endPositions.methodEnd(methodDeclaration);
+                add(methodDeclaration.sym, methodDeclaration.mods, methodDeclaration, endPosition);
+            }
+            return super.visitMethod(node, aVoid);
+        }
+
+        private void add(Symbol symbol, JCTree.JCModifiers modifiers, JCTree declaration, int endPosition) {
+            int startPosition = modifiers.getStartPosition();
+            if (startPosition == Position.NOPOS) {
+                startPosition = declaration.getStartPosition();
+            }
+            int startLine = startPosition != Position.NOPOS ? lines.getLineNumber(startPosition) : CompilerUtils.LINE_UNKNOWN;
+            int endLine = endPosition != Position.NOPOS ? lines.getLineNumber(endPosition) : CompilerUtils.LINE_UNKNOWN;
+            locations.add(new Location(symbol, sourcePath, startLine, endLine));
+        }
+    }
+
+    private static final class Location {
+        private final Symbol symbol;
+        private final String sourcePath;
+        private final int startLine;
+        private final int endLine;
+
+        private Location(Symbol symbol, String sourcePath, int startLine, int endLine) {
+            this.symbol = symbol;
+            this.sourcePath = sourcePath;
+            this.startLine = startLine;
+            this.endLine = endLine;
+        }
+    }
+}
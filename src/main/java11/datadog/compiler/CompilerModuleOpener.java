@@ -1,7 +1,21 @@
 package datadog.compiler;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
 public class CompilerModuleOpener {
 
+    /**
+     * Packages of {@code jdk.compiler} module that the plugin uses
+     */
+    private static final List<String> REQUIRED_PACKAGES = Arrays.asList(
+            "com.sun.tools.javac.api",
+            "com.sun.tools.javac.code",
+            "com.sun.tools.javac.comp",
+            "com.sun.tools.javac.tree",
+            "com.sun.tools.javac.util");
+
     /**
      * Exports {@code jdk.compiler} module to unnamed modules.
      * <p>
@@ -14,8 +28,16 @@ public class CompilerModuleOpener {
      *     <li>Move the plugin classes to a named module and specify that the module requires access to JDK compiler (it looks like some of the APIs we need to access are not exported, so this solution is unlikely to work).</li>
      *     <li>Use the hack implemented in this method (it modifies an internal field in a core JDK class with the use of reflection, to add the necessary {@code --add-exports} as if they were provided in the javac command).</li>
      * </ul>
+     * Nothing is done if the packages are already exported
+     * (the {@code --add-exports} flags were given, the Datadog Java agent has exported them, or JDK 11-15 permits illegal access).
+     * Otherwise the lightest available strategy is used: {@link UnsafeModuleOpener}, which only opens the required packages
+     * and is not used from JDK 24, then burningwave.
      */
     public static void setup() {
+        Optional<Module> compilerModule = ModuleLayer.boot().findModule("jdk.compiler");
+        if (compilerModule.isEmpty() || isExported(compilerModule.get(), CompilerModuleOpener.class.getModule())) {
+            return;
+        }
         // On Java 26+, burningwave's StaticComponentContainer fails to initialize because its
         // transitive dependency (jvm-driver) uses a Class.forName0 signature that was removed
         // in JDK 26 (JEP 471/498). The failure prints a noisy stacktrace to stderr even though
@@ -26,9 +48,21 @@ public class CompilerModuleOpener {
         if (Runtime.version().feature() >= 26) {
             return;
         }
+        if (UnsafeModuleOpener.openToAllUnnamed(compilerModule.get(), REQUIRED_PACKAGES)) {
+            return;
+        }
         // Burningwave references are isolated in a separate class so that the JVM
         // class verifier does not resolve them when CompilerModuleOpener is loaded.
         // This prevents StaticComponentContainer.<clinit> from running on JDK 26+.
         BurningwaveModuleOpener.open();
     }
+
+    static boolean isExported(Module compilerModule, Module pluginModule) {
+        for (String packageName : REQUIRED_PACKAGES) {
+            if (!compilerModule.isExported(packageName, pluginModule)) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
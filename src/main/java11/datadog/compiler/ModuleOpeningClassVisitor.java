@@ -5,9 +5,12 @@ import com.sun.source.tree.ModuleTree;
 import com.sun.source.util.TreeScanner;
 import com.sun.tools.javac.comp.Modules;
 import com.sun.tools.javac.util.Context;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Field;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Opens unnamed module (which contains the injected source path annotation)
@@ -18,36 +21,83 @@ import java.util.concurrent.ConcurrentMap;
  * The goal is to avoid compiler warnings saying that source path annotation class
  * cannot be found when referenced by a class in a different module
  * (some projects are set up in a way that cause build failure whenever a compiler warning is encountered).
+ * <p>
+ * The modules processed so far are tracked per javac {@link Context}:
+ * every compilation has its own {@link Modules} instance whose option needs to be augmented,
+ * even if an earlier compilation in the same JVM (e.g. a build daemon) has seen a module with the same name.
  */
 public class ModuleOpeningClassVisitor extends TreeScanner<Void, Void> {
 
-    private static final ConcurrentMap<String, Boolean> PROCESSED_MODULES = new ConcurrentHashMap<>();
+    private static final Context.Key<Set<String>> PROCESSED_MODULES_KEY = new Context.Key<>();
 
     private final Modules modules;
+    private final Set<String> processedModules;
 
     public ModuleOpeningClassVisitor(Context context) {
         modules = Modules.instance(context);
+
+        Set<String> processedModules = context.get(PROCESSED_MODULES_KEY);
+        if (processedModules == null) {
+            processedModules = new HashSet<>();
+            context.put(PROCESSED_MODULES_KEY, processedModules);
+        }
+        this.processedModules = processedModules;
     }
 
     @Override
     public Void visitModule(ModuleTree node, Void unused) {
         ExpressionTree nodeName = node.getName();
-        PROCESSED_MODULES.computeIfAbsent(nodeName.toString(), this::augmentAddReadsOption);
+        String moduleName = nodeName.toString();
+        if (processedModules.add(moduleName)) {
+            augmentAddReadsOption(moduleName);
+        }
         return super.visitModule(node, unused);
     }
 
-    private boolean augmentAddReadsOption(String moduleName) {
+    private void augmentAddReadsOption(String moduleName) {
+        if (AddReadsOption.GETTER == null) {
+            return;
+        }
         try {
-            Field addReadsOptField = Modules.class.getDeclaredField("addReadsOpt");
-            addReadsOptField.setAccessible(true);
-
-            String currentValue = (String) addReadsOptField.get(modules);
+            String currentValue = (String) AddReadsOption.GETTER.invokeExact(modules);
             String newValue = (currentValue != null ? currentValue + '\0' : "") + String.format("%s=ALL-UNNAMED", moduleName);
 
-            addReadsOptField.set(modules, newValue);
-        } catch (Exception e) {
+            AddReadsOption.SETTER.invokeExact(modules, newValue);
+        } catch (Throwable e) {
             // ignore
         }
-        return true;
+    }
+
+    /**
+     * Accessors of the {@code Modules.addReadsOpt} field, looked up once per JVM.
+     * Both are {@code null} if the field cannot be accessed.
+     */
+    private static final class AddReadsOption {
+        private static final MethodHandle GETTER;
+        private static final MethodHandle SETTER;
+
+        static {
+            MethodHandle getter = null;
+            MethodHandle setter = null;
+            try {
+                Module compilerModule = Modules.class.getModule();
+                String packageName = Modules.class.getPackageName();
+                if (!compilerModule.isOpen(packageName, AddReadsOption.class.getModule())) {
+                    // exported but not opened, e.g. with --add-exports flags: the package is only opened when a module is compiled
+                    UnsafeModuleOpener.openToAllUnnamed(compilerModule, Collections.singletonList(packageName));
+                }
+
+                Field addReadsOptField = Modules.class.getDeclaredField("addReadsOpt");
+                addReadsOptField.setAccessible(true);
+
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                getter = lookup.unreflectGetter(addReadsOptField);
+                setter = lookup.unreflectSetter(addReadsOptField);
+            } catch (Exception e) {
+                // ignore
+            }
+            GETTER = getter;
+            SETTER = setter;
+        }
     }
 }
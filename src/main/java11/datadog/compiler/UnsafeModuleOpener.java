@@ -0,0 +1,60 @@
+package datadog.compiler;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.Collection;
+
+/**
+ * Opens module packages to all unnamed modules using the JDK's trusted method handles lookup,
+ * which is read with {@code sun.misc.Unsafe}.
+ * <p>
+ * This is a couple of reflective calls, as opposed to burningwave,
+ * whose bootstrap initializes a large component container and is noticeable in short compilations.
+ * <p>
+ * {@code sun.misc.Unsafe} is only accessed reflectively, so that this class compiles without internal API warnings.
+ * Starting with JDK 24 its memory access methods print a warning the first time they are used (JEP 498),
+ * so the lookup is not read there.
+ */
+final class UnsafeModuleOpener {
+
+    /**
+     * First JDK version whose {@code sun.misc.Unsafe} memory access methods print a warning
+     */
+    private static final int UNSAFE_WARNING_VERSION = 24;
+
+    private UnsafeModuleOpener() {
+    }
+
+    /**
+     * @return {@code true} if all the given packages of the module were opened
+     */
+    static boolean openToAllUnnamed(Module module, Collection<String> packageNames) {
+        if (Runtime.version().feature() >= UNSAFE_WARNING_VERSION) {
+            return false;
+        }
+        try {
+            MethodHandle addOpensToAllUnnamed = trustedLookup().findVirtual(
+                    Module.class, "implAddOpensToAllUnnamed", MethodType.methodType(void.class, String.class));
+            for (String packageName : packageNames) {
+                addOpensToAllUnnamed.invokeExact(module, packageName);
+            }
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    private static MethodHandles.Lookup trustedLookup() throws ReflectiveOperationException {
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+        unsafeField.setAccessible(true);
+        Object unsafe = unsafeField.get(null);
+
+        Field implLookupField = MethodHandles.Lookup.class.getDeclaredField("IMPL_LOOKUP");
+        Object base = unsafeClass.getMethod("staticFieldBase", Field.class).invoke(unsafe, implLookupField);
+        long offset = (Long) unsafeClass.getMethod("staticFieldOffset", Field.class).invoke(unsafe, implLookupField);
+        return (MethodHandles.Lookup) unsafeClass.getMethod("getObject", Object.class, long.class).invoke(unsafe, base, offset);
+    }
+}
@@ -1,26 +1,52 @@
 package datadog.compiler;
 
+import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import datadog.compiler.annotations.SourceHash;
+import datadog.compiler.annotations.SourceLines;
+import datadog.compiler.annotations.SourceLinesTable;
+import datadog.compiler.annotations.SourcePath;
 import datadog.compiler.utils.CompilerUtils;
+import datadog.compiler.utils.ResolvedStackTrace;
+import datadog.compiler.utils.SourceIndex;
+import datadog.compiler.utils.SourceLinesTables;
+import datadog.compiler.utils.SourceRoots;
+import datadog.compiler.utils.StackTraceResolver;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import javax.annotation.processing.Processor;
 import javax.tools.JavaCompiler;
 import javax.tools.StandardJavaFileManager;
 import javax.tools.ToolProvider;
 import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 
 public class DatadogCompilerPluginTest {
 
@@ -132,6 +158,299 @@ public class DatadogCompilerPluginTest {
         );
     }
 
+    @ParameterizedTest
+    @MethodSource("methodLinesInjectionArguments")
+    public void testCompactMethodLinesInjection(String resourceName,
+                                                String className,
+                                                String methodName,
+                                                Class<?>[] methodParameterTypes,
+                                                int expectedStart,
+                                                int expectedEnd) throws Exception {
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+
+        String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource, DatadogCompilerPlugin.COMPACT_SOURCE_LINES)) {
+            Class<?> clazz = fileManager.loadCompiledClass(className);
+            Method method = clazz.getDeclaredMethod(methodName, methodParameterTypes);
+            int startLine = CompilerUtils.getStartLine(method);
+            int endLine = CompilerUtils.getEndLine(method);
+            Assertions.assertEquals(expectedStart, startLine);
+            Assertions.assertEquals(expectedEnd, endLine);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("compactOverloadedMethodLinesArguments")
+    public void testCompactOverloadedMethodLinesInjection(String className,
+                                                          String methodName,
+                                                          Class<?>[] methodParameterTypes,
+                                                          boolean expectedIndividualAnnotation,
+                                                          int expectedStart,
+                                                          int expectedEnd) throws Exception {
+        String resourceName = "datadog/compiler/TestOverloads.java";
+
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+
+        String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource, DatadogCompilerPlugin.COMPACT_SOURCE_LINES)) {
+            Class<?> clazz = fileManager.loadCompiledClass(className);
+            Method method = clazz.getDeclaredMethod(methodName, methodParameterTypes);
+            Assertions.assertEquals(expectedIndividualAnnotation, method.isAnnotationPresent(SourceLines.class));
+            Assertions.assertEquals(expectedStart, CompilerUtils.getStartLine(method));
+            Assertions.assertEquals(expectedEnd, CompilerUtils.getEndLine(method));
+        }
+    }
+
+    private static Stream<Arguments> compactOverloadedMethodLinesArguments() {
+        return Stream.of(
+                Arguments.of("datadog.compiler.TestOverloads", "overloaded", new Class[]{int.class}, true, 4, 6),
+                Arguments.of("datadog.compiler.TestOverloads", "overloaded", new Class[]{String.class}, true, 8, 10),
+                Arguments.of("datadog.compiler.TestOverloads", "overloaded", new Class[0], false, 12, 14),
+                Arguments.of("datadog.compiler.TestOverloads$Letters", "valueOf", new Class[]{int.class}, true, 19, 21),
+                Arguments.of("datadog.compiler.TestOverloads$Letters", "valueOf", new Class[]{String.class}, false, CompilerUtils.LINE_UNKNOWN, CompilerUtils.LINE_UNKNOWN)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("methodVisibilityArguments")
+    public void testMethodVisibility(String methodVisibility,
+                                     String methodName,
+                                     boolean expectedIndividualAnnotation,
+                                     int expectedStart,
+                                     int expectedEnd) throws Exception {
+        String resourceName = "datadog/compiler/TestVisibility.java";
+
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+
+        String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource, DatadogCompilerPlugin.METHOD_VISIBILITY + "=" + methodVisibility)) {
+            Class<?> clazz = fileManager.loadCompiledClass(compiledClassName);
+            Method method = clazz.getDeclaredMethod(methodName);
+            Assertions.assertEquals(expectedIndividualAnnotation, method.isAnnotationPresent(SourceLines.class));
+            Assertions.assertEquals(expectedStart, CompilerUtils.getStartLine(method));
+            Assertions.assertEquals(expectedEnd, CompilerUtils.getEndLine(method));
+        }
+    }
+
+    private static Stream<Arguments> methodVisibilityArguments() {
+        return Stream.of(
+                Arguments.of("public", "publicMethod", true, 6, 7),
+                Arguments.of("public", "protectedMethod", false, CompilerUtils.LINE_UNKNOWN, CompilerUtils.LINE_UNKNOWN),
+                Arguments.of("protected", "protectedMethod", false, 9, 10), // stored in the lines table
+                Arguments.of("protected", "packageMethod", false, CompilerUtils.LINE_UNKNOWN, CompilerUtils.LINE_UNKNOWN),
+                Arguments.of("package", "publicMethod", true, 6, 7),
+                Arguments.of("package", "packageMethod", false, 12, 13),
+                Arguments.of("package", "privateMethod", false, CompilerUtils.LINE_UNKNOWN, CompilerUtils.LINE_UNKNOWN),
+                Arguments.of("all", "privateMethod", false, 15, 16)
+        );
+    }
+
+    @Test
+    public void testLambdaLinesInjection() throws Exception {
+        String resourceName = "datadog/compiler/TestVisibility.java";
+
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+
+        String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource, DatadogCompilerPlugin.LAMBDA_LINES)) {
+            Class<?> clazz = fileManager.loadCompiledClass(compiledClassName);
+
+            @SuppressWarnings("unchecked")
+            Supplier<StackTraceElement[]> fieldLambda = (Supplier<StackTraceElement[]>) clazz.getField("FIELD_LAMBDA").get(null);
+            ResolvedStackTrace fieldLambdaTrace = StackTraceResolver.resolve(fieldLambda.get(), clazz.getClassLoader());
+            Assertions.assertEquals(18, fieldLambdaTrace.getMethodStartLine(0));
+            Assertions.assertEquals(19, fieldLambdaTrace.getMethodEndLine(0));
+
+            StackTraceElement[] stackTrace = (StackTraceElement[]) clazz.getMethod("methodLambda").invoke(null);
+            ResolvedStackTrace methodLambdaTrace = StackTraceResolver.resolve(stackTrace, clazz.getClassLoader());
+            // javac 8 names lambdas nested in lambdas lambda$null$<index>, they cannot be matched to their enclosing method
+            if (!stackTrace[0].getMethodName().startsWith("lambda$null$")) {
+                Assertions.assertEquals(23, methodLambdaTrace.getMethodStartLine(0));
+                Assertions.assertEquals(23, methodLambdaTrace.getMethodEndLine(0));
+            }
+            Assertions.assertEquals(22, methodLambdaTrace.getMethodStartLine(1));
+            Assertions.assertEquals(25, methodLambdaTrace.getMethodEndLine(1));
+            Assertions.assertEquals(21, methodLambdaTrace.getMethodStartLine(2));
+            Assertions.assertEquals(27, methodLambdaTrace.getMethodEndLine(2));
+        }
+    }
+
+    @Test
+    public void testSourceHashInjection() throws Exception {
+        String resourceName = "datadog/compiler/Test.java";
+
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+        CRC32 expectedHash = new CRC32();
+        expectedHash.update(classSource.getBytes(StandardCharsets.UTF_8));
+
+        String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource, DatadogCompilerPlugin.SOURCE_HASH)) {
+            Class<?> clazz = fileManager.loadCompiledClass(compiledClassName);
+            Assertions.assertTrue(clazz.isAnnotationPresent(SourceHash.class));
+            Assertions.assertEquals(expectedHash.getValue(), CompilerUtils.getSourceHash(clazz));
+
+            Class<?> innerClass = fileManager.loadCompiledClass(compiledClassName + "$InnerClass");
+            Assertions.assertFalse(innerClass.isAnnotationPresent(SourceHash.class));
+            Assertions.assertEquals(expectedHash.getValue(), CompilerUtils.getSourceHash(innerClass));
+        }
+
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource)) {
+            Class<?> clazz = fileManager.loadCompiledClass(compiledClassName);
+            Assertions.assertEquals(CompilerUtils.SOURCE_HASH_UNKNOWN, CompilerUtils.getSourceHash(clazz));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("abiStableLinesArguments")
+    public void testAbiStableLinesInjection(String className,
+                                           int constructorParameterCount,
+                                           boolean expectedHolderField,
+                                           int expectedClassStart,
+                                           int expectedClassEnd,
+                                           int expectedConstructorStart,
+                                           int expectedConstructorEnd) throws Exception {
+        String resourceName = "datadog/compiler/TestAbiStable.java";
+
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+
+        String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource,
+                DatadogCompilerPlugin.ABI_STABLE, DatadogCompilerPlugin.METHOD_VISIBILITY + "=all")) {
+            Class<?> clazz = fileManager.loadCompiledClass(className);
+            // nothing that changes with line numbers is visible in the API of the class
+            Assertions.assertEquals(!expectedHolderField, clazz.isAnnotationPresent(SourceLines.class));
+            if (expectedHolderField) {
+                Assertions.assertFalse(clazz.isAnnotationPresent(SourceLinesTable.class));
+                Field holderField = clazz.getDeclaredField(SourceLinesTables.HOLDER_FIELD_NAME);
+                Assertions.assertTrue(Modifier.isPrivate(holderField.getModifiers()));
+                Assertions.assertTrue(Modifier.isStatic(holderField.getModifiers()));
+                Assertions.assertTrue(Modifier.isFinal(holderField.getModifiers()));
+            }
+
+            Assertions.assertEquals(expectedClassStart, CompilerUtils.getStartLine(clazz));
+            Assertions.assertEquals(expectedClassEnd, CompilerUtils.getEndLine(clazz));
+            for (Constructor<?> constructor : clazz.getDeclaredConstructors()) {
+                // the runtime parameter count includes synthetic parameters
+                Assertions.assertEquals(constructorParameterCount, constructor.getParameterCount());
+                Assertions.assertFalse(constructor.isAnnotationPresent(SourceLines.class));
+                Assertions.assertEquals(expectedConstructorStart, CompilerUtils.getStartLine(constructor));
+                Assertions.assertEquals(expectedConstructorEnd, CompilerUtils.getEndLine(constructor));
+            }
+        }
+    }
+
+    private static Stream<Arguments> abiStableLinesArguments() {
+        return Stream.of(
+                Arguments.of("datadog.compiler.TestAbiStable", 0, true, 3, 25, 4, 5),
+                Arguments.of("datadog.compiler.TestAbiStable$Inner", 2, true, 10, 13, 11, 12), // enclosing instance
+                Arguments.of("datadog.compiler.TestAbiStable$Letters", 3, true, 15, 20, 18, 19), // constant name and ordinal
+                Arguments.of("datadog.compiler.TestAbiStable$Api", 0, false, 22, 24, 0, 0) // interfaces keep the annotations, and have no constructors
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("abiStableOverloadsArguments")
+    public void testAbiStableOverloads(String resourceName,
+                                       String className,
+                                       String methodName,
+                                       Class<?>[] methodParameterTypes,
+                                       int expectedStart,
+                                       int expectedEnd) throws Exception {
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+
+        String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource, DatadogCompilerPlugin.ABI_STABLE)) {
+            Class<?> clazz = fileManager.loadCompiledClass(className);
+            Executable executable;
+            if (methodName.equals("<init>")) {
+                Class<?>[] parameterTypes = methodParameterTypes;
+                if (clazz.getDeclaringClass() != null && !Modifier.isStatic(clazz.getModifiers())) {
+                    // enclosing instance
+                    parameterTypes = new Class<?>[methodParameterTypes.length + 1];
+                    parameterTypes[0] = clazz.getDeclaringClass();
+                    System.arraycopy(methodParameterTypes, 0, parameterTypes, 1, methodParameterTypes.length);
+                }
+                executable = clazz.getDeclaredConstructor(parameterTypes);
+            } else {
+                executable = clazz.getDeclaredMethod(methodName, methodParameterTypes);
+            }
+            // overloads are told apart by their parameter types in the table, their lines never go back to the API
+            Assertions.assertFalse(executable.isAnnotationPresent(SourceLines.class));
+            Assertions.assertEquals(expectedStart, CompilerUtils.getStartLine(executable));
+            Assertions.assertEquals(expectedEnd, CompilerUtils.getEndLine(executable));
+        }
+    }
+
+    private static Stream<Arguments> abiStableOverloadsArguments() {
+        String overloads = "datadog/compiler/TestAbiStableOverloads.java";
+        String overloadsClass = "datadog.compiler.TestAbiStableOverloads";
+        return Stream.of(
+                Arguments.of(overloads, overloadsClass, "<init>", new Class[]{int.class}, 6, 7),
+                Arguments.of(overloads, overloadsClass, "<init>", new Class[]{String.class}, 9, 10),
+                Arguments.of(overloads, overloadsClass, "of", new Class[]{int.class}, 12, 13),
+                Arguments.of(overloads, overloadsClass, "of", new Class[]{String.class}, 15, 16),
+                Arguments.of(overloads, overloadsClass, "single", new Class[]{int.class}, 18, 19),
+                // type variables are erased to their bounds, generic types to their classes, varargs are arrays
+                Arguments.of(overloads, overloadsClass, "generic", new Class[]{Number.class, CharSequence.class}, 21, 22),
+                Arguments.of(overloads, overloadsClass, "generic", new Class[]{List.class, int[].class}, 24, 25),
+                Arguments.of(overloads, overloadsClass, "generic", new Class[]{String[][].class, Map.class}, 27, 28),
+                // simple names clash
+                Arguments.of(overloads, overloadsClass, "same", new Class[]{java.util.Date.class}, CompilerUtils.LINE_UNKNOWN, CompilerUtils.LINE_UNKNOWN),
+                Arguments.of(overloads, overloadsClass, "same", new Class[]{java.sql.Date.class}, CompilerUtils.LINE_UNKNOWN, CompilerUtils.LINE_UNKNOWN),
+                // enclosing instance parameter, and a type variable of the enclosing class
+                Arguments.of(overloads, overloadsClass + "$Inner", "<init>", new Class[]{int.class}, 37, 38),
+                Arguments.of(overloads, overloadsClass + "$Inner", "<init>", new Class[]{CharSequence.class}, 40, 41),
+                Arguments.of(overloads, overloadsClass + "$Letters", "valueOf", new Class[]{int.class}, 47, 49),
+                Arguments.of(overloads, overloadsClass + "$Letters", "valueOf", new Class[]{String.class}, CompilerUtils.LINE_UNKNOWN, CompilerUtils.LINE_UNKNOWN),
+                Arguments.of("datadog/compiler/TestOverloads.java", "datadog.compiler.TestOverloads", "overloaded", new Class[]{int.class}, 4, 6),
+                Arguments.of("datadog/compiler/TestOverloads.java", "datadog.compiler.TestOverloads", "overloaded", new Class[]{String.class}, 8, 10),
+                Arguments.of("datadog/compiler/TestOverloads.java", "datadog.compiler.TestOverloads$Letters", "valueOf", new Class[]{int.class}, 19, 21)
+        );
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"8", "11"})
+    public void testAbiStableInnerClassBelowJava16(String release) throws Exception {
+        String resourceName = "datadog/compiler/TestAbiStable.java";
+
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+
+        // inner classes can only declare static members that are constants before Java 16
+        String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+        List<String> arguments = Arrays.asList("--release", release,
+                "-Xplugin:" + DatadogCompilerPlugin.NAME + " " + DatadogCompilerPlugin.ABI_STABLE);
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource, arguments, emptyList())) {
+            Class<?> innerClass = fileManager.loadCompiledClass(compiledClassName + "$Inner");
+            Assertions.assertNotNull(innerClass.getDeclaredField(SourceLinesTables.HOLDER_FIELD_NAME));
+            Assertions.assertEquals(10, CompilerUtils.getStartLine(innerClass));
+            Assertions.assertEquals(13, CompilerUtils.getEndLine(innerClass));
+        }
+    }
+
     @Test
     public void testConstructorLinesInjection() throws Exception {
         String resourceName = "datadog/compiler/Test.java";
@@ -246,7 +565,479 @@ public class DatadogCompilerPluginTest {
         }
     }
 
+    @ParameterizedTest
+    @MethodSource("annotationDenseLinesArguments")
+    public void testExistingAnnotationsDetectionOnAnnotationDenseCode(String methodName,
+                                                                      int expectedStart,
+                                                                      int expectedEnd) throws Exception {
+        String resourceName = "datadog/compiler/TestAnnotationDense.java";
+
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+
+        String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource)) {
+            Class<?> clazz = fileManager.loadCompiledClass(compiledClassName);
+
+            String sourcePath = CompilerUtils.getSourcePath(clazz);
+            Assertions.assertEquals("the-qualified-source-path", sourcePath);
+
+            int classStartLine = CompilerUtils.getStartLine(clazz);
+            int classEndLine = CompilerUtils.getEndLine(clazz);
+            Assertions.assertEquals(7, classStartLine);
+            Assertions.assertEquals(44, classEndLine);
+
+            Method method = clazz.getDeclaredMethod(methodName);
+            int methodStartLine = CompilerUtils.getStartLine(method);
+            int methodEndLine = CompilerUtils.getEndLine(method);
+            Assertions.assertEquals(expectedStart, methodStartLine);
+            Assertions.assertEquals(expectedEnd, methodEndLine);
+        }
+    }
+
+    private static Stream<Arguments> annotationDenseLinesArguments() {
+        return Stream.of(
+                Arguments.of("importedAnnotatedMethod", 1, 2),
+                Arguments.of("qualifiedAnnotatedMethod", 3, 4),
+                Arguments.of("denselyAnnotatedMethod", 28, 33),
+                Arguments.of("lookalikeAnnotatedMethod", 35, 39) // an annotation whose name merely ends with "SourceLines" does not count
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("sourceIndexArguments")
+    public void testSourceIndex(String className,
+                                String methodName,
+                                String descriptor,
+                                int expectedStart,
+                                int expectedEnd) throws Exception {
+        String resourceName = "datadog/compiler/TestSourceIndex.java";
+
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+
+        String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource, DatadogCompilerPlugin.SOURCE_INDEX)) {
+            byte[] indexBytes = fileManager.getResource(SourceIndex.RESOURCE_NAME);
+            Assertions.assertNotNull(indexBytes, "source index was not written");
+
+            SourceIndex index = SourceIndex.read(indexBytes);
+            int entry = methodName != null
+                    ? index.findMethod(className, methodName, descriptor)
+                    : index.findClass(className);
+            Assertions.assertNotEquals(SourceIndex.NOT_FOUND, entry);
+            Assertions.assertEquals(InMemorySourceFile.sourcePath(compiledClassName), index.getSourcePath(entry));
+            Assertions.assertEquals(expectedStart, index.getStartLine(entry));
+            Assertions.assertEquals(expectedEnd, index.getEndLine(entry));
+        }
+    }
+
+    private static Stream<Arguments> sourceIndexArguments() {
+        return Stream.of(
+                Arguments.of("datadog.compiler.TestSourceIndex", null, null, 5, 35),
+                Arguments.of("datadog.compiler.TestSourceIndex", "privateMethod", "(Ljava/lang/String;[[ILjava/util/List;)I", 6, 8),
+                Arguments.of("datadog.compiler.TestSourceIndex", "genericMethod", "(Ljava/lang/Comparable;)Ljava/lang/Comparable;", 10, 12),
+                Arguments.of("datadog.compiler.TestSourceIndex$Inner", null, null, 14, 18),
+                Arguments.of("datadog.compiler.TestSourceIndex$Inner", "<init>", "(Ldatadog/compiler/TestSourceIndex;J)V", 15, 17), // outer instance parameter
+                Arguments.of("datadog.compiler.TestSourceIndex$Letters", "<init>", "(Ljava/lang/String;I)V", 23, 25), // enum name and ordinal parameters
+                Arguments.of("datadog.compiler.TestSourceIndex$1", "run", "()V", 30, 32)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("discardedEndPositionsArguments")
+    public void testDiscardedEndPositions(String resourceName) throws Exception {
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+
+        // lines found without the end position table are the same as the ones found with it
+        String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+        String[] arguments = {DatadogCompilerPlugin.METHOD_VISIBILITY + "=all", DatadogCompilerPlugin.LAMBDA_LINES, DatadogCompilerPlugin.SOURCE_INDEX};
+        String[] discardingArguments = Arrays.copyOf(arguments, arguments.length + 1);
+        discardingArguments[arguments.length] = DatadogCompilerPlugin.DISCARD_END_POSITIONS;
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource, arguments);
+             InMemoryFileManager discardingFileManager = compile(compiledClassName, classSource, discardingArguments)) {
+            Assertions.assertEquals(fileManager.getCompiledClassNames(), discardingFileManager.getCompiledClassNames());
+            for (String className : fileManager.getCompiledClassNames()) {
+                Assertions.assertArrayEquals(fileManager.getCompiledClass(className), discardingFileManager.getCompiledClass(className), className);
+            }
+            Assertions.assertArrayEquals(fileManager.getResource(SourceIndex.RESOURCE_NAME), discardingFileManager.getResource(SourceIndex.RESOURCE_NAME));
+        }
+    }
+
+    private static Stream<Arguments> discardedEndPositionsArguments() {
+        return Stream.of(
+                Arguments.of("datadog/compiler/TestEndPositions.java"),
+                Arguments.of("datadog/compiler/TestSourceIndex.java"),
+                Arguments.of("datadog/compiler/TestNestedDeclarations.java"),
+                Arguments.of("datadog/compiler/TestVisibility.java"),
+                Arguments.of("datadog/compiler/TestAnnotationDense.java")
+        );
+    }
+
+    @Test
+    public void testSourceRoot() throws Exception {
+        String resourceName = "datadog/compiler/Test.java";
+
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+
+        String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource, DatadogCompilerPlugin.SOURCE_ROOT + "=/repo/src/../src")) {
+            Assertions.assertEquals("datadog/compiler/Test.java", CompilerUtils.getSourcePath(fileManager.loadCompiledClass(compiledClassName)));
+            Assertions.assertEquals("datadog/compiler/Test.java", CompilerUtils.getSourcePath(fileManager.loadCompiledClass(compiledClassName + "$InnerClass")));
+
+            byte[] sourceRoot = fileManager.getResource(SourceRoots.RESOURCE_NAME);
+            Assertions.assertNotNull(sourceRoot, "source root was not recorded");
+            Assertions.assertEquals(Paths.get("/repo/src").toAbsolutePath().toString(), new String(sourceRoot, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testSourceOutsideOfSourceRoot() throws Exception {
+        String resourceName = "datadog/compiler/Test.java";
+
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+
+        String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource, DatadogCompilerPlugin.SOURCE_ROOT + "=/other/src")) {
+            Class<?> clazz = fileManager.loadCompiledClass(compiledClassName);
+            Assertions.assertEquals(InMemorySourceFile.sourcePath(compiledClassName), CompilerUtils.getSourcePath(clazz));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("sourceFilterArguments")
+    public void testSourceFilter(String pluginArguments, boolean expectedAnnotated) throws Exception {
+        String resourceName = "datadog/compiler/Test.java";
+
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+
+        String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource, pluginArguments)) {
+            Class<?> clazz = fileManager.loadCompiledClass(compiledClassName);
+            Assertions.assertEquals(expectedAnnotated, CompilerUtils.getSourcePath(clazz) != null);
+
+            Method method = clazz.getDeclaredMethod("regularMethod");
+            Assertions.assertEquals(expectedAnnotated, CompilerUtils.getStartLine(method) != CompilerUtils.LINE_UNKNOWN);
+        }
+    }
+
+    private static Stream<Arguments> sourceFilterArguments() {
+        return Stream.of(
+                Arguments.of(DatadogCompilerPlugin.EXCLUDE + "=**/compiler/Test.java", false),
+                Arguments.of(DatadogCompilerPlugin.EXCLUDE + "=regex:.*/Test[.]java", false),
+                Arguments.of(DatadogCompilerPlugin.EXCLUDE + "=**/generated/**", true),
+                Arguments.of(DatadogCompilerPlugin.INCLUDE + "=**/datadog/**", true),
+                Arguments.of(DatadogCompilerPlugin.INCLUDE + "=**/other/**", false),
+                Arguments.of(DatadogCompilerPlugin.INCLUDE + "=**/datadog/** " + DatadogCompilerPlugin.EXCLUDE + "=**/Test.java", false),
+                Arguments.of(DatadogCompilerPlugin.INCLUDE_PACKAGE + "=datadog.compiler", true),
+                Arguments.of(DatadogCompilerPlugin.INCLUDE_PACKAGE + "=other", false),
+                Arguments.of(DatadogCompilerPlugin.EXCLUDE_PACKAGE + "=datadog", false),
+                Arguments.of(DatadogCompilerPlugin.EXCLUDE_PACKAGE + "=datadog.comp", true), // not a package of the class
+                // relative paths are matched when there is a source root
+                Arguments.of(DatadogCompilerPlugin.SOURCE_ROOT + "=/repo/src " + DatadogCompilerPlugin.EXCLUDE + "=datadog/compiler/*", false)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("nestedDeclarationsArguments")
+    public void testNestedDeclarationsInjection(String className, String methodName, int expectedStart, int expectedEnd) throws Exception {
+        String resourceName = "datadog/compiler/TestNestedDeclarations.java";
+
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+
+        String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource)) {
+            Class<?> clazz = fileManager.loadCompiledClass(className);
+            Assertions.assertEquals(InMemorySourceFile.sourcePath(compiledClassName), CompilerUtils.getSourcePath(clazz));
+            Method method = clazz.getDeclaredMethod(methodName);
+            Assertions.assertEquals(expectedStart, CompilerUtils.getStartLine(method));
+            Assertions.assertEquals(expectedEnd, CompilerUtils.getEndLine(method));
+        }
+    }
+
+    private static Stream<Arguments> nestedDeclarationsArguments() {
+        return Stream.of(
+                Arguments.of("datadog.compiler.TestNestedDeclarations", "noDeclarations", 6, 10),
+                Arguments.of("datadog.compiler.TestNestedDeclarations$1", "call", 14, 17), // anonymous class in a method argument
+                Arguments.of("datadog.compiler.TestNestedDeclarations$1Local", "get", 23, 30), // local class
+                Arguments.of("datadog.compiler.TestNestedDeclarations$1Local$1", "toString", 25, 28), // anonymous class in a local class
+                Arguments.of("datadog.compiler.TestNestedDeclarations$2", "run", 37, 38) // anonymous class in a lambda
+        );
+    }
+
+    @Test
+    public void testTopLevelSourcePathInjection() throws Exception {
+        String resourceName = "datadog/compiler/TestNestedDeclarations.java";
+
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+
+        String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+        String expectedSourcePath = InMemorySourceFile.sourcePath(compiledClassName);
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource, DatadogCompilerPlugin.TOP_LEVEL_SOURCE_PATH)) {
+            Class<?> clazz = fileManager.loadCompiledClass(compiledClassName);
+            Assertions.assertTrue(clazz.isAnnotationPresent(SourcePath.class));
+            Assertions.assertEquals(expectedSourcePath, CompilerUtils.getSourcePath(clazz));
+
+            for (String nestedClassName : new String[]{"$1Local", "$1Local$1", "$1"}) {
+                Class<?> nestedClass = fileManager.loadCompiledClass(compiledClassName + nestedClassName);
+                Assertions.assertFalse(nestedClass.isAnnotationPresent(SourcePath.class), nestedClassName);
+                Assertions.assertEquals(expectedSourcePath, CompilerUtils.getSourcePath(nestedClass), nestedClassName);
+            }
+
+            // lines are still injected
+            Class<?> localClass = fileManager.loadCompiledClass(compiledClassName + "$1Local");
+            Assertions.assertEquals(23, CompilerUtils.getStartLine(localClass.getDeclaredMethod("get")));
+        }
+
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource)) {
+            Class<?> localClass = fileManager.loadCompiledClass(compiledClassName + "$1Local");
+            Assertions.assertTrue(localClass.isAnnotationPresent(SourcePath.class));
+        }
+    }
+
+    @Test
+    public void testDeeplyNestedDeclarationsInjection() throws Exception {
+        int depth = 50;
+        StringBuilder classSource = new StringBuilder("package datadog.compiler;\n\npublic class TestDeeplyNested {\n");
+        for (int i = 0; i < depth; i++) {
+            classSource.append("public Object get() { return new Object() {\n");
+        }
+        classSource.append("public Object get() {\nreturn null;\n}\n");
+        for (int i = 0; i < depth; i++) {
+            classSource.append("}; }\n");
+        }
+        classSource.append("}\n");
+
+        String compiledClassName = "datadog.compiler.TestDeeplyNested";
+        StringBuilder innermostClassName = new StringBuilder(compiledClassName);
+        for (int i = 0; i < depth; i++) {
+            innermostClassName.append("$1");
+        }
+        try (InMemoryFileManager fileManager = compile(compiledClassName, classSource.toString())) {
+            Class<?> clazz = fileManager.loadCompiledClass(innermostClassName.toString());
+            Method method = clazz.getDeclaredMethod("get");
+            Assertions.assertEquals(depth + 4, CompilerUtils.getStartLine(method));
+            Assertions.assertEquals(depth + 6, CompilerUtils.getEndLine(method));
+        }
+    }
+
+    @Test
+    public void testBodiesWithoutDeclarationsSkipped() throws Exception {
+        Assumptions.assumeTrue(isCompilationEventSupported(), "statistics are reported when the compilation finishes, there is no event for it in JDK 8");
+
+        // only long bodies are pre-scanned
+        StringBuilder statements = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            statements.append("counter += ").append(i).append(";\n");
+        }
+        String classSource = "package datadog.compiler;\n\n"
+                + "public class TestLongBodies {\n"
+                + "private int counter;\n"
+                + "public void plain() {\n" + statements + "}\n"
+                + "public Runnable anonymous() {\n" + statements + "return new Runnable() {\npublic void run() {\n}\n};\n}\n"
+                + "}\n";
+
+        Path statisticsFile = Files.createTempFile("dd-javac-plugin-stats", ".json");
+        try {
+            String compiledClassName = "datadog.compiler.TestLongBodies";
+            try (InMemoryFileManager fileManager = compile(compiledClassName, classSource, DatadogCompilerPlugin.STATISTICS + "=" + statisticsFile)) {
+                Method method = fileManager.loadCompiledClass(compiledClassName + "$1").getDeclaredMethod("run");
+                Assertions.assertEquals(209, CompilerUtils.getStartLine(method));
+                Assertions.assertEquals(210, CompilerUtils.getEndLine(method));
+
+                String statistics = new String(Files.readAllBytes(statisticsFile), StandardCharsets.UTF_8);
+                Assertions.assertTrue(statistics.contains("\"bodiesSkipped\":1,"), statistics); // the body of plain
+            }
+        } finally {
+            Files.deleteIfExists(statisticsFile);
+        }
+    }
+
+    @Test
+    public void testParallelAnnotation() throws Exception {
+        int classCount = 20;
+        List<InMemorySourceFile> compilationUnits = new ArrayList<>();
+        for (int i = 0; i < classCount; i++) {
+            String classSource = "package datadog.compiler;\n\n"
+                    + "public class TestParallel" + i + " {\n"
+                    + "public Runnable get() {\n"
+                    + "return new Runnable() {\n"
+                    + "public void run() {\n"
+                    + "}\n"
+                    + "};\n"
+                    + "}\n"
+                    + "}\n";
+            compilationUnits.add(new InMemorySourceFile("datadog.compiler.TestParallel" + i, classSource));
+        }
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager standardFileManager = compiler.getStandardFileManager(null, null, null);
+        try (InMemoryFileManager fileManager = new InMemoryFileManager(standardFileManager)) {
+            List<String> arguments = Arrays.asList(
+                    "-classpath", System.getProperty("java.class.path"),
+                    "-Xplugin:" + DatadogCompilerPlugin.NAME + " " + DatadogCompilerPlugin.THREADS + "=4 " + DatadogCompilerPlugin.SOURCE_HASH);
+            StringWriter output = new StringWriter();
+            JavaCompiler.CompilationTask task = compiler.getTask(output, fileManager, null, arguments, null, compilationUnits);
+            Assertions.assertTrue(task.call(), output::toString);
+
+            for (int i = 0; i < classCount; i++) {
+                String compiledClassName = "datadog.compiler.TestParallel" + i;
+                Class<?> clazz = fileManager.loadCompiledClass(compiledClassName);
+                Assertions.assertEquals(InMemorySourceFile.sourcePath(compiledClassName), CompilerUtils.getSourcePath(clazz));
+                Assertions.assertNotEquals(CompilerUtils.SOURCE_HASH_UNKNOWN, CompilerUtils.getSourceHash(clazz));
+
+                Method get = clazz.getDeclaredMethod("get");
+                Assertions.assertEquals(4, CompilerUtils.getStartLine(get));
+                Assertions.assertEquals(9, CompilerUtils.getEndLine(get));
+
+                Method run = fileManager.loadCompiledClass(compiledClassName + "$1").getDeclaredMethod("run");
+                Assertions.assertEquals(InMemorySourceFile.sourcePath(compiledClassName), CompilerUtils.getSourcePath(run.getDeclaringClass()));
+                Assertions.assertEquals(6, CompilerUtils.getStartLine(run));
+                Assertions.assertEquals(7, CompilerUtils.getEndLine(run));
+            }
+        }
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        Assumptions.assumeTrue(isCompilationEventSupported(), "statistics are reported when the compilation finishes, there is no event for it in JDK 8");
+
+        String resourceName = "datadog/compiler/TestAnnotated.java";
+
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+
+        Path statisticsFile = Files.createTempFile("dd-javac-plugin-stats", ".json");
+        try {
+            String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+            try (InMemoryFileManager fileManager = compile(compiledClassName, classSource, DatadogCompilerPlugin.STATISTICS + "=" + statisticsFile)) {
+                String statistics = new String(Files.readAllBytes(statisticsFile), StandardCharsets.UTF_8);
+                Assertions.assertTrue(statistics.contains("\"compilationUnits\":1,"), statistics);
+                Assertions.assertTrue(statistics.contains("\"classesAnnotated\":0,"), statistics);
+                Assertions.assertTrue(statistics.contains("\"methodsAnnotated\":0,"), statistics);
+                Assertions.assertTrue(statistics.contains("\"annotationsSkipped\":3,"), statistics); // class @SourcePath and @SourceLines, method @SourceLines
+                Assertions.assertTrue(statistics.contains("\"treeVisitorNanos\":"), statistics);
+                Assertions.assertTrue(statistics.contains("\"compilerModuleSetupNanos\":"), statistics);
+            }
+        } finally {
+            Files.deleteIfExists(statisticsFile);
+        }
+    }
+
+    @Test
+    public void testMultiRoundProcessing() throws Exception {
+        Assumptions.assumeTrue(isCompilationEventSupported(), "statistics are reported when the compilation finishes, there is no event for it in JDK 8");
+
+        // Generated units are parsed in later rounds, after the units of the first round have been annotated.
+        // javac reports every unit once, so this covers annotating across rounds,
+        // not the guard against processing a unit twice (see testPluginRegisteredTwice).
+
+        String resourceName = "datadog/compiler/Test.java";
+
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+
+        Path statisticsFile = Files.createTempFile("dd-javac-plugin-stats", ".json");
+        try {
+            String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+            List<String> pluginOptions = singletonList("-Xplugin:" + DatadogCompilerPlugin.NAME + " " + DatadogCompilerPlugin.STATISTICS + "=" + statisticsFile);
+            List<Processor> processors = singletonList(new SourceGeneratingProcessor(2));
+            try (InMemoryFileManager fileManager = compile(compiledClassName, classSource, pluginOptions, processors)) {
+                for (String generatedClassName : Arrays.asList("datadog.compiler.Generated0", "datadog.compiler.Generated1")) {
+                    Class<?> generatedClass = fileManager.loadCompiledClass(generatedClassName);
+                    Assertions.assertEquals(InMemorySourceFile.sourcePath(generatedClassName), CompilerUtils.getSourcePath(generatedClass));
+                }
+
+                String statistics = new String(Files.readAllBytes(statisticsFile), StandardCharsets.UTF_8);
+                Assertions.assertTrue(statistics.contains("\"compilationUnits\":3,"), statistics); // the class and the two generated ones
+                Assertions.assertTrue(statistics.contains("\"compilationUnitsRepeated\":0,"), statistics);
+            }
+        } finally {
+            Files.deleteIfExists(statisticsFile);
+        }
+    }
+
+    @Test
+    public void testPluginRegisteredTwice() throws Exception {
+        Assumptions.assumeTrue(isCompilationEventSupported(), "statistics are reported when the compilation finishes, there is no event for it in JDK 8");
+
+        String resourceName = "datadog/compiler/Test.java";
+
+        String classSource;
+        try (InputStream classStream = ClassLoader.getSystemResourceAsStream(resourceName)) {
+            classSource = IOUtils.toString(classStream, Charset.defaultCharset());
+        }
+
+        Path statisticsFile = Files.createTempFile("dd-javac-plugin-stats", ".json");
+        try {
+            String compiledClassName = resourceName.substring(0, resourceName.lastIndexOf('.')).replace('/', '.');
+
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            StandardJavaFileManager standardFileManager = compiler.getStandardFileManager(null, null, null);
+            try (InMemoryFileManager fileManager = new InMemoryFileManager(standardFileManager)) {
+                List<String> arguments = Arrays.asList(
+                        "-classpath", System.getProperty("java.class.path"),
+                        "-Xplugin:" + DatadogCompilerPlugin.NAME + " " + DatadogCompilerPlugin.STATISTICS + "=" + statisticsFile);
+                List<InMemorySourceFile> compilationUnits = singletonList(new InMemorySourceFile(compiledClassName, classSource));
+                StringWriter output = new StringWriter();
+                JavacTask task = (JavacTask) compiler.getTask(output, fileManager, null, arguments, null, compilationUnits);
+                // javac initializes a plugin once per name, another instance can only be registered directly
+                // (it is initialized before the -Xplugin one, which then finds the unit already processed)
+                new DatadogCompilerPlugin().init(task);
+                Assertions.assertTrue(task.call(), output::toString);
+
+                Class<?> clazz = fileManager.loadCompiledClass(compiledClassName);
+                Assertions.assertEquals(InMemorySourceFile.sourcePath(compiledClassName), CompilerUtils.getSourcePath(clazz));
+
+                String statistics = new String(Files.readAllBytes(statisticsFile), StandardCharsets.UTF_8);
+                Assertions.assertTrue(statistics.contains("\"compilationUnits\":0,"), statistics);
+                Assertions.assertTrue(statistics.contains("\"compilationUnitsRepeated\":1,"), statistics);
+            }
+        } finally {
+            Files.deleteIfExists(statisticsFile);
+        }
+    }
+
+    private static boolean isCompilationEventSupported() {
+        for (TaskEvent.Kind kind : TaskEvent.Kind.values()) {
+            if (kind.name().equals("COMPILATION")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private InMemoryFileManager compile(String className, String classSource, String... args) {
+        return compile(className, classSource, singletonList("-Xplugin:" + DatadogCompilerPlugin.NAME + " " + String.join(" ", args)), emptyList());
+    }
+
+    private InMemoryFileManager compile(String className, String classSource, List<String> pluginOptions, List<Processor> processors) {
         JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
         StandardJavaFileManager standardFileManager = compiler.getStandardFileManager(null, null, null);
         InMemoryFileManager fileManager = new InMemoryFileManager(standardFileManager);
@@ -255,10 +1046,13 @@ public class DatadogCompilerPluginTest {
         List<String> arguments = new ArrayList<>();
         arguments.add("-classpath");
         arguments.add(System.getProperty("java.class.path"));
-        arguments.add("-Xplugin:" + DatadogCompilerPlugin.NAME + " " + String.join(" ", args));
+        arguments.addAll(pluginOptions);
 
         List<InMemorySourceFile> compilationUnits = singletonList(new InMemorySourceFile(className, classSource));
         JavaCompiler.CompilationTask task = compiler.getTask(output, fileManager, null, arguments, null, compilationUnits);
+        if (!processors.isEmpty()) {
+            task.setProcessors(processors);
+        }
         task.call();
 
         try {
@@ -0,0 +1,95 @@
+package datadog.compiler;
+
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+public class DeclarationPrescannerTest {
+
+    @ParameterizedTest
+    @MethodSource("mayDeclareArguments")
+    public void testMayDeclare(String body, boolean lambdas, boolean expected) {
+        String source = "void method() " + body + " // trailing";
+        int start = source.indexOf(body);
+        DeclarationPrescanner prescanner = new DeclarationPrescanner(source, lambdas);
+        Assertions.assertEquals(expected, prescanner.mayDeclare(start, start + body.length()), body);
+    }
+
+    private static Stream<Arguments> mayDeclareArguments() {
+        return Stream.of(
+                Arguments.of("{ return a + b; }", false, false),
+                Arguments.of("{ list.add(new ArrayList<Map<String, List<String>>>(10)); }", false, false),
+                Arguments.of("{ int[] a = new int[] { 1, 2 }; }", false, false),
+                Arguments.of("{ supplier(ArrayList::new); }", false, false),
+                Arguments.of("{ log(Foo.class); log(Foo. class); }", false, false),
+                Arguments.of("{ Record record = record(1); }", false, false),
+                Arguments.of("{ String s = \"new Foo() { } class enum\"; char c = '\"'; }", false, false),
+                Arguments.of("{ String s = \"\"\"\n  new Foo() { }\n  \"\"\"; }", false, false),
+                Arguments.of("{ // new Foo() { }\n /* class */ }", false, false),
+                Arguments.of("{ if (new Foo(a).isValid()) { run(); } }", false, false),
+                Arguments.of("{ run(() -> 1); }", false, false),
+                Arguments.of("{ run(() -> 1); }", true, true),
+                Arguments.of("{ run(new Runnable() { public void run() {} }); }", false, true),
+                Arguments.of("{ run(new Callable<List<String>>() /* comment */ { }); }", false, true),
+                Arguments.of("{ run(new Foo(new Bar(), (1 + 2)) { }); }", false, true),
+                Arguments.of("{ run(new Foo(new Bar() { })); }", false, true),
+                Arguments.of("{ run(outer.new Inner() { }); }", false, true),
+                Arguments.of("{ class Local { } }", false, true),
+                Arguments.of("{ interface Local { } }", false, true),
+                Arguments.of("{ enum Local { A } }", false, true),
+                Arguments.of("{ record Local(int a) { } }", false, true),
+                Arguments.of("{ record Local<T>(T a) { } }", false, true),
+                Arguments.of("{ Object o = new @Nullable Foo() { }; }", false, true), // annotated types are not parsed
+                Arguments.of("{ run(new Foo() \\u007B }); }", false, true), // Unicode escapes may stand for anything
+                Arguments.of("{ // \\u000a class Local { }\n }", false, true),
+                Arguments.of("{ String s = \"\\u0022; class Local { } \"; }", false, true)
+        );
+    }
+
+    /**
+     * {@code |} marks the position the scan starts from and {@code #} precedes the expected result, if one is expected
+     */
+    @ParameterizedTest
+    @MethodSource("endArguments")
+    public void testEnds(String target, String markedSource) {
+        int from = markedSource.indexOf('|');
+        int marker = markedSource.indexOf('#');
+        String source = markedSource.replace("|", "").replace("#", "");
+        int expected = marker < 0 ? -1 : (marker < from ? marker : marker - 1);
+
+        DeclarationPrescanner prescanner = new DeclarationPrescanner(source, false);
+        int actual;
+        switch (target) {
+            case "openingBrace":
+                actual = prescanner.openingBrace(from);
+                break;
+            case "closingBrace":
+                actual = prescanner.closingBrace(from);
+                break;
+            case "semicolon":
+                actual = prescanner.semicolon(from);
+                break;
+            default:
+                actual = prescanner.expressionEnd(from);
+        }
+        Assertions.assertEquals(expected, actual, markedSource);
+    }
+
+    private static Stream<Arguments> endArguments() {
+        return Stream.of(
+                Arguments.of("openingBrace", "|class A<@Size({1}) T> extends B #{ }"),
+                Arguments.of("openingBrace", "|record R(int a, int b) #{ }"),
+                Arguments.of("closingBrace", "class A { |void a() { } #} }"),
+                Arguments.of("closingBrace", "class A { |int a = new Object() { }.hashCode(); /* } */ String b = \"}\" + '}'; #}"),
+                Arguments.of("closingBrace", "class A { |int a = b \\u007D }"),
+                Arguments.of("semicolon", "interface A { |int size(int[] a, String b) default \";\"#; }"),
+                Arguments.of("semicolon", "class A { |void a() }"),
+                Arguments.of("expressionEnd", "run(x -> |x + max(x, 1#))"),
+                Arguments.of("expressionEnd", "run(x -> |new int[]{1, 2#}, 3)"),
+                Arguments.of("expressionEnd", "Runnable r = () -> |run(\"x\"#); // done\n"),
+                Arguments.of("expressionEnd", "Supplier<String> s = () -> |\"a\"\n + \"b#\" // comment\n ;")
+        );
+    }
+}
@@ -1,6 +1,8 @@
 package datadog.compiler;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import javax.tools.SimpleJavaFileObject;
@@ -18,6 +20,11 @@ public class InMemoryClassFile extends SimpleJavaFileObject {
     return out = new ByteArrayOutputStream();
   }
 
+  @Override
+  public InputStream openInputStream() {
+    return new ByteArrayInputStream(getCompiledBinaries());
+  }
+
   public byte[] getCompiledBinaries() {
     return out.toByteArray();
   }
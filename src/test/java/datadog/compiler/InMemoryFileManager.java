@@ -3,6 +3,7 @@ package datadog.compiler;
 import java.net.URI;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import javax.tools.FileObject;
 import javax.tools.ForwardingJavaFileManager;
 import javax.tools.JavaFileObject;
@@ -11,6 +12,7 @@ import javax.tools.StandardJavaFileManager;
 public class InMemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
 
   private final Map<String, InMemoryClassFile> compiledClasses = new HashMap<>();
+  private final Map<String, InMemoryClassFile> resources = new HashMap<>();
 
   private final ClassLoader classLoader =
       new ClassLoader() {
@@ -28,11 +30,41 @@ public class InMemoryFileManager extends ForwardingJavaFileManager<StandardJavaF
   @Override
   public JavaFileObject getJavaFileForOutput(
       Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+    if (kind == JavaFileObject.Kind.SOURCE) {
+      // generated by an annotation processor, kept as characters so that no charset is involved
+      return new InMemoryGeneratedSourceFile(className);
+    }
     InMemoryClassFile result = new InMemoryClassFile(URI.create("string://" + className));
     compiledClasses.put(className, result);
     return result;
   }
 
+  @Override
+  public FileObject getFileForOutput(
+      Location location, String packageName, String relativeName, FileObject sibling) {
+    InMemoryClassFile result = new InMemoryClassFile(URI.create("string:///" + relativeName));
+    resources.put(relativeName, result);
+    return result;
+  }
+
+  @Override
+  public FileObject getFileForInput(Location location, String packageName, String relativeName) {
+    return resources.get(relativeName);
+  }
+
+  public byte[] getResource(String name) {
+    InMemoryClassFile resource = resources.get(name);
+    return resource != null ? resource.getCompiledBinaries() : null;
+  }
+
+  public byte[] getCompiledClass(String className) {
+    return compiledClasses.get(className).getCompiledBinaries();
+  }
+
+  public Set<String> getCompiledClassNames() {
+    return compiledClasses.keySet();
+  }
+
   public Class<?> loadCompiledClass(String className) throws ClassNotFoundException {
     return classLoader.loadClass(className);
   }
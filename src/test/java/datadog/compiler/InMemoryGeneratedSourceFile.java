@@ -0,0 +1,26 @@
+package datadog.compiler;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URI;
+import javax.tools.SimpleJavaFileObject;
+
+public class InMemoryGeneratedSourceFile extends SimpleJavaFileObject {
+
+  private final StringWriter content = new StringWriter();
+
+  public InMemoryGeneratedSourceFile(String qualifiedClassName) {
+    super(URI.create("file://" + InMemorySourceFile.sourcePath(qualifiedClassName)), Kind.SOURCE);
+  }
+
+  @Override
+  public Writer openWriter() {
+    content.getBuffer().setLength(0);
+    return content;
+  }
+
+  @Override
+  public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+    return content.toString();
+  }
+}
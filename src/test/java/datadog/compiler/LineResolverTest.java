@@ -0,0 +1,88 @@
+package datadog.compiler;
+
+import com.sun.source.tree.LineMap;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LineResolverTest {
+
+    @Test
+    public void testSequentialPositions() {
+        LineMap lineMap = lineMap(randomSource(new Random(1), 500));
+        LineResolver resolver = new LineResolver(lineMap);
+        for (int position = 0; position < 30_000; position++) {
+            Assertions.assertEquals(lineMap.getLineNumber(position), resolver.getLineNumber(position), "position " + position);
+        }
+    }
+
+    @Test
+    public void testRandomPositions() {
+        Random random = new Random(2);
+        String source = randomSource(random, 2000);
+        LineMap lineMap = lineMap(source);
+        LineResolver resolver = new LineResolver(lineMap);
+        for (int i = 0; i < 10_000; i++) {
+            int position = random.nextInt(source.length() + 10);
+            Assertions.assertEquals(lineMap.getLineNumber(position), resolver.getLineNumber(position), "position " + position);
+        }
+    }
+
+    @Test
+    public void testSingleLine() {
+        LineMap lineMap = lineMap("class A {}");
+        LineResolver resolver = new LineResolver(lineMap);
+        Assertions.assertEquals(1, resolver.getLineNumber(5));
+        Assertions.assertEquals(1, resolver.getLineNumber(0));
+        Assertions.assertEquals(1, resolver.getLineNumber(100));
+    }
+
+    private static String randomSource(Random random, int lineCount) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < lineCount; i++) {
+            for (int length = random.nextInt(4) == 0 ? 0 : random.nextInt(120); length > 0; length--) {
+                source.append('x');
+            }
+            source.append('\n');
+        }
+        return source.toString();
+    }
+
+    /**
+     * Same lookup as javac's line map: the line is the number of line starts at or before the position
+     */
+    private static LineMap lineMap(String source) {
+        int[] starts = new int[source.length() + 1];
+        int lineCount = 0;
+        starts[lineCount++] = 0;
+        for (int i = 0; i < source.length(); i++) {
+            if (source.charAt(i) == '\n') {
+                starts[lineCount++] = i + 1;
+            }
+        }
+        int[] lineStarts = Arrays.copyOf(starts, lineCount);
+        return new LineMap() {
+            @Override
+            public long getStartPosition(long line) {
+                return lineStarts[(int) line - 1];
+            }
+
+            @Override
+            public long getPosition(long line, long column) {
+                return getStartPosition(line) + column - 1;
+            }
+
+            @Override
+            public long getLineNumber(long pos) {
+                int index = Arrays.binarySearch(lineStarts, (int) Math.min(pos, Integer.MAX_VALUE));
+                return index >= 0 ? index + 1 : -index - 1;
+            }
+
+            @Override
+            public long getColumnNumber(long pos) {
+                return pos - getStartPosition(getLineNumber(pos)) + 1;
+            }
+        };
+    }
+}
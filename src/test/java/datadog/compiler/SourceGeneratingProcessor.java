@@ -0,0 +1,48 @@
+package datadog.compiler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * Generates one class per round for a given number of rounds, so that the compilation goes through several processing rounds.
+ */
+public class SourceGeneratingProcessor extends AbstractProcessor {
+
+    private final int generatedClasses;
+    private int round;
+
+    public SourceGeneratingProcessor(int generatedClasses) {
+        this.generatedClasses = generatedClasses;
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton("*");
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver() || round >= generatedClasses) {
+            return false;
+        }
+        String className = "Generated" + round++;
+        try (Writer writer = processingEnv.getFiler().createSourceFile("datadog.compiler." + className).openWriter()) {
+            writer.write("package datadog.compiler;\n\npublic class " + className + " {\n    public void method() {\n    }\n}\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,25 @@
+package datadog.compiler;
+
+public class TestAbiStable {
+    public TestAbiStable() {
+    }
+
+    public void method(int arg) {
+    }
+
+    public class Inner {
+        public Inner(String value) {
+        }
+    }
+
+    public enum Letters {
+        A(1), B(2);
+
+        Letters(int value) {
+        }
+    }
+
+    public interface Api {
+        void call();
+    }
+}
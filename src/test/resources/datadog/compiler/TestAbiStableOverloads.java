@@ -0,0 +1,51 @@
+package datadog.compiler;
+
+import java.util.List;
+
+public class TestAbiStableOverloads<E extends CharSequence> {
+    public TestAbiStableOverloads(int value) {
+    }
+
+    public TestAbiStableOverloads(String value) {
+    }
+
+    public static void of(int value) {
+    }
+
+    public static void of(String value) {
+    }
+
+    public void single(int value) {
+    }
+
+    public <T extends Number> void generic(T value, E element) {
+    }
+
+    public void generic(List<String> values, int... more) {
+    }
+
+    public void generic(String[][] values, java.util.Map<String, E> map) {
+    }
+
+    public void same(java.util.Date date) {
+    }
+
+    public void same(java.sql.Date date) {
+    }
+
+    public class Inner {
+        public Inner(int value) {
+        }
+
+        public Inner(E value) {
+        }
+    }
+
+    public enum Letters {
+        A, B;
+
+        public static Letters valueOf(int index) {
+            return values()[index];
+        }
+    }
+}
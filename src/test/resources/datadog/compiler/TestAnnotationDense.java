@@ -0,0 +1,44 @@
+package datadog.compiler;
+
+import datadog.compiler.annotations.SourceLines;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+@Deprecated
+@SuppressWarnings("unused")
+@TestAnnotation(reason = "dense")
+@datadog.compiler.annotations.SourcePath("the-qualified-source-path")
+public class TestAnnotationDense {
+
+    @Deprecated
+    @TestAnnotation(reason = "dense")
+    @java.lang.SuppressWarnings({"unchecked", "rawtypes"})
+    @SourceLines(start = 1, end = 2)
+    public void importedAnnotatedMethod() {
+        // no op
+    }
+
+    @Deprecated
+    @TestAnnotation(reason = "dense")
+    @datadog.compiler.annotations.SourceLines(start = 3, end = 4)
+    public void qualifiedAnnotatedMethod() {
+        // no op
+    }
+
+    @Deprecated
+    @SuppressWarnings("unused")
+    @TestAnnotation(reason = "dense")
+    public void denselyAnnotatedMethod() {
+        // no op
+    }
+
+    @NotSourceLines
+    @Deprecated
+    public void lookalikeAnnotatedMethod() {
+        // no op
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface NotSourceLines {
+    }
+}
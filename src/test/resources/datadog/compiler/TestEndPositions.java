@@ -0,0 +1,77 @@
+package datadog.compiler;
+
+import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
+
+public class TestEndPositions {
+    public interface Shape {
+        double area();
+
+        default String describe() {
+            return "shape { " + area() + " }";
+        }
+    }
+
+    public abstract static class Base {
+        public abstract int size(
+                int scale);
+
+        public String braces() {
+            return "}" + '}' + "{";
+        }
+        /* } */
+    }
+
+    public @interface Marker {
+        String value() default "};";
+
+        int[] numbers() default {1, 2};
+    }
+
+    public static class Empty {
+    }
+
+    public static class Fields {
+        private int counter = 1;
+        private final Runnable last = new Runnable() {
+            @Override
+            public void run() {
+                counter++;
+            }
+        } // a comment }
+        ;
+    }
+
+    public enum Operation {
+        PLUS {
+            @Override
+            public int apply(int a, int b) {
+                return a + b;
+            }
+        },
+        MINUS;
+
+        public int apply(int a, int b) {
+            return a - b;
+        }
+    }
+
+    public IntUnaryOperator expressionLambda() {
+        return x ->
+                x + Math.max(x,
+                        1);
+    }
+
+    public Supplier<Object> nestedLambda() {
+        return () -> new Object() {
+            @Override
+            public String toString() {
+                return "nested";
+            }
+        };
+    }
+
+    public Object anonymousEmpty() {
+        return new Object() {};
+    }
+}
@@ -0,0 +1,45 @@
+package datadog.compiler;
+
+import java.util.concurrent.Callable;
+
+public class TestNestedDeclarations {
+    public int noDeclarations() {
+        // new Runnable() { }
+        String s = "new Runnable() { } class -> \" enum";
+        return s.length() + TestNestedDeclarations.class.getName().length();
+    }
+
+    public Object anonymousInArgument() throws Exception {
+        return call(new Callable<Object>() {
+            @Override
+            public Object call() {
+                return "anonymous";
+            }
+        });
+    }
+
+    public Object localClass() {
+        class Local {
+            public Object get() {
+                return new Object() /* comment */ {
+                    @Override
+                    public String toString() {
+                        return "nested";
+                    }
+                };
+            }
+        }
+        return new Local().get();
+    }
+
+    public Runnable lambdaWithAnonymous() {
+        return () -> new Thread(new Runnable() {
+            public void run() {
+            }
+        }).start();
+    }
+
+    private static Object call(Callable<Object> callable) throws Exception {
+        return callable.call();
+    }
+}
@@ -0,0 +1,23 @@
+package datadog.compiler;
+
+public class TestOverloads {
+    public void overloaded(int a) {
+        // no op
+    }
+
+    public void overloaded(String a) {
+        // no op
+    }
+
+    public void overloaded() {
+        // no op
+    }
+
+    public enum Letters {
+        A, B;
+
+        public static Letters valueOf(int index) {
+            return values()[index];
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package datadog.compiler;
+
+import java.util.List;
+
+public class TestSourceIndex {
+    private int privateMethod(String s, int[][] a, List<String> l) {
+        return 0;
+    }
+
+    public <T extends Comparable<T>> T genericMethod(T value) {
+        return value;
+    }
+
+    public class Inner {
+        Inner(long value) {
+            // no op
+        }
+    }
+
+    enum Letters {
+        A, B;
+
+        Letters() {
+            // no op
+        }
+    }
+
+    public Runnable anonymous() {
+        return new Runnable() {
+            public void run() {
+                // no op
+            }
+        };
+    }
+}
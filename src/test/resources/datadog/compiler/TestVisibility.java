@@ -0,0 +1,28 @@
+package datadog.compiler;
+
+import java.util.function.Supplier;
+
+public class TestVisibility {
+    public void publicMethod() {
+    }
+
+    protected void protectedMethod() {
+    }
+
+    void packageMethod() {
+    }
+
+    private void privateMethod() {
+    }
+
+    public static final Supplier<StackTraceElement[]> FIELD_LAMBDA = () ->
+            new Throwable().getStackTrace();
+
+    public static StackTraceElement[] methodLambda() {
+        Supplier<StackTraceElement[]> outer = () -> {
+            Supplier<StackTraceElement[]> inner = () -> new Throwable().getStackTrace();
+            return inner.get();
+        };
+        return outer.get();
+    }
+}